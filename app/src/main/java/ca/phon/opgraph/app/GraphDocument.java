@@ -27,6 +27,8 @@ import javax.swing.undo.*;
 import ca.phon.opgraph.*;
 import ca.phon.opgraph.app.commands.core.*;
 import ca.phon.opgraph.app.components.canvas.*;
+import ca.phon.opgraph.app.edits.node.*;
+import ca.phon.opgraph.app.extensions.*;
 import ca.phon.opgraph.extensions.*;
 import ca.phon.ui.jbreadcrumb.*;
 
@@ -61,6 +63,12 @@ public class GraphDocument {
 	/** The processing context for the currently viewed graph */
 	private Processor processor; // XXX should this be here or in GraphEditorModel?
 
+	/**
+	 * Settings of each node of the processed graph, including the settings of
+	 * nodes inside of it, when the last run of {@link #processor} finished
+	 */
+	private Map<OpNode, List<Properties>> processedSettings = new IdentityHashMap<>();
+
 	/** Support for undoable edits */
 	private UndoableEditSupport undoSupport;
 
@@ -89,6 +97,7 @@ public class GraphDocument {
 			@Override
 			public void undoableEditHappened(UndoableEditEvent e) {
 				super.undoableEditHappened(e);
+				invalidateProcessedNodes(e.getEdit());
 				modified = true;
 				changeSupport.firePropertyChange(UNDO_STATE, null, this);
 			}
@@ -104,6 +113,7 @@ public class GraphDocument {
 			@Override
 			public synchronized void undo() throws CannotUndoException {
 				if(super.canUndo()) {
+					invalidateProcessedNodes(editToBeUndone());
 					super.undo();
 					changeSupport.firePropertyChange(UNDO_STATE, null, this);
 				}
@@ -112,6 +122,7 @@ public class GraphDocument {
 			@Override
 			public synchronized void redo() throws CannotRedoException {
 				if(super.canRedo()) {
+					invalidateProcessedNodes(editToBeRedone());
 					super.redo();
 					changeSupport.firePropertyChange(UNDO_STATE, null, this);
 				}
@@ -275,6 +286,7 @@ public class GraphDocument {
 		if(this.processor != processor) {
 			final Processor oldContext = this.processor;
 			this.processor = processor;
+			this.processedSettings = new IdentityHashMap<>();
 
 			// Setup context for default values
 			if(processor != null) {
@@ -287,7 +299,85 @@ public class GraphDocument {
 		}
 	}
 
-	
+	/**
+	 * Invalidates, in the processing context, the node whose settings are
+	 * changed by the given edit so that {@link Processor#reprocess()} picks
+	 * up the change. Nodes inside of macros invalidate the macro node
+	 * they are contained in.
+	 *
+	 * @param edit  the edit
+	 */
+	private void invalidateProcessedNodes(UndoableEdit edit) {
+		if(processor == null || !(edit instanceof NodeSettingsEdit))
+			return;
+
+		final NodeSettings settings = ((NodeSettingsEdit)edit).getSettings();
+		if(!(settings instanceof OpNode))
+			return;
+
+		for(OpNode node : processor.getGraphOfContext().getVertices()) {
+			if(containsNode(node, (OpNode)settings))
+				processor.invalidate(node);
+		}
+	}
+
+	/**
+	 * Invalidates, in the processing context, the nodes whose settings (or
+	 * the settings of a node inside of them) changed since the last finished
+	 * run. Settings components may change a node directly without posting a
+	 * {@link NodeSettingsEdit}, so this should be called before
+	 * {@link Processor#reprocess()}. If no finished run was recorded, every
+	 * node is invalidated.
+	 */
+	public void invalidateChangedSettings() {
+		if(processor == null)
+			return;
+
+		for(OpNode node : processor.getGraphOfContext().getVertices()) {
+			final List<Properties> settings = processedSettings.get(node);
+			if(settings == null || !settings.equals(collectSettings(node, new ArrayList<>())))
+				processor.invalidate(node);
+		}
+	}
+
+	/**
+	 * Records the settings of the nodes of the processed graph after a
+	 * finished run, see {@link #invalidateChangedSettings()}.
+	 */
+	private void recordProcessedSettings() {
+		final Map<OpNode, List<Properties>> settings = new IdentityHashMap<>();
+		for(OpNode node : processor.getGraphOfContext().getVertices())
+			settings.put(node, collectSettings(node, new ArrayList<>()));
+		processedSettings = settings;
+	}
+
+	private List<Properties> collectSettings(OpNode node, List<Properties> settings) {
+		final NodeSettings nodeSettings = node.getExtension(NodeSettings.class);
+		if(nodeSettings != null)
+			settings.add(nodeSettings.getSettings());
+
+		final CompositeNode composite = node.getExtension(CompositeNode.class);
+		if(composite != null && composite.getGraph() != null) {
+			for(OpNode child : composite.getGraph().getVertices())
+				collectSettings(child, settings);
+		}
+		return settings;
+	}
+
+	private boolean containsNode(OpNode node, OpNode target) {
+		if(node == target)
+			return true;
+
+		final CompositeNode composite = node.getExtension(CompositeNode.class);
+		if(composite != null && composite.getGraph() != null) {
+			for(OpNode child : composite.getGraph().getVertices()) {
+				if(containsNode(child, target))
+					return true;
+			}
+		}
+		return false;
+	}
+
 	public boolean isModified() {
 		return this.modified;
 	}
@@ -330,6 +420,9 @@ public class GraphDocument {
 	private OpNode debugNode = null;
 	public void updateDebugState(Processor processor) {
 		if(processor != null && this.processor == processor) {
+			if(!processor.hasNext() && processor.getError() == null)
+				recordProcessedSettings();
+
 			OpNode newNode = processor.getCurrentNode();
 			changeSupport.firePropertyChange(DEBUG_STATE, debugNode, newNode);
 			debugNode = newNode;
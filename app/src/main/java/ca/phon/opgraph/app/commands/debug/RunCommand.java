@@ -57,6 +57,11 @@ public class RunCommand extends GraphCommand {
 			if(context.hasNext()) {
 				context.stepAll();
 				document.updateDebugState(context);
+			} else if(context.getError() == null) {
+				// re-run only what changed since the last run
+				document.invalidateChangedSettings();
+				context.reprocess();
+				document.updateDebugState(context);
 			}
 		}
 	}
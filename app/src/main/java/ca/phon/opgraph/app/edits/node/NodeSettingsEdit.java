@@ -51,6 +51,15 @@ public class NodeSettingsEdit extends AbstractUndoableEdit {
 		perform();
 	}
 
+	/**
+	 * Gets the settings object modified by this edit.
+	 * 
+	 * @return the settings object
+	 */
+	public NodeSettings getSettings() {
+		return settings;
+	}
+
 	/**
 	 * Performs the edit
 	 */
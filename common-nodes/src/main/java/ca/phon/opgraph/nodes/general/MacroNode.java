@@ -20,6 +20,7 @@ import java.net.*;
 import java.util.*;
 
 import ca.phon.opgraph.*;
+import ca.phon.opgraph.app.extensions.*;
 import ca.phon.opgraph.exceptions.*;
 import ca.phon.opgraph.extensions.*;
 
@@ -51,10 +52,65 @@ public class MacroNode
 	/** A list of published outputs */
 	protected List<PublishedOutput> publishedOutputs;
 	
-	private Processor currentProcessor;
+	/** Processors used to run the graph, reused between calls to operate */
+	private volatile ProcessorPool processorPool;
+
+	/**
+	 * Processors which are currently running. Processors are weakly held, so a
+	 * processor kept by an abandoned consumer (e.g., a streamed output which is
+	 * never exhausted) does not stay reachable through this node.
+	 */
+	private final Set<Processor> activeProcessors = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
 	
 	private final List<ProcessorListener> processorListeners = new ArrayList<>();
 
+	/** Incremented each time the graph is replaced, identifies the graph in cache states */
+	private long graphGeneration = 0L;
+
+	/** Whether unused nodes are skipped, see {@link #isPruneUnusedNodes()} */
+	private boolean pruneUnusedNodes = false;
+
+	/** Whether the graph is shared with other macros, see {@link #isGraphShared()} */
+	private boolean graphShared = false;
+
+	/** Unpublishes fields of nodes removed from the graph */
+	private final OpGraphListener graphListener = new OpGraphListener() {
+		
+		@Override
+		public void nodeRemoved(OpGraph graph, OpNode node) {
+			if(graph != getGraph()) return;
+			
+			// unpublish fields if node is deleted
+			for(PublishedInput pi:getPublishedInputs().toArray(new PublishedInput[0])) {
+				if(pi.destinationNode == node) {
+					unpublish(pi.destinationNode, pi.nodeInputField);
+				}
+			}
+			for(PublishedOutput po:getPublishedOutputs().toArray(new PublishedOutput[0])) {
+				if(po.sourceNode == node) {
+					unpublish(po.sourceNode, po.nodeOutputField);
+				}
+			}
+		}
+		
+		@Override
+		public void nodeAdded(OpGraph graph, OpNode node) {
+		}
+		
+		@Override
+		public void linkRemoved(OpGraph graph, OpLink link) {
+		}
+		
+		@Override
+		public void linkAdded(OpGraph graph, OpLink link) {
+		}
+
+		@Override
+		public void nodeSwapped(OpGraph graph, OpNode oldNode, OpNode newNode) {
+		}
+		
+	};
+
 	/**
 	 * Constructs a new macro with no source file and a default graph.
 	 */
@@ -87,42 +143,7 @@ public class MacroNode
 		this.publishedInputs = new ArrayList<PublishedInput>();
 		this.publishedOutputs = new ArrayList<PublishedOutput>();
 		
-		this.graph.addGraphListener( new OpGraphListener() {
-			
-			@Override
-			public void nodeRemoved(OpGraph graph, OpNode node) {
-				if(graph != getGraph()) return;
-				
-				// unpublish fields if node is deleted
-				for(PublishedInput pi:getPublishedInputs().toArray(new PublishedInput[0])) {
-					if(pi.destinationNode == node) {
-						unpublish(pi.destinationNode, pi.nodeInputField);
-					}
-				}
-				for(PublishedOutput po:getPublishedOutputs().toArray(new PublishedOutput[0])) {
-					if(po.sourceNode == node) {
-						unpublish(po.sourceNode, po.nodeOutputField);
-					}
-				}
-			}
-			
-			@Override
-			public void nodeAdded(OpGraph graph, OpNode node) {
-			}
-			
-			@Override
-			public void linkRemoved(OpGraph graph, OpLink link) {
-			}
-			
-			@Override
-			public void linkAdded(OpGraph graph, OpLink link) {
-			}
-
-			@Override
-			public void nodeSwapped(OpGraph graph, OpNode oldNode, OpNode newNode) {
-			}
-			
-		});
+		this.graph.addGraphListener(graphListener);
 
 		putExtension(CompositeNode.class, this);
 		putExtension(CustomProcessing.class, this);
@@ -148,6 +169,99 @@ public class MacroNode
 		return Collections.unmodifiableList(this.processorListeners);
 	}
 
+	/**
+	 * Gets a processor for the graph of this macro, reset to use the given
+	 * context. Processors are pooled so repeated runs of the macro do not
+	 * re-create them. The processor must be given back using
+	 * {@link #releaseProcessor(Processor)} once processing is finished.
+	 * 
+	 * @param context  the global context for the processor
+	 * 
+	 * @return the processor
+	 */
+	protected Processor acquireProcessor(OpContext context) {
+		ProcessorPool pool = processorPool;
+		if(pool == null || pool.getGraph() != graph) {
+			pool = new ProcessorPool(graph);
+			processorPool = pool;
+		}
+		final Processor processor = pool.acquire(context);
+		processor.setSinks(pruneUnusedNodes ? getSinks() : null);
+		activeProcessors.add(processor);
+		return processor;
+	}
+
+	/**
+	 * Gets the nodes of the macro graph whose outputs are published. Nodes
+	 * which neither feed these nodes nor have side effects are prunable.
+	 *
+	 * @return the sink nodes
+	 */
+	protected List<OpNode> getSinks() {
+		final List<OpNode> sinks = new ArrayList<>(publishedOutputs.size());
+		for(PublishedOutput publishedOutput : publishedOutputs) {
+			if(!sinks.contains(publishedOutput.sourceNode))
+				sinks.add(publishedOutput.sourceNode);
+		}
+		return sinks;
+	}
+
+	/**
+	 * Gets whether nodes of the macro graph that no published output
+	 * depends on are skipped. See {@link #setPruneUnusedNodes(boolean)}.
+	 *
+	 * @return <code>true</code> if unused nodes are skipped, <code>false</code> otherwise
+	 */
+	public boolean isPruneUnusedNodes() {
+		return pruneUnusedNodes;
+	}
+
+	/**
+	 * Sets whether nodes of the macro graph that no published output
+	 * depends on are skipped. Only enable pruning for macros whose nodes
+	 * with observable effects (e.g., writing files) are annotated with
+	 * {@link SideEffects}, since unannotated nodes are assumed to be pure.
+	 *
+	 * @param pruneUnusedNodes  <code>true</code> to skip unused nodes,
+	 *                          <code>false</code> to operate every node
+	 *
+	 * @see #getPrunedNodes()
+	 */
+	public void setPruneUnusedNodes(boolean pruneUnusedNodes) {
+		this.pruneUnusedNodes = pruneUnusedNodes;
+	}
+
+	/**
+	 * Gets the nodes of the macro graph which none of the published outputs
+	 * depend on and which have no side effects. These nodes are not operated
+	 * when {@link #isPruneUnusedNodes()} is enabled.
+	 *
+	 * @return the prunable nodes, in processing order
+	 */
+	public List<OpNode> getPrunedNodes() {
+		final ExecutionPlan plan = graph.getExecutionPlan();
+		final boolean[] live = plan.findLiveNodes(getSinks());
+		final List<OpNode> retVal = new ArrayList<>();
+		for(int i = 0; i < live.length; ++i) {
+			if(!live[i])
+				retVal.add(plan.getNode(i));
+		}
+		return retVal;
+	}
+
+	/**
+	 * Returns a processor obtained using {@link #acquireProcessor(OpContext)}.
+	 * 
+	 * @param processor  the processor
+	 */
+	protected void releaseProcessor(Processor processor) {
+		activeProcessors.remove(processor);
+
+		final ProcessorPool pool = processorPool;
+		if(pool != null && pool.getGraph() == processor.getGraphOfContext())
+			pool.release(processor);
+	}
+
 	/**
 	 * Constructs a context mapping for this macro's published inputs. Inputs contained
 	 * in the given context will be mapped to their appropriate node/input field in the
@@ -185,32 +299,42 @@ public class MacroNode
 	public void operate(OpContext context) throws ProcessingException {
 		if(graph != null) {
 			// First set up processor
-			currentProcessor = new Processor(graph);
-			currentProcessor.reset(context);
-			for(ProcessorListener listener:getProcessorListeners())
-				currentProcessor.addProcessorListener(listener);
-
-			// The reset call above could clear out the context, so map after
-			mapInputs(context);
-
-			// Now run the graph
-			currentProcessor.stepAll();
-			if(currentProcessor.getError() != null)
-				throw currentProcessor.getError();
+			final Processor processor = acquireProcessor(context);
+			final List<ProcessorListener> listeners = new ArrayList<>(getProcessorListeners());
+			for(ProcessorListener listener:listeners)
+				processor.addProcessorListener(listener);
 
-			// Map the published outputs from the child nodes back into context
-			mapOutputs(context);
-			
-			// free macro processor memory
-			currentProcessor.getContext().clearChildContexts();
+			try {
+				// The reset call above could clear out the context, so map after
+				mapInputs(context);
+	
+				// Now run the graph
+				processor.stepAll();
+				if(processor.getError() != null)
+					throw processor.getError();
+	
+				// Map the published outputs from the child nodes back into context
+				mapOutputs(context);
+				
+				// free macro processor memory
+				processor.getContext().clearChildContexts();
+			} finally {
+				for(ProcessorListener listener:listeners)
+					processor.removeProcessorListener(listener);
+				releaseProcessor(processor);
+			}
 		}
 	}
 	
 	@Override
 	public void setCanceled(boolean canceled) {
 		super.setCanceled(canceled);
-		if(currentProcessor != null)
-			currentProcessor.stop();
+		final List<Processor> processors;
+		synchronized(activeProcessors) {
+			processors = new ArrayList<>(activeProcessors);
+		}
+		for(Processor processor:processors)
+			processor.stop();
 	}
 
 	//
@@ -240,7 +364,101 @@ public class MacroNode
 
 	@Override
 	public void setGraph(OpGraph graph) {
+		if(this.graph != null)
+			this.graph.removeGraphListener(graphListener);
 		this.graph = graph;
+		++this.graphGeneration;
+		this.graphShared = false;
+		if(this.graph != null)
+			this.graph.addGraphListener(graphListener);
+	}
+
+	/**
+	 * Gets whether the graph of this macro is shared with other macros
+	 * (e.g., linked macros read using a {@link MacroNodeCache}). Shared graphs
+	 * must not be modified; each macro operates the shared nodes in its own
+	 * context, and only published fields are specific to the macro.
+	 *
+	 * @return <code>true</code> if the graph is shared, <code>false</code> otherwise
+	 */
+	@Override
+	public boolean isGraphShared() {
+		return graphShared;
+	}
+
+	/**
+	 * Sets whether the graph of this macro is shared with other macros.
+	 *
+	 * @param graphShared  <code>true</code> if the graph is shared,
+	 *                     <code>false</code> otherwise
+	 *
+	 * @see #isGraphShared()
+	 */
+	public void setGraphShared(boolean graphShared) {
+		if(this.graphShared != graphShared && graph != null) {
+			// a shared graph is not modified, and should not keep every macro using it reachable
+			if(graphShared)
+				graph.removeGraphListener(graphListener);
+			else
+				graph.addGraphListener(graphListener);
+		}
+		this.graphShared = graphShared;
+	}
+
+	/**
+	 * Gets whether processors with a {@link ResultCache} may reuse the
+	 * outputs of this macro.
+	 *
+	 * @return <code>true</code> if this macro is cacheable, <code>false</code> otherwise
+	 */
+	public boolean isCacheable() {
+		return getExtension(Cacheable.class) != null;
+	}
+
+	/**
+	 * Sets whether processors with a {@link ResultCache} may reuse the
+	 * outputs of this macro. Only enable caching for macros whose outputs
+	 * depend solely on their published inputs. Cached outputs are not
+	 * reused once the structure of the macro graph, the settings of its
+	 * nodes (see {@link NodeSettings}) or their input defaults change.
+	 * Settings are collected for each lookup, so caching only pays off for
+	 * macros which are more expensive to operate than to inspect.
+	 *
+	 * @param cacheable  <code>true</code> if this macro is cacheable,
+	 *                   <code>false</code> otherwise
+	 */
+	public void setCacheable(boolean cacheable) {
+		final Cacheable cacheState = () -> {
+			final List<Object> state = new ArrayList<>();
+			state.add(graphGeneration);
+			state.add(graph.getVersion());
+			collectSettings(graph, state);
+			return state;
+		};
+		putExtension(Cacheable.class, cacheable ? cacheState : null);
+	}
+
+	/**
+	 * Adds the settings and input defaults of the nodes of a graph, and of
+	 * any composite nodes in it, to a cache state.
+	 *
+	 * @param graph  the graph
+	 * @param state  the list to add values to
+	 */
+	private static void collectSettings(OpGraph graph, List<Object> state) {
+		for(OpNode node : graph.getVertices()) {
+			final NodeSettings settings = node.getExtension(NodeSettings.class);
+			if(settings != null)
+				state.add(settings.getSettings());
+
+			final NodeMetadata meta = node.getExtension(NodeMetadata.class);
+			if(meta != null && !meta.getDefaults().isEmpty())
+				state.add(new HashMap<>(meta.getDefaults()));
+
+			final CompositeNode composite = node.getExtension(CompositeNode.class);
+			if(composite != null && composite.getGraph() != null)
+				collectSettings(composite.getGraph(), state);
+		}
 	}
 
 	//
@@ -14,67 +14,403 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package ca.phon.opgraph.nodes.general;
-
-import java.io.*;
-import java.lang.ref.*;
-import java.net.*;
-import java.util.*;
-
-import ca.phon.opgraph.*;
-import ca.phon.opgraph.io.*;
-
-public class MacroNodeCache {
-	
-	private final Map<URI, WeakReference<OpGraph>> graphMap = new HashMap<URI, WeakReference<OpGraph>>();
-	
-	public MacroNodeCache() {
-		super();
-	}
-	
-	/**
-	 * Get graph from cache or load it.
-	 * 
-	 * @param graphURL
-	 * @return
-	 * @throws IOException
-	 */
-	public OpGraph getGraph(URI graphURI) throws IOException {
-		WeakReference<OpGraph> graphRef = graphMap.get(graphURI);
-		if(graphRef != null) {
-			if(graphRef.get() != null)
-				return graphRef.get();
-			else
-				graphMap.remove(graphURI);
-		}
-		
-		URL graphURL = uriToUrl(graphURI);
-		
-		if(graphURL != null) {
-			final OpGraphSerializer serializer = OpGraphSerializerFactory.getDefaultSerializer();
-			OpGraph graph = serializer.read(graphURL.openStream());
-			
-			graphMap.put(graphURI, new WeakReference<OpGraph>(graph));
-			
-			return graph;
-		} else {
-			throw new IOException("Unable to location graph at " + graphURI.toASCIIString());
-		}
-	}
-	
-	private URL uriToUrl(URI uri) {
-		switch(uri.getScheme()) {
-		case "classpath":
-			return ClassLoader.getSystemResource(uri.getSchemeSpecificPart());
-			
-		default:
-			try {
-				return uri.toURL();
-			} catch (MalformedURLException e) {
-				// log error
-			}
-		}
-		return null;
-	}
-	
-}
+package ca.phon.opgraph.nodes.general;
+
+import java.io.*;
+import java.lang.ref.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.logging.*;
+
+import ca.phon.opgraph.*;
+import ca.phon.opgraph.io.*;
+
+/**
+ * A cache of graphs for linked macros, keyed by graph URI. The cache may
+ * be used from multiple threads.
+ *
+ * Up to {@link #getMaxEntries()} recently used graphs are strongly held.
+ * Graphs evicted from that set are kept through soft references, so they
+ * are only re-read when memory is needed elsewhere. When several threads
+ * request a graph which is not cached, it is read once and shared with
+ * all of them.
+ *
+ * Graphs returned by the cache are shared and must not be modified.
+ */
+public class MacroNodeCache {
+
+	/** Logger */
+	private static final Logger LOGGER = Logger.getLogger(MacroNodeCache.class.getName());
+
+	/** Default number of strongly held graphs */
+	public static final int DEFAULT_MAX_ENTRIES = 64;
+
+	/** Shared instance */
+	private static volatile MacroNodeCache sharedInstance;
+
+	/** Maximum number of strongly held graphs */
+	private final int maxEntries;
+
+	/** Strongly held graphs, in access order. Guarded by <code>this</code>. */
+	private final LinkedHashMap<URI, OpGraph> graphMap;
+
+	/** Graphs evicted from {@link #graphMap}. Guarded by <code>this</code>. */
+	private final Map<URI, SoftReference<OpGraph>> softGraphMap = new HashMap<>();
+
+	/** Loads in progress */
+	private final ConcurrentMap<URI, CompletableFuture<OpGraph>> loadingMap = new ConcurrentHashMap<>();
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	private final AtomicLong loadFailureCount = new AtomicLong();
+
+	private final AtomicLong totalLoadTime = new AtomicLong();
+
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	/**
+	 * Constructs a cache which strongly holds up to {@value #DEFAULT_MAX_ENTRIES}
+	 * graphs.
+	 */
+	public MacroNodeCache() {
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * Constructs a cache.
+	 *
+	 * @param maxEntries  the maximum number of strongly held graphs
+	 *
+	 * @throws IllegalArgumentException  if <code>maxEntries</code> is negative
+	 */
+	public MacroNodeCache(int maxEntries) {
+		super();
+		if(maxEntries < 0)
+			throw new IllegalArgumentException("Maximum number of entries cannot be negative");
+
+		this.maxEntries = maxEntries;
+		this.graphMap = new LinkedHashMap<URI, OpGraph>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<URI, OpGraph> eldest) {
+				if(size() > MacroNodeCache.this.maxEntries) {
+					softGraphMap.put(eldest.getKey(), new SoftReference<>(eldest.getValue()));
+					evictionCount.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Gets a process-wide cache of graphs for linked macros. Readers opt in
+	 * to sharing linked graphs by adding a cache to their serializer factory,
+	 * e.g. <code>factory.putExtension(MacroNodeCache.class, MacroNodeCache.getSharedInstance())</code>.
+	 *
+	 * @return the shared cache
+	 */
+	public static MacroNodeCache getSharedInstance() {
+		MacroNodeCache cache = sharedInstance;
+		if(cache == null) {
+			synchronized(MacroNodeCache.class) {
+				cache = sharedInstance;
+				if(cache == null) {
+					cache = new MacroNodeCache();
+					sharedInstance = cache;
+				}
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * Gets the maximum number of strongly held graphs.
+	 *
+	 * @return the maximum number of entries
+	 */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * Get graph from cache or load it.
+	 * 
+	 * @param graphURI  the uri of the graph
+	 *
+	 * @return the graph
+	 *
+	 * @throws IOException  if the graph could not be read
+	 */
+	public OpGraph getGraph(URI graphURI) throws IOException {
+		OpGraph graph = getCachedGraph(graphURI);
+		if(graph != null) {
+			hitCount.incrementAndGet();
+			return graph;
+		}
+		missCount.incrementAndGet();
+
+		final CompletableFuture<OpGraph> future = new CompletableFuture<>();
+		final CompletableFuture<OpGraph> existing = loadingMap.putIfAbsent(graphURI, future);
+		if(existing != null)
+			return awaitLoad(graphURI, existing);
+
+		try {
+			// another thread may have finished loading since we last looked
+			graph = getCachedGraph(graphURI);
+			if(graph == null) {
+				final long startTime = System.nanoTime();
+				try {
+					graph = loadGraph(graphURI);
+				} finally {
+					totalLoadTime.addAndGet(System.nanoTime() - startTime);
+				}
+
+				synchronized(this) {
+					softGraphMap.remove(graphURI);
+					if(maxEntries > 0)
+						graphMap.put(graphURI, graph);
+					else
+						softGraphMap.put(graphURI, new SoftReference<>(graph));
+				}
+			}
+			future.complete(graph);
+			return graph;
+		} catch(IOException | RuntimeException e) {
+			loadFailureCount.incrementAndGet();
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			loadingMap.remove(graphURI, future);
+		}
+	}
+
+	/**
+	 * Gets a graph if it is already cached.
+	 *
+	 * @param graphURI  the uri of the graph
+	 *
+	 * @return the graph, or <code>null</code> if not cached
+	 */
+	private synchronized OpGraph getCachedGraph(URI graphURI) {
+		OpGraph graph = graphMap.get(graphURI);
+		if(graph == null) {
+			final SoftReference<OpGraph> graphRef = softGraphMap.get(graphURI);
+			if(graphRef != null) {
+				graph = graphRef.get();
+				if(graph != null && maxEntries > 0) {
+					softGraphMap.remove(graphURI);
+					graphMap.put(graphURI, graph);
+				} else if(graph == null) {
+					softGraphMap.remove(graphURI);
+				}
+			}
+		}
+		return graph;
+	}
+
+	/**
+	 * Waits for a graph being loaded by another thread.
+	 *
+	 * @param graphURI  the uri of the graph
+	 * @param future  the pending load
+	 *
+	 * @return the graph
+	 *
+	 * @throws IOException  if the graph could not be read
+	 */
+	private OpGraph awaitLoad(URI graphURI, CompletableFuture<OpGraph> future) throws IOException {
+		try {
+			return future.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + graphURI.toASCIIString());
+		} catch(ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if(cause instanceof IOException)
+				throw (IOException)cause;
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Reads a graph which is not cached.
+	 *
+	 * @param graphURI  the uri of the graph
+	 *
+	 * @return the graph
+	 *
+	 * @throws IOException  if the graph could not be read
+	 */
+	protected OpGraph loadGraph(URI graphURI) throws IOException {
+		URL graphURL = uriToUrl(graphURI);
+		
+		if(graphURL != null) {
+			final OpGraphSerializer serializer = OpGraphSerializerFactory.getDefaultSerializer();
+			try(InputStream is = graphURL.openStream()) {
+				return serializer.read(is);
+			}
+		} else {
+			throw new IOException("Unable to location graph at " + graphURI.toASCIIString());
+		}
+	}
+
+	/**
+	 * Loads the given graphs into this cache. Graphs which could not be
+	 * read are reported after trying all others.
+	 *
+	 * @param graphURIs  the uris of the graphs
+	 *
+	 * @throws IOException  if any graph could not be read, with the errors
+	 *                      of other graphs added as suppressed exceptions
+	 */
+	public void preload(Collection<URI> graphURIs) throws IOException {
+		IOException error = null;
+		for(URI graphURI : graphURIs) {
+			try {
+				getGraph(graphURI);
+			} catch(IOException e) {
+				if(error == null)
+					error = e;
+				else
+					error.addSuppressed(e);
+			}
+		}
+
+		if(error != null)
+			throw error;
+	}
+
+	/**
+	 * Loads the graphs listed in a manifest into this cache. The manifest
+	 * has one graph uri per line; blank lines and lines starting with
+	 * <code>#</code> are ignored.
+	 *
+	 * @param manifest  the manifest
+	 *
+	 * @throws IOException  if the manifest or any graph could not be read
+	 */
+	public void preload(URL manifest) throws IOException {
+		final List<URI> graphURIs = new ArrayList<>();
+		try(BufferedReader reader = new BufferedReader(new InputStreamReader(manifest.openStream(), "UTF-8"))) {
+			String line = null;
+			while((line = reader.readLine()) != null) {
+				line = line.trim();
+				if(line.length() == 0 || line.startsWith("#"))
+					continue;
+
+				try {
+					graphURIs.add(new URI(line));
+				} catch(URISyntaxException e) {
+					throw new IOException("Invalid graph uri in manifest " + manifest + ": " + line, e);
+				}
+			}
+		}
+
+		LOGGER.fine("Preloading " + graphURIs.size() + " graphs from " + manifest);
+		preload(graphURIs);
+	}
+
+	/**
+	 * Removes a graph from this cache.
+	 *
+	 * @param graphURI  the uri of the graph
+	 */
+	public synchronized void invalidate(URI graphURI) {
+		graphMap.remove(graphURI);
+		softGraphMap.remove(graphURI);
+	}
+
+	/**
+	 * Removes all graphs from this cache. Statistics are not reset.
+	 */
+	public synchronized void clear() {
+		graphMap.clear();
+		softGraphMap.clear();
+	}
+
+	/**
+	 * Gets the number of graphs which are strongly held by this cache.
+	 *
+	 * @return the number of strongly held graphs
+	 */
+	public synchronized int size() {
+		return graphMap.size();
+	}
+
+	/**
+	 * Gets the number of requests for graphs which were already cached.
+	 *
+	 * @return the hit count
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * Gets the number of requests for graphs which were not cached. Requests
+	 * waiting for another thread to read the same graph are included.
+	 *
+	 * @return the miss count
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * Gets the number of graphs which could not be read.
+	 *
+	 * @return the load failure count
+	 */
+	public long getLoadFailureCount() {
+		return loadFailureCount.get();
+	}
+
+	/**
+	 * Gets the total time spent reading graphs.
+	 *
+	 * @return the load time, in nanoseconds
+	 */
+	public long getTotalLoadTime() {
+		return totalLoadTime.get();
+	}
+
+	/**
+	 * Gets the number of graphs moved from strong to soft references.
+	 *
+	 * @return the eviction count
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("MacroNodeCache[size=%d, hits=%d, misses=%d, failures=%d, loadTime=%dms, evictions=%d]",
+				size(), getHitCount(), getMissCount(), getLoadFailureCount(),
+				TimeUnit.NANOSECONDS.toMillis(getTotalLoadTime()), getEvictionCount());
+	}
+
+	private URL uriToUrl(URI uri) {
+		switch(uri.getScheme()) {
+		case "classpath":
+			return ClassLoader.getSystemResource(uri.getSchemeSpecificPart());
+			
+		default:
+			try {
+				return uri.toURL();
+			} catch (MalformedURLException e) {
+				// log error
+			}
+		}
+		return null;
+	}
+	
+}
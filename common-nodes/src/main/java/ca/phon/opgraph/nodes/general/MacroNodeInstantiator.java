@@ -19,7 +19,6 @@ package ca.phon.opgraph.nodes.general;
 import java.io.*;
 
 import ca.phon.opgraph.*;
-import ca.phon.opgraph.app.*;
 import ca.phon.opgraph.app.util.*;
 import ca.phon.opgraph.extensions.Publishable.*;
 import ca.phon.opgraph.library.instantiators.*;
@@ -48,8 +47,8 @@ public class MacroNodeInstantiator implements Instantiator<MacroNode> {
 		MacroNode retVal = null;
 		// read graph document
 		try {
-			OpGraph graph = new OpGraph();
-			graph = OpgraphIO.read(nodeData.getGraphURL().openStream());
+			// graph documents are parsed once and shared as templates
+			final OpGraph graph = MacroTemplateRegistry.getSharedInstance().newGraph(nodeData.getGraphURL());
 			
 			// change node ids in graph if embedded to ensure multiple instances do not share ids
 			if(nodeData.isGraphEmbedded())
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2012-2020 Gregory Hedlund <https://www.phon.ca>
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.opgraph.nodes.general;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+import org.w3c.dom.*;
+
+import ca.phon.opgraph.*;
+import ca.phon.opgraph.io.xml.*;
+
+/**
+ * A registry of macro graph templates, keyed by the URL of the graph
+ * document. Each document is parsed and validated once; graphs are then
+ * constructed from the parsed document, so every call to
+ * {@link #newGraph(URL)} returns a new, independent graph without
+ * reading the document again.
+ *
+ * Templates read from <code>file:</code> URLs are parsed again when the
+ * file is modified. The registry may be used from multiple threads.
+ */
+public class MacroTemplateRegistry {
+
+	/** Logger */
+	private static final Logger LOGGER = Logger.getLogger(MacroTemplateRegistry.class.getName());
+
+	/** Shared instance */
+	private static volatile MacroTemplateRegistry sharedInstance;
+
+	/** Serializer used to parse templates and construct graphs */
+	private volatile XMLSerializerFactory serializerFactory;
+
+	/** Templates, keyed by the external form of their URL */
+	private final ConcurrentMap<String, MacroTemplate> templates = new ConcurrentHashMap<>();
+
+	/**
+	 * Gets the registry shared by macro node instantiation and serialization.
+	 *
+	 * @return the shared registry
+	 */
+	public static MacroTemplateRegistry getSharedInstance() {
+		MacroTemplateRegistry registry = sharedInstance;
+		if(registry == null) {
+			synchronized(MacroTemplateRegistry.class) {
+				registry = sharedInstance;
+				if(registry == null) {
+					registry = new MacroTemplateRegistry();
+					sharedInstance = registry;
+				}
+			}
+		}
+		return registry;
+	}
+
+	/**
+	 * Constructs a new graph from the template at the given URL, parsing the
+	 * template if it has not been parsed yet or has changed.
+	 *
+	 * @param graphURL  the url of the graph document
+	 *
+	 * @return a new graph
+	 *
+	 * @throws IOException  if the template could not be read
+	 */
+	public OpGraph newGraph(URL graphURL) throws IOException {
+		if(graphURL == null)
+			throw new IOException("No graph document given");
+
+		final MacroTemplate template = templates.computeIfAbsent(graphURL.toExternalForm(), key -> new MacroTemplate(graphURL));
+		return template.newGraph(getSerializerFactory());
+	}
+
+	/**
+	 * Removes the template for a URL so it is parsed again on next use.
+	 *
+	 * @param graphURL  the url of the graph document
+	 */
+	public void invalidate(URL graphURL) {
+		templates.remove(graphURL.toExternalForm());
+	}
+
+	/**
+	 * Removes all templates.
+	 */
+	public void clear() {
+		templates.clear();
+	}
+
+	/**
+	 * Gets the number of templates in this registry.
+	 *
+	 * @return the number of templates
+	 */
+	public int size() {
+		return templates.size();
+	}
+
+	private XMLSerializerFactory getSerializerFactory() {
+		XMLSerializerFactory factory = serializerFactory;
+		if(factory == null) {
+			synchronized(this) {
+				factory = serializerFactory;
+				if(factory == null) {
+					factory = new XMLSerializerFactory();
+					serializerFactory = factory;
+				}
+			}
+		}
+		return factory;
+	}
+
+	/**
+	 * A parsed graph document.
+	 */
+	private static final class MacroTemplate {
+		private final URL graphURL;
+
+		/** The parsed document, or <code>null</code> if not parsed yet */
+		private Document document;
+
+		/** Modification time of the document when parsed, or <code>0</code> if unknown */
+		private long lastModified;
+
+		MacroTemplate(URL graphURL) {
+			this.graphURL = graphURL;
+		}
+
+		/*
+		 * DOM implementations are not safe for concurrent reads, so graphs
+		 * are constructed from a template one at a time.
+		 */
+		synchronized OpGraph newGraph(XMLSerializerFactory factory) throws IOException {
+			final long modified = getLastModified();
+			if(document == null || modified != lastModified) {
+				try(InputStream is = graphURL.openStream()) {
+					synchronized(factory) {
+						document = factory.readDocument(is);
+					}
+				} catch(IOException e) {
+					document = null;
+					throw e;
+				}
+				lastModified = modified;
+				LOGGER.fine("Parsed macro template " + graphURL);
+			}
+			return factory.read(document);
+		}
+
+		private long getLastModified() {
+			if(!"file".equals(graphURL.getProtocol()))
+				return 0L;
+
+			try {
+				return new File(graphURL.toURI()).lastModified();
+			} catch(URISyntaxException | IllegalArgumentException e) {
+				return 0L;
+			}
+		}
+	}
+
+}
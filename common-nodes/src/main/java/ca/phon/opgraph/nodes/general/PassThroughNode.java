@@ -18,6 +18,7 @@ package ca.phon.opgraph.nodes.general;
 
 import ca.phon.opgraph.*;
 import ca.phon.opgraph.exceptions.*;
+import ca.phon.opgraph.nodes.iteration.*;
 
 /**
  * An {@link OpNode} that takes a value and outputs the same value.
@@ -30,7 +31,7 @@ import ca.phon.opgraph.exceptions.*;
 	            "given as input, a null value is output.",
 	category="General"
 )
-public class PassThroughNode extends OpNode {
+public class PassThroughNode extends OpNode implements BatchOperation {
 	/** Input field for the value */
 	public final static InputField INPUT = new InputField("input", "input value", true, true);
 
@@ -43,10 +44,17 @@ public class PassThroughNode extends OpNode {
 	public PassThroughNode() {
 		putField(INPUT);
 		putField(OUTPUT);
+		putExtension(BatchOperation.class, this);
 	}
 
 	@Override
 	public void operate(OpContext context) throws ProcessingException {
 		context.put(OUTPUT, context.get(INPUT));
 	}
+
+	@Override
+	public void operateBatch(OpContext context, int blockSize) throws ProcessingException {
+		// blocks are passed through as-is
+		operate(context);
+	}
 }
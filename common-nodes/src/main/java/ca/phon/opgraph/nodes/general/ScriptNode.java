@@ -38,6 +38,7 @@ import ca.phon.opgraph.nodes.general.script.*;
 /**
  * A node that runs a script. 
  */
+@SideEffects
 @OpNodeInfo(
 	name="Script",
 	description="Executes a script.",
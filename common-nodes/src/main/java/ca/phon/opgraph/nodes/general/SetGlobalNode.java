@@ -4,6 +4,7 @@ import ca.phon.opgraph.InputField;
 import ca.phon.opgraph.OpContext;
 import ca.phon.opgraph.OpNode;
 import ca.phon.opgraph.OpNodeInfo;
+import ca.phon.opgraph.SideEffects;
 import ca.phon.opgraph.app.GraphDocument;
 import ca.phon.opgraph.app.extensions.NodeSettings;
 import ca.phon.opgraph.exceptions.ProcessingException;
@@ -14,6 +15,7 @@ import java.awt.*;
 import java.util.Properties;
 
 @OpNodeInfo(name="Set Global", description = "Set global variable", category = "General", showInLibrary = true)
+@SideEffects
 public class SetGlobalNode extends OpNode implements NodeSettings {
 
 	private final InputField globalNameInput = new InputField("globalName", "Global variable name",
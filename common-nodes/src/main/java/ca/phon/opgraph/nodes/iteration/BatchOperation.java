@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2012-2020 Gregory Hedlund <https://www.phon.ca>
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.opgraph.nodes.iteration;
+
+import ca.phon.opgraph.*;
+import ca.phon.opgraph.exceptions.*;
+
+/**
+ * A node extension for nodes which can operate on a block of iterations
+ * at once (see {@link BatchProcessor}). Inputs which vary between the
+ * iterations of a block are given as a {@link Block}, inputs which are
+ * the same for every iteration (e.g., node defaults or global values) are
+ * given as-is. Outputs should be put into the context in the same way:
+ * a {@link Block} with one value per iteration, or a single value to use
+ * for every iteration.
+ *
+ * Nodes without this extension are operated once per iteration.
+ */
+public interface BatchOperation {
+	/**
+	 * Operates on a block of iterations.
+	 * 
+	 * @param context  the node's context
+	 * @param blockSize  the number of iterations in the block
+	 * 
+	 * @throws ProcessingException  if any errors occur during processing
+	 */
+	public abstract void operateBatch(OpContext context, int blockSize) throws ProcessingException;
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2012-2020 Gregory Hedlund <https://www.phon.ca>
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.opgraph.nodes.iteration;
+
+import java.util.*;
+
+import ca.phon.opgraph.*;
+import ca.phon.opgraph.ExecutionPlan.*;
+import ca.phon.opgraph.exceptions.*;
+import ca.phon.opgraph.extensions.*;
+
+/**
+ * Processes a graph for a block of iterations at once. Values flowing
+ * between nodes are {@link Block}s holding one value per iteration, so each
+ * node is dispatched once per block instead of once per iteration.
+ *
+ * Nodes with the {@link BatchOperation} extension operate on the whole
+ * block. Other nodes are operated once for each iteration of the block,
+ * in a context holding the values of that iteration, and their outputs
+ * are collected into blocks.
+ *
+ * Unlike {@link Processor}, no events are fired, breakpoints are ignored
+ * and input values are not checked against field validators.
+ *
+ * Every node runs for all iterations of a block before the next node runs,
+ * so a {@link BreakNode} can only stop iterations of later blocks. Graphs
+ * with break nodes should be processed in blocks of a single iteration
+ * (see {@link ForEachNode#setBatchSize(int)}).
+ */
+public class BatchProcessor {
+
+	/** The graph */
+	private final OpGraph graph;
+
+	/** Processor owning the graph, or <code>null</code> */
+	private final Processor processor;
+
+	/** Node whose cancelation stops processing, or <code>null</code> */
+	private final OpNode owner;
+
+	/** Execution plan {@link #prunedNodes} was found for */
+	private ExecutionPlan prunedPlan;
+
+	/** Nodes of the plan which are not operated */
+	private Set<OpNode> prunedNodes = Collections.emptySet();
+
+	/**
+	 * Constructs a batch processor for the given graph.
+	 * 
+	 * @param graph  the graph
+	 * 
+	 * @throws NullPointerException  if the specified graph is <code>null</code>
+	 */
+	public BatchProcessor(OpGraph graph) {
+		if(graph == null)
+			throw new NullPointerException("Graph cannot be null");
+		this.graph = graph;
+		this.processor = null;
+		this.owner = null;
+	}
+
+	/**
+	 * Constructs a batch processor for the graph of the given processor.
+	 * Nodes pruned by the processor (see {@link Processor#getPrunedNodes()})
+	 * are not operated, and errors are reported with the processor as their
+	 * context.
+	 * 
+	 * @param processor  the processor owning the graph
+	 * @param owner  the node running the graph (e.g., a {@link ForEachNode}),
+	 *               whose cancelation stops processing after the current
+	 *               iteration, or <code>null</code>
+	 * 
+	 * @throws NullPointerException  if the specified processor is <code>null</code>
+	 */
+	public BatchProcessor(Processor processor, OpNode owner) {
+		if(processor == null)
+			throw new NullPointerException("Processor cannot be null");
+		this.graph = processor.getGraphOfContext();
+		this.processor = processor;
+		this.owner = owner;
+	}
+
+	/**
+	 * Gets the graph this processor operates on.
+	 * 
+	 * @return the graph
+	 */
+	public OpGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * Processes a block of iterations. Values for nodes whose inputs are not
+	 * linked (e.g., published inputs of a macro) should be put into the
+	 * child contexts of the given context before calling this method.
+	 * 
+	 * @param context  the context for the block, whose child contexts will
+	 *                 hold the values of each node
+	 * @param firstIteration  the iteration number of the first iteration
+	 *                        in the block, used for {@link ForEachNode#CURRENT_ITERATION_KEY}
+	 * @param blockSize  the number of iterations in the block
+	 * 
+	 * @throws ProcessingException  if a node fails, or the owner is canceled
+	 */
+	public void process(OpContext context, int firstIteration, int blockSize) throws ProcessingException {
+		context.put(ForEachNode.CURRENT_ITERATION_KEY, firstIteration);
+
+		final ExecutionPlan plan = graph.getExecutionPlan();
+		if(processor != null && plan != prunedPlan) {
+			prunedNodes = Collections.newSetFromMap(new IdentityHashMap<>());
+			prunedNodes.addAll(processor.getPrunedNodes());
+			prunedPlan = plan;
+		}
+
+		for(int nodeIndex = 0; nodeIndex < plan.size(); ++nodeIndex) {
+			final NodePlan nodePlan = plan.getNodePlan(nodeIndex);
+			final OpNode node = nodePlan.getNode();
+			if(prunedNodes.contains(node))
+				continue;
+
+			final OpContext nodeContext = context.getChildContext(node);
+
+			final NodeMetadata meta = node.getExtension(NodeMetadata.class);
+			if(meta != null) {
+				for(Map.Entry<InputField, Object> entry : meta.getDefaults().entrySet()) {
+					if(!nodeContext.isLocal(entry.getKey()))
+						nodeContext.put(entry.getKey(), entry.getValue());
+				}
+			}
+
+			for(int i = 0; i < nodePlan.getInputLinkCount(); ++i) {
+				final InputLink link = nodePlan.getInputLink(i);
+				final OpContext sourceContext = context.findChildContext(link.getSource());
+				if(sourceContext != null && sourceContext.containsKey(link.getSourceField()))
+					nodeContext.put(link.getDestinationField(), sourceContext.get(link.getSourceField()));
+			}
+
+			nodeContext.setActiveOutputs(nodePlan.getActiveOutputs());
+
+			// a node enabled for only some iterations is operated per iteration
+			final Object enabled = (nodeContext.isLocal(OpNode.ENABLED_FIELD) ? nodeContext.get(OpNode.ENABLED_FIELD) : null);
+			final BatchOperation batchOperation = node.getExtension(BatchOperation.class);
+			if(batchOperation != null && !(enabled instanceof Block)) {
+				if(enabled == null || (Boolean)enabled) {
+					nodeContext.put(OpNode.COMPLETED_FIELD, Boolean.FALSE);
+					batchOperation.operateBatch(nodeContext, blockSize);
+					nodeContext.put(OpNode.COMPLETED_FIELD, Boolean.TRUE);
+
+					if(owner != null)
+						owner.checkCanceled();
+				}
+			} else {
+				operateEachIteration(node, nodeContext, firstIteration, blockSize);
+			}
+		}
+	}
+
+	/**
+	 * Operates a node once per iteration of a block.
+	 */
+	private void operateEachIteration(OpNode node, OpContext nodeContext, int firstIteration, int blockSize)
+		throws ProcessingException
+	{
+		final List<InputField> inputFields = node.getInputFields();
+		final List<OutputField> outputFields = node.getOutputFields();
+
+		// inputs without a value are given null, hiding values of parent contexts
+		final Object[] inputValues = new Object[inputFields.size()];
+		for(int i = 0; i < inputValues.length; ++i) {
+			final InputField field = inputFields.get(i);
+			if(nodeContext.isLocal(field)) {
+				inputValues[i] = nodeContext.get(field);
+			} else if(!field.isOptional()) {
+				throw new RequiredInputException(processor, node, field);
+			}
+		}
+
+		final Object[][] outputValues = new Object[outputFields.size()][];
+		final OpContext iterationContext = new OpContext(nodeContext);
+		for(int iteration = 0; iteration < blockSize; ++iteration) {
+			iterationContext.clear();
+			iterationContext.put(ForEachNode.CURRENT_ITERATION_KEY, firstIteration + iteration);
+			for(int i = 0; i < inputValues.length; ++i)
+				iterationContext.put(inputFields.get(i), Block.element(inputValues[i], iteration));
+
+			final Boolean enabled = (Boolean)iterationContext.get(OpNode.ENABLED_FIELD);
+			if(enabled != null && !enabled)
+				continue;
+
+			iterationContext.setActiveOutputs(nodeContext.getActiveOutputs());
+			iterationContext.put(OpNode.COMPLETED_FIELD, Boolean.FALSE);
+			node.operate(iterationContext);
+			iterationContext.put(OpNode.COMPLETED_FIELD, Boolean.TRUE);
+
+			if(owner != null)
+				owner.checkCanceled();
+
+			for(int i = 0; i < outputValues.length; ++i) {
+				final OutputField field = outputFields.get(i);
+				if(iterationContext.isLocal(field)) {
+					if(outputValues[i] == null)
+						outputValues[i] = new Object[blockSize];
+					outputValues[i][iteration] = iterationContext.get(field);
+				}
+			}
+		}
+
+		for(int i = 0; i < outputValues.length; ++i) {
+			if(outputValues[i] != null)
+				nodeContext.put(outputFields.get(i), new Block(Arrays.asList(outputValues[i])));
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2012-2020 Gregory Hedlund <https://www.phon.ca>
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.opgraph.nodes.iteration;
+
+import java.util.*;
+
+/**
+ * The values of a field for each iteration of a block processed by a
+ * {@link BatchProcessor}. A block is an unmodifiable view, so slicing a
+ * published input does not copy it.
+ */
+public final class Block extends AbstractList<Object> implements RandomAccess {
+
+	private final List<?> values;
+
+	private final int size;
+
+	/**
+	 * Constructs a block over the given values.
+	 * 
+	 * @param values  the values, one per iteration
+	 */
+	public Block(List<?> values) {
+		this(values, values.size());
+	}
+
+	private Block(List<?> values, int size) {
+		this.values = values;
+		this.size = size;
+	}
+
+	/**
+	 * Constructs a block from a range of a list. Iterations past the end
+	 * of the list are given <code>null</code>.
+	 * 
+	 * @param list  the list
+	 * @param fromIndex  index of the first iteration (inclusive)
+	 * @param toIndex  index of the last iteration (exclusive)
+	 * 
+	 * @return the block
+	 */
+	public static Block slice(List<?> list, int fromIndex, int toIndex) {
+		final int start = Math.min(fromIndex, list.size());
+		final int end = Math.max(start, Math.min(toIndex, list.size()));
+		return new Block(list.subList(start, end), toIndex - fromIndex);
+	}
+
+	/**
+	 * Gets the value for a single iteration of a block.
+	 * 
+	 * @param value  a {@link Block}, or a value shared by all iterations
+	 * @param index  the index of the iteration within the block
+	 * 
+	 * @return the value for the iteration
+	 */
+	public static Object element(Object value, int index) {
+		return (value instanceof Block ? ((Block)value).get(index) : value);
+	}
+
+	@Override
+	public Object get(int index) {
+		Objects.checkIndex(index, size);
+		return (index < values.size() ? values.get(index) : null);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+}
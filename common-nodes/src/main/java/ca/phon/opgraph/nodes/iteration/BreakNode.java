@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2012-2020 Gregory Hedlund <https://www.phon.ca>
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.opgraph.nodes.iteration;
+
+import java.util.*;
+
+import ca.phon.opgraph.*;
+import ca.phon.opgraph.exceptions.*;
+
+/**
+ * A node which stops an iteration node (e.g., {@link ForEachNode}) once
+ * the current iteration has finished. The iteration in which the break
+ * happens is included in the outputs of the iteration node, so a break
+ * node given a predicate gives find-first behaviour.
+ */
+@SideEffects
+@OpNodeInfo(
+	name="Break",
+	description="Stops iterating after the current iteration if the condition is true.",
+	category="Iteration"
+)
+public class BreakNode extends OpNode {
+	/** Input field for the condition */
+	public final static InputField CONDITION_INPUT = new InputField("condition", "stop iterating if true", false, true, Boolean.class);
+
+	/** Output field which is <code>true</code> if iteration should stop */
+	public final static OutputField BREAK_OUTPUT = new OutputField("break", "true if iteration should stop", true, Boolean.class);
+
+	/**
+	 * Default constructor.
+	 */
+	public BreakNode() {
+		putField(CONDITION_INPUT);
+		putField(BREAK_OUTPUT);
+	}
+
+	@Override
+	public void operate(OpContext context) throws ProcessingException {
+		context.put(BREAK_OUTPUT, Boolean.TRUE.equals(context.get(CONDITION_INPUT)));
+	}
+
+	/**
+	 * Finds the break nodes of a graph.
+	 * 
+	 * @param graph  the graph
+	 * 
+	 * @return the break nodes, which do not include break nodes in
+	 *         macros of the graph
+	 */
+	public static List<OpNode> findBreakNodes(OpGraph graph) {
+		final List<OpNode> retVal = new ArrayList<>(1);
+		for(OpNode node : graph.getVertices()) {
+			if(node instanceof BreakNode)
+				retVal.add(node);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Checks whether any break node asked for iteration to stop.
+	 * 
+	 * @param breakNodes  the break nodes, see {@link #findBreakNodes(OpGraph)}
+	 * @param context  the context holding the child contexts of the nodes
+	 * 
+	 * @return <code>true</code> if iteration should stop
+	 */
+	public static boolean isBreakRequested(List<OpNode> breakNodes, OpContext context) {
+		for(int i = 0; i < breakNodes.size(); ++i) {
+			final OpContext nodeContext = context.findChildContext(breakNodes.get(i));
+			if(nodeContext != null && Boolean.TRUE.equals(nodeContext.get(BREAK_OUTPUT)))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Finds the first iteration of a block processed by a {@link BatchProcessor}
+	 * in which a break node asked for iteration to stop.
+	 * 
+	 * @param breakNodes  the break nodes, see {@link #findBreakNodes(OpGraph)}
+	 * @param context  the context holding the child contexts of the nodes
+	 * @param blockSize  the number of iterations in the block
+	 * 
+	 * @return the index of the iteration within the block, or -1 if no
+	 *         break was requested
+	 */
+	public static int findBreak(List<OpNode> breakNodes, OpContext context, int blockSize) {
+		int retVal = -1;
+		for(int i = 0; i < breakNodes.size(); ++i) {
+			final OpContext nodeContext = context.findChildContext(breakNodes.get(i));
+			if(nodeContext == null || !nodeContext.isLocal(BREAK_OUTPUT))
+				continue;
+
+			final Object value = nodeContext.get(BREAK_OUTPUT);
+			final int end = (retVal < 0 ? blockSize : retVal);
+			for(int iteration = 0; iteration < end; ++iteration) {
+				if(Boolean.TRUE.equals(Block.element(value, iteration))) {
+					retVal = iteration;
+					break;
+				}
+			}
+		}
+		return retVal;
+	}
+}
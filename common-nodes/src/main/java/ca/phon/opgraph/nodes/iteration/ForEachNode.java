@@ -19,11 +19,20 @@
  */
 package ca.phon.opgraph.nodes.iteration;
 
+import java.awt.*;
 import java.net.*;
+import java.text.*;
 import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.swing.*;
 
 import ca.phon.opgraph.*;
+import ca.phon.opgraph.app.*;
 import ca.phon.opgraph.app.components.canvas.*;
+import ca.phon.opgraph.app.extensions.*;
 import ca.phon.opgraph.exceptions.*;
 import ca.phon.opgraph.nodes.general.*;
 import ca.phon.opgraph.validators.*;
@@ -32,13 +41,26 @@ import ca.phon.opgraph.validators.*;
  * A special macro node that loops over {@link List} inputs. When a field is
  * published from an internal node, the published field will accept any
  * {@link List} that contains elements of types accepted by the internal field.
+ *
+ * Iterations may optionally be run in parallel (see {@link #setParallel(boolean)}).
+ * In parallel mode the iteration range is split into chunks which are
+ * processed by workers in a {@link ForkJoinPool}. Each worker has its own
+ * processor and context, so the internal graph must not depend on state
+ * shared between iterations. Outputs are collected in iteration order.
+ *
+ * Iterations may also be run in blocks (see {@link #setBatchSize(int)}) by a
+ * {@link BatchProcessor}, so each internal node is dispatched once per block.
+ *
+ * The number of iterations may be limited using the optional
+ * {@link #LIMIT_INPUT} field, and a {@link BreakNode} in the graph stops
+ * iterating once the iteration in which it breaks has finished.
  */
 @OpNodeInfo(
 	name="For Each",
 	description="A macro operation in which the macro is executed based on collections given as input.",
 	category="Iteration"
 )
-public class ForEachNode extends MacroNode {
+public class ForEachNode extends MacroNode implements NodeSettings {
 	
 	static {
 		NodeStyle.installStyleForNode(ForEachNode.class, NodeStyle.ITERATION);
@@ -49,12 +71,35 @@ public class ForEachNode extends MacroNode {
 
 	/** {@link OpContext} key for the max number of iterations */
 	public static final String MAX_ITERATIONS_KEY = "maxIterations";
+
+	/** Optional input field limiting the number of iterations */
+	public final static InputField LIMIT_INPUT = new InputField("limit", "maximum number of iterations", true, true, Number.class);
+
+	/** Marks iterations which did not produce a value for an output */
+	private static final Object NO_RESULT = new Object();
+
+	/** Run iterations in parallel */
+	private boolean parallel = false;
+
+	/** Number of iterations given to a worker at a time, 0 for automatic */
+	private int chunkSize = 0;
+
+	/** Maximum number of concurrent workers, 0 for automatic */
+	private int maxParallelism = 0;
+
+	/** Number of iterations processed as a block, 0 to process iterations one at a time */
+	private int batchSize = 0;
+
+	/* UI */
+	private JPanel settingsPanel;
 	
 	/**
 	 * Constructs a new macro with no source file and a default graph.
 	 */
 	public ForEachNode() {
 		super(null, new OpGraph(), true);
+		putField(LIMIT_INPUT);
+		putExtension(NodeSettings.class, this);
 	}
 
 	/**
@@ -66,6 +111,8 @@ public class ForEachNode extends MacroNode {
 	 */
 	public ForEachNode(OpGraph graph) {
 		super(null, graph, true);
+		putField(LIMIT_INPUT);
+		putExtension(NodeSettings.class, this);
 	}
 
 	/**
@@ -76,6 +123,117 @@ public class ForEachNode extends MacroNode {
 	 */
 	public ForEachNode(URI source, OpGraph graph, boolean embedded) {
 		super(source, graph, embedded);
+		putField(LIMIT_INPUT);
+		putExtension(NodeSettings.class, this);
+	}
+
+	/**
+	 * Gets whether iterations are run in parallel.
+	 *
+	 * @return <code>true</code> if iterations are run in parallel,
+	 *         <code>false</code> otherwise
+	 */
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * Sets whether iterations are run in parallel. Parallel iterations are
+	 * only used by {@link #operate(OpContext)}, stepping through this node
+	 * always runs iterations serially.
+	 *
+	 * @param parallel  <code>true</code> to run iterations in parallel
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * Gets the number of iterations a worker processes at a time.
+	 *
+	 * @return the chunk size, or 0 if chosen automatically
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Sets the number of iterations a worker processes at a time.
+	 *
+	 * @param chunkSize  the chunk size, or 0 to choose automatically
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = Math.max(0, chunkSize);
+	}
+
+	/**
+	 * Gets the maximum number of workers used for parallel iterations.
+	 *
+	 * @return the maximum number of workers, or 0 if the number of
+	 *         available processors is used
+	 */
+	public int getMaxParallelism() {
+		return maxParallelism;
+	}
+
+	/**
+	 * Sets the maximum number of workers used for parallel iterations.
+	 *
+	 * @param maxParallelism  the maximum number of workers, or 0 to use
+	 *                        the number of available processors
+	 */
+	public void setMaxParallelism(int maxParallelism) {
+		this.maxParallelism = Math.max(0, maxParallelism);
+	}
+
+	/**
+	 * Gets the number of iterations processed together as a block.
+	 *
+	 * @return the batch size, or 0 if iterations are processed one at a time
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Sets the number of iterations processed together as a block by a
+	 * {@link BatchProcessor}. Internal nodes with the {@link BatchOperation}
+	 * extension operate once per block, other nodes once per iteration.
+	 * Batched processing takes precedence over parallel processing, and is
+	 * only used by {@link #operate(OpContext)}.
+	 *
+	 * @param batchSize  the batch size, or 0 to process iterations one at a time
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(0, batchSize);
+	}
+
+	/**
+	 * Gets the number of iterations to run, which is the size of the
+	 * largest published input unless limited by {@link #LIMIT_INPUT}.
+	 * 
+	 * @param context  the macro's local context
+	 */
+	private int getMaxIterations(OpContext context) {
+		int maxIterations = 0;
+		for(PublishedInput field : getPublishedInputs()) {
+			final Collection<?> data = (Collection<?>)context.get(field);
+			if(data != null)
+				maxIterations = Math.max(maxIterations, data.size());
+		}
+		return Math.min(maxIterations, getLimit(context));
+	}
+
+	/**
+	 * Gets the limit on the number of iterations.
+	 * 
+	 * @param context  the macro's local context
+	 * 
+	 * @return the limit, or {@link Integer#MAX_VALUE} if iterations are not limited
+	 */
+	static int getLimit(OpContext context) {
+		final Object limit = (context.isLocal(LIMIT_INPUT) ? context.get(LIMIT_INPUT) : null);
+		return (limit instanceof Number && ((Number)limit).intValue() >= 0 ? ((Number)limit).intValue() : Integer.MAX_VALUE);
 	}
 
 	/**
@@ -102,24 +260,17 @@ public class ForEachNode extends MacroNode {
 	/**
 	 * Maps published outputs from a given context mapping to a given context.
 	 * 
-	 * @param contextsMap  the context mapping to map outputs from
 	 * @param context  the context to map outputs to
+	 * @param results  accumulated results of previous iterations
 	 */
-	private void mapOutputs(OpContext context, int iteration) {
+	private void mapOutputs(OpContext context, ResultAccumulator results) {
 		// Grab mapped outputs and put them in our context
 		for(PublishedOutput publishedOutput : publishedOutputs) {
 			final OpContext sourceContext = context.findChildContext(publishedOutput.sourceNode);
 			if(sourceContext != null) {
 				final Object result = sourceContext.get(publishedOutput.nodeOutputField);
-				if(context.containsKey(publishedOutput)) {
-					final ArrayList<Object> objects = new ArrayList<Object>((ArrayList<?>)context.get(publishedOutput));
-					objects.add(result);
-					context.put(publishedOutput, objects);
-				} else {
-					final ArrayList<Object> objects = new ArrayList<Object>();
-					objects.add(result);
-					context.put(publishedOutput, objects);
-				}
+				context.put(publishedOutput,
+						results.append(publishedOutput, publishedOutput.nodeOutputField.getOutputType(), result));
 			}
 		}
 	}
@@ -145,22 +296,34 @@ public class ForEachNode extends MacroNode {
 	@Override
 	public void operate(OpContext context) throws ProcessingException {
 		// First, find the biggest list we have
-		int maxIterations = 0;
-		for(PublishedInput field : getPublishedInputs()) {
-			final Collection<?> data = (Collection<?>)context.get(field);
-			maxIterations = Math.max(maxIterations, data.size());
-		}
+		final int maxIterations = getMaxIterations(context);
 
 		// Process
 		if(graph != null) {
-			final Processor processor = new Processor(graph);
-
 			context.put(MAX_ITERATIONS_KEY, maxIterations);
+			if(batchSize > 0) {
+				operateBatched(context, maxIterations);
+			} else if(parallel && maxIterations > 1) {
+				new ParallelIterations(context, maxIterations).run();
+			} else {
+				operateSerial(context, maxIterations);
+			}
+		}
+	}
+
+	/**
+	 * Runs all iterations on the calling thread, reusing a single processor.
+	 */
+	private void operateSerial(OpContext context, int maxIterations) throws ProcessingException {
+		final Processor processor = acquireProcessor(context);
+		final ResultAccumulator results = new ResultAccumulator(maxIterations);
+		final List<OpNode> breakNodes = BreakNode.findBreakNodes(graph);
+		try {
 			for(int iteration = 0; iteration < maxIterations; ++iteration) {
 				checkCanceled();
-				processor.reset(context);
+				processor.restart();
 
-				// The reset call above could clear out the context, so map after
+				// The restart call above clears out child contexts, so map after
 				mapInputs(context, iteration);
 
 				// Now run the graph
@@ -169,11 +332,242 @@ public class ForEachNode extends MacroNode {
 					throw processor.getError();
 
 				// Map the published outputs from the child nodes back into context
-				mapOutputs(context, iteration);
+				mapOutputs(context, results);
+
+				if(BreakNode.isBreakRequested(breakNodes, context))
+					break;
 			}
+		} finally {
+			releaseProcessor(processor);
 		}
 	}
 
+	/**
+	 * Runs iterations in blocks of {@link #getBatchSize()} iterations. Graphs
+	 * with break nodes are run one iteration per block, so no node is operated
+	 * for iterations after a break.
+	 */
+	private void operateBatched(OpContext context, int maxIterations) throws ProcessingException {
+		final Processor graphProcessor = acquireProcessor(context);
+		final BatchProcessor processor = new BatchProcessor(graphProcessor, this);
+		final ResultAccumulator results = new ResultAccumulator(maxIterations);
+		final List<OpNode> breakNodes = BreakNode.findBreakNodes(graph);
+		final int blockSize = (breakNodes.isEmpty() ? batchSize : 1);
+		try {
+			for(int start = 0; start < maxIterations; start += blockSize) {
+				checkCanceled();
+				int end = Math.min(maxIterations, start + blockSize);
+
+				context.clearChildValues();
+				for(PublishedInput publishedInput : publishedInputs) {
+					final List<?> data = (List<?>)context.get(publishedInput);
+					context.getChildContext(publishedInput.destinationNode)
+						.put(publishedInput.nodeInputField, Block.slice(data, start, end));
+				}
+
+				processor.process(context, start, end - start);
+
+				// iterations of the block after a break are dropped
+				final int breakIndex = BreakNode.findBreak(breakNodes, context, end - start);
+				if(breakIndex >= 0)
+					end = start + breakIndex + 1;
+
+				for(PublishedOutput publishedOutput : publishedOutputs) {
+					final OpContext sourceContext = context.findChildContext(publishedOutput.sourceNode);
+					if(sourceContext != null && sourceContext.isLocal(publishedOutput.nodeOutputField)) {
+						final Object value = sourceContext.get(publishedOutput.nodeOutputField);
+						final Class<?> type = publishedOutput.nodeOutputField.getOutputType();
+						List<Object> list = null;
+						for(int i = 0; i < end - start; ++i)
+							list = results.append(publishedOutput, type, Block.element(value, i));
+						context.put(publishedOutput, list);
+					}
+				}
+				context.put(CURRENT_ITERATION_KEY, end - 1);
+
+				if(breakIndex >= 0)
+					break;
+			}
+		} finally {
+			context.clearChildContexts();
+			releaseProcessor(graphProcessor);
+		}
+	}
+
+	/**
+	 * Runs the iterations of a single call to {@link ForEachNode#operate(OpContext)}
+	 * in parallel. Workers take chunks of the iteration range until none
+	 * remain, or until a worker fails or this node is canceled.
+	 */
+	private class ParallelIterations {
+		private final OpContext context;
+
+		private final int maxIterations;
+
+		private final int parallelism;
+
+		private final int chunk;
+
+		/** Results for each published output, indexed by iteration */
+		private final Object[][] outputs;
+
+		private final AtomicInteger nextChunk = new AtomicInteger();
+
+		private final AtomicReference<RuntimeException> error = new AtomicReference<>();
+
+		/** The first iteration in which a break was requested */
+		private final AtomicInteger breakIteration = new AtomicInteger(Integer.MAX_VALUE);
+
+		private final List<OpNode> breakNodes = BreakNode.findBreakNodes(graph);
+
+		public ParallelIterations(OpContext context, int maxIterations) {
+			this.context = context;
+			this.maxIterations = maxIterations;
+
+			this.parallelism = (maxParallelism > 0 ? maxParallelism : Runtime.getRuntime().availableProcessors());
+			this.chunk = (chunkSize > 0 ? chunkSize : Math.max(1, maxIterations / (parallelism * 4)));
+
+			this.outputs = new Object[publishedOutputs.size()][maxIterations];
+			for(Object[] values : outputs)
+				Arrays.fill(values, NO_RESULT);
+		}
+
+		public void run() throws ProcessingException {
+			final int chunkCount = (maxIterations + chunk - 1) / chunk;
+			final int workerCount = Math.max(1, Math.min(parallelism, chunkCount));
+
+			final List<ForkJoinTask<?>> workers = new ArrayList<>(workerCount);
+			for(int i = 0; i < workerCount; ++i)
+				workers.add(ForkJoinTask.adapt(this::runWorker));
+			ForkJoinTask.invokeAll(workers);
+
+			checkCanceled();
+			if(error.get() != null)
+				throw error.get();
+
+			// Merge outputs in iteration order, up to any break
+			final int count = Math.min(maxIterations - 1, breakIteration.get()) + 1;
+			final ResultAccumulator results = new ResultAccumulator(count);
+			for(int i = 0; i < outputs.length; ++i) {
+				final PublishedOutput publishedOutput = publishedOutputs.get(i);
+				final Class<?> type = publishedOutput.nodeOutputField.getOutputType();
+				List<Object> list = null;
+				for(int iteration = 0; iteration < count; ++iteration) {
+					final Object value = outputs[i][iteration];
+					if(value != NO_RESULT)
+						list = results.append(publishedOutput, type, value);
+				}
+				if(list != null)
+					context.put(publishedOutput, list);
+			}
+			context.put(CURRENT_ITERATION_KEY, count - 1);
+		}
+
+		private void runWorker() {
+			final OpContext workerContext = new OpContext(context);
+			final Processor processor = acquireProcessor(workerContext);
+			try {
+				int start;
+				while((start = nextChunk.getAndIncrement() * chunk) < maxIterations) {
+					final int end = Math.min(maxIterations, start + chunk);
+					for(int iteration = start; iteration < end; ++iteration) {
+						if(error.get() != null || isCanceled() || iteration > breakIteration.get())
+							return;
+
+						processor.restart();
+						mapInputs(workerContext, iteration);
+
+						processor.stepAll();
+						if(processor.getError() != null)
+							throw processor.getError();
+
+						for(int i = 0; i < outputs.length; ++i) {
+							final PublishedOutput publishedOutput = publishedOutputs.get(i);
+							final OpContext sourceContext = workerContext.findChildContext(publishedOutput.sourceNode);
+							if(sourceContext != null)
+								outputs[i][iteration] = sourceContext.get(publishedOutput.nodeOutputField);
+						}
+
+						if(BreakNode.isBreakRequested(breakNodes, workerContext))
+							breakIteration.accumulateAndGet(iteration, Math::min);
+					}
+				}
+			} catch(RuntimeException e) {
+				error.compareAndSet(null, e);
+			} finally {
+				workerContext.clearChildContexts();
+				releaseProcessor(processor);
+			}
+		}
+	}
+
+	//
+	// NodeSettings
+	//
+
+	private final static String PARALLEL_PROP = ForEachNode.class.getName() + ".parallel";
+
+	private final static String CHUNK_SIZE_PROP = ForEachNode.class.getName() + ".chunkSize";
+
+	private final static String MAX_PARALLELISM_PROP = ForEachNode.class.getName() + ".maxParallelism";
+
+	private final static String BATCH_SIZE_PROP = ForEachNode.class.getName() + ".batchSize";
+
+	@Override
+	public Component getComponent(GraphDocument document) {
+		if(settingsPanel == null) {
+			settingsPanel = new JPanel(new GridLayout(0, 1));
+
+			final JCheckBox parallelBox = new JCheckBox("Run iterations in parallel");
+			parallelBox.setSelected(isParallel());
+			parallelBox.addActionListener( (e) -> setParallel(parallelBox.isSelected()) );
+			settingsPanel.add(parallelBox);
+
+			final JFormattedTextField chunkSizeField = new JFormattedTextField(NumberFormat.getIntegerInstance());
+			chunkSizeField.setValue(getChunkSize());
+			chunkSizeField.addPropertyChangeListener("value", (e) -> {
+				setChunkSize(((Number)chunkSizeField.getValue()).intValue());
+			});
+			settingsPanel.add(new JLabel("Chunk size (0 = automatic)"));
+			settingsPanel.add(chunkSizeField);
+
+			final JFormattedTextField maxParallelismField = new JFormattedTextField(NumberFormat.getIntegerInstance());
+			maxParallelismField.setValue(getMaxParallelism());
+			maxParallelismField.addPropertyChangeListener("value", (e) -> {
+				setMaxParallelism(((Number)maxParallelismField.getValue()).intValue());
+			});
+			settingsPanel.add(new JLabel("Max parallelism (0 = automatic)"));
+			settingsPanel.add(maxParallelismField);
+
+			final JFormattedTextField batchSizeField = new JFormattedTextField(NumberFormat.getIntegerInstance());
+			batchSizeField.setValue(getBatchSize());
+			batchSizeField.addPropertyChangeListener("value", (e) -> {
+				setBatchSize(((Number)batchSizeField.getValue()).intValue());
+			});
+			settingsPanel.add(new JLabel("Batch size (0 = no batching)"));
+			settingsPanel.add(batchSizeField);
+		}
+		return settingsPanel;
+	}
+
+	@Override
+	public Properties getSettings() {
+		final Properties retVal = new Properties();
+		retVal.setProperty(PARALLEL_PROP, Boolean.toString(isParallel()));
+		retVal.setProperty(CHUNK_SIZE_PROP, Integer.toString(getChunkSize()));
+		retVal.setProperty(MAX_PARALLELISM_PROP, Integer.toString(getMaxParallelism()));
+		retVal.setProperty(BATCH_SIZE_PROP, Integer.toString(getBatchSize()));
+		return retVal;
+	}
+
+	@Override
+	public void loadSettings(Properties properties) {
+		setParallel(Boolean.parseBoolean(properties.getProperty(PARALLEL_PROP, "false")));
+		setChunkSize(Integer.parseInt(properties.getProperty(CHUNK_SIZE_PROP, "0")));
+		setMaxParallelism(Integer.parseInt(properties.getProperty(MAX_PARALLELISM_PROP, "0")));
+		setBatchSize(Integer.parseInt(properties.getProperty(BATCH_SIZE_PROP, "0")));
+	}
+
 	//
 	// CustomProcessing
 	//
@@ -186,6 +580,8 @@ public class ForEachNode extends MacroNode {
 			private Iterator<OpNode> nodeIter;
 			private int iteration = 0;
 			private int maxIterations = 0;
+			private ResultAccumulator results;
+			private List<OpNode> breakNodes;
 
 			@Override
 			public void remove() {
@@ -208,7 +604,10 @@ public class ForEachNode extends MacroNode {
 					return true;
 
 				if(!nodeIter.hasNext() && iteration < maxIterations) {
-					mapOutputs(context, iteration);
+					mapOutputs(context, results);
+
+					if(BreakNode.isBreakRequested(breakNodes, context))
+						maxIterations = iteration + 1;
 
 					++iteration;
 					if(iteration < maxIterations) {
@@ -225,19 +624,15 @@ public class ForEachNode extends MacroNode {
 
 			@Override
 			public void initialize(OpContext context) {
-				this.maxIterations = 0;
 				this.context = context;
 				this.nodeIter = graph.getVertices().iterator();
+				this.breakNodes = BreakNode.findBreakNodes(graph);
 
 				// First, find the biggest list we have
-				for(PublishedInput field : getPublishedInputs()) {
-					if(context.containsKey(field)) {
-						final Collection<?> data = (Collection<?>)context.get(field);
-						this.maxIterations = Math.max(this.maxIterations, data.size());
-					}
-				}
+				this.maxIterations = getMaxIterations(context);
 
 				context.put(MAX_ITERATIONS_KEY, maxIterations);
+				this.results = new ResultAccumulator(maxIterations);
 
 				mapInputs(context, 0);
 			}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2012-2020 Gregory Hedlund <https://www.phon.ca>
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.opgraph.nodes.iteration;
+
+import java.util.*;
+
+import ca.phon.opgraph.*;
+
+/**
+ * Collects the per-iteration results of an iteration node into lists,
+ * one for each output field. Lists are pre-sized using the expected number
+ * of iterations and results are appended in place.
+ *
+ * When the declared type of an output is {@link Double} or {@link Integer}
+ * results are stored in a {@link DoubleList} or {@link IntList} which keep
+ * unboxed values. If a result which does not match the declared type
+ * (e.g., <code>null</code>) is appended, the results for that output are
+ * moved to an {@link ArrayList}.
+ */
+public class ResultAccumulator {
+
+	/** Expected number of results for each output */
+	private final int expectedSize;
+
+	/** Results for each output */
+	private final Map<OutputField, List<Object>> results = new LinkedHashMap<>();
+
+	/**
+	 * Constructs a new accumulator.
+	 *
+	 * @param expectedSize  the expected number of results for each output
+	 */
+	public ResultAccumulator(int expectedSize) {
+		this.expectedSize = Math.max(0, expectedSize);
+	}
+
+	/**
+	 * Appends a result for an output.
+	 *
+	 * @param field  the output field
+	 * @param elementType  declared type of results, used to select a list
+	 *                     implementation when the first result is appended
+	 * @param value  the result
+	 *
+	 * @return the list of results for the output, which will be the same
+	 *         list returned by previous calls unless the list was converted
+	 *         to hold values of any type
+	 */
+	public List<Object> append(OutputField field, Class<?> elementType, Object value) {
+		List<Object> list = results.get(field);
+		if(list == null) {
+			list = createList(elementType);
+			results.put(field, list);
+		}
+
+		final List<?> current = list;
+		if((current instanceof DoubleList && !(value instanceof Double))
+				|| (current instanceof IntList && !(value instanceof Integer))) {
+			final List<Object> objects = new ArrayList<>(Math.max(expectedSize, list.size() + 1));
+			objects.addAll(list);
+			list = objects;
+			results.put(field, list);
+		}
+
+		list.add(value);
+		return list;
+	}
+
+	/**
+	 * Gets the results for an output.
+	 *
+	 * @param field  the output field
+	 *
+	 * @return the list of results, or <code>null</code> if no results have
+	 *         been appended for the given output
+	 */
+	public List<Object> getResults(OutputField field) {
+		return results.get(field);
+	}
+
+	/**
+	 * Removes all results.
+	 */
+	public void clear() {
+		results.clear();
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<Object> createList(Class<?> elementType) {
+		final List<?> retVal;
+		if(elementType == Double.class || elementType == double.class) {
+			retVal = new DoubleList(expectedSize);
+		} else if(elementType == Integer.class || elementType == int.class) {
+			retVal = new IntList(expectedSize);
+		} else {
+			retVal = new ArrayList<Object>(expectedSize);
+		}
+		return (List<Object>)retVal;
+	}
+
+	/**
+	 * A growable list of <code>double</code> values.
+	 */
+	public static class DoubleList extends AbstractList<Double> implements RandomAccess {
+
+		private double[] values;
+
+		private int size;
+
+		public DoubleList(int initialCapacity) {
+			this.values = new double[Math.max(initialCapacity, 1)];
+		}
+
+		public double getDouble(int index) {
+			Objects.checkIndex(index, size);
+			return values[index];
+		}
+
+		@Override
+		public Double get(int index) {
+			return getDouble(index);
+		}
+
+		@Override
+		public Double set(int index, Double value) {
+			final double oldValue = getDouble(index);
+			values[index] = value;
+			return oldValue;
+		}
+
+		@Override
+		public void add(int index, Double value) {
+			Objects.checkIndex(index, size + 1);
+			final double v = value;
+			if(size == values.length)
+				values = Arrays.copyOf(values, values.length * 2);
+			System.arraycopy(values, index, values, index + 1, size - index);
+			values[index] = v;
+			++size;
+			++modCount;
+		}
+
+		@Override
+		public Double remove(int index) {
+			final double oldValue = getDouble(index);
+			System.arraycopy(values, index + 1, values, index, size - index - 1);
+			--size;
+			++modCount;
+			return oldValue;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+	}
+
+	/**
+	 * A growable list of <code>int</code> values.
+	 */
+	public static class IntList extends AbstractList<Integer> implements RandomAccess {
+
+		private int[] values;
+
+		private int size;
+
+		public IntList(int initialCapacity) {
+			this.values = new int[Math.max(initialCapacity, 1)];
+		}
+
+		public int getInt(int index) {
+			Objects.checkIndex(index, size);
+			return values[index];
+		}
+
+		@Override
+		public Integer get(int index) {
+			return getInt(index);
+		}
+
+		@Override
+		public Integer set(int index, Integer value) {
+			final int oldValue = getInt(index);
+			values[index] = value;
+			return oldValue;
+		}
+
+		@Override
+		public void add(int index, Integer value) {
+			Objects.checkIndex(index, size + 1);
+			final int v = value;
+			if(size == values.length)
+				values = Arrays.copyOf(values, values.length * 2);
+			System.arraycopy(values, index, values, index + 1, size - index);
+			values[index] = v;
+			++size;
+			++modCount;
+		}
+
+		@Override
+		public Integer remove(int index) {
+			final int oldValue = getInt(index);
+			System.arraycopy(values, index + 1, values, index, size - index - 1);
+			--size;
+			++modCount;
+			return oldValue;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+	}
+
+}
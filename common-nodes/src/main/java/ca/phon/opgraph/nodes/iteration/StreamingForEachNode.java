@@ -0,0 +1,667 @@
+/*
+ * Copyright (C) 2012-2020 Gregory Hedlund <https://www.phon.ca>
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.opgraph.nodes.iteration;
+
+import java.awt.*;
+import java.lang.ref.*;
+import java.net.*;
+import java.util.*;
+import java.util.List;
+import java.util.logging.*;
+import java.util.stream.*;
+
+import javax.swing.*;
+
+import ca.phon.opgraph.*;
+import ca.phon.opgraph.app.*;
+import ca.phon.opgraph.app.components.canvas.*;
+import ca.phon.opgraph.app.extensions.*;
+import ca.phon.opgraph.exceptions.*;
+import ca.phon.opgraph.nodes.general.*;
+import ca.phon.opgraph.validators.*;
+
+/**
+ * A macro node that loops over sequences which are only traversed once,
+ * such as {@link Iterator}s, {@link Spliterator}s and {@link Stream}s.
+ * {@link Iterable}s and arrays are also accepted. Published inputs are
+ * advanced in lockstep, one element per iteration, until all of them are
+ * exhausted. Inputs which are exhausted early provide <code>null</code>.
+ * Inputs are never copied, so only the elements of the current iteration
+ * are held in memory.
+ *
+ * Published outputs are either collected into a {@link List}, or when
+ * {@link #isStreamOutputs()} is set, given as an {@link Iterator} which runs
+ * iterations as it is advanced. A streamed output holds only the values of
+ * iterations not yet taken from it. Streamed outputs are also
+ * {@link AutoCloseable}: once every output of a run is exhausted or closed
+ * the inputs are closed and the processor is released. Inputs of outputs
+ * which are dropped without being closed are closed once the outputs are
+ * garbage collected.
+ *
+ * As with {@link ForEachNode}, iterations may be limited using
+ * {@link ForEachNode#LIMIT_INPUT} and stopped early by a {@link BreakNode}.
+ * Streamed outputs only run iterations on demand, so a consumer which only
+ * takes the first few values of an output only pulls the elements needed
+ * for them from the inputs.
+ *
+ * Since the number of iterations is not known in advance,
+ * {@link ForEachNode#MAX_ITERATIONS_KEY} is only set once all collected
+ * iterations have finished.
+ */
+@OpNodeInfo(
+	name="Streaming For Each",
+	description="A macro operation executed once for each element of iterators, streams or collections given as input.",
+	category="Iteration"
+)
+public class StreamingForEachNode extends MacroNode implements NodeSettings {
+
+	private static final Logger LOGGER = Logger.getLogger(StreamingForEachNode.class.getName());
+
+	static {
+		NodeStyle.installStyleForNode(StreamingForEachNode.class, NodeStyle.ITERATION);
+	}
+
+	/** Stands in for <code>null</code> values in queues of streamed outputs */
+	private static final Object NULL_VALUE = new Object();
+
+	/** Closes inputs of streamed outputs which are no longer reachable */
+	private static final Cleaner CLEANER = Cleaner.create();
+
+	/** Give outputs as iterators instead of lists */
+	private boolean streamOutputs = false;
+
+	/* UI */
+	private JPanel settingsPanel;
+
+	/**
+	 * Constructs a new macro with no source file and a default graph.
+	 */
+	public StreamingForEachNode() {
+		this(null, new OpGraph(), true);
+	}
+
+	/**
+	 * Constructs a new macro with no source file and a specified graph.
+	 * 
+	 * @param graph  the graph
+	 * 
+	 * @throws NullPointerException  if the graph is <code>null</code>
+	 */
+	public StreamingForEachNode(OpGraph graph) {
+		this(null, graph, true);
+	}
+
+	/**
+	 * Constructs a macro node from the given source file and DAG.
+	 * 
+	 * @param source  the source file (see {@link #getSource()}
+	 * @param graph  the graph
+	 */
+	public StreamingForEachNode(URI source, OpGraph graph, boolean embedded) {
+		super(source, graph, embedded);
+		putField(ForEachNode.LIMIT_INPUT);
+		putExtension(NodeSettings.class, this);
+	}
+
+	/**
+	 * Gets whether outputs are given as iterators.
+	 * 
+	 * @return <code>true</code> if outputs are iterators which run
+	 *         iterations on demand, <code>false</code> if outputs are lists
+	 */
+	public boolean isStreamOutputs() {
+		return streamOutputs;
+	}
+
+	/**
+	 * Sets whether outputs are given as iterators.
+	 * 
+	 * @param streamOutputs  <code>true</code> to give outputs as iterators,
+	 *                       <code>false</code> to collect outputs into lists
+	 */
+	public void setStreamOutputs(boolean streamOutputs) {
+		this.streamOutputs = streamOutputs;
+		for(PublishedOutput publishedOutput : publishedOutputs)
+			publishedOutput.setOutputType(getPublishedOutputType());
+	}
+
+	private Class<?> getPublishedOutputType() {
+		return (streamOutputs ? Iterator.class : List.class);
+	}
+
+	/**
+	 * Gets an iterator over the given sequence.
+	 * 
+	 * @param source  an {@link Iterator}, {@link Iterable}, {@link Spliterator},
+	 *                {@link BaseStream} or array, or <code>null</code>
+	 * 
+	 * @return an iterator over the elements of the sequence
+	 * 
+	 * @throws IllegalArgumentException  if the source is not a sequence
+	 */
+	static Iterator<?> iterator(Object source) {
+		if(source == null) {
+			return Collections.emptyIterator();
+		} else if(source instanceof Iterator) {
+			return (Iterator<?>)source;
+		} else if(source instanceof Iterable) {
+			return ((Iterable<?>)source).iterator();
+		} else if(source instanceof Spliterator) {
+			return Spliterators.iterator((Spliterator<?>)source);
+		} else if(source instanceof BaseStream) {
+			return new StreamIterator((BaseStream<?, ?>)source);
+		} else if(source instanceof Object[]) {
+			return Arrays.asList((Object[])source).iterator();
+		}
+		throw new IllegalArgumentException("Not a sequence: " + source.getClass().getName());
+	}
+
+	/**
+	 * Iterator over a stream which closes the stream when closed.
+	 */
+	private static class StreamIterator implements Iterator<Object>, AutoCloseable {
+		private final BaseStream<?, ?> stream;
+
+		private final Iterator<?> iterator;
+
+		public StreamIterator(BaseStream<?, ?> stream) {
+			this.stream = stream;
+			this.iterator = stream.iterator();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return iterator.hasNext();
+		}
+
+		@Override
+		public Object next() {
+			return iterator.next();
+		}
+
+		@Override
+		public void close() {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Gets iterators for each published input.
+	 * 
+	 * @param context  the macro's local context
+	 */
+	private Iterator<?>[] openInputs(OpContext context) {
+		final Iterator<?>[] inputs = new Iterator<?>[publishedInputs.size()];
+		for(int i = 0; i < inputs.length; ++i)
+			inputs[i] = iterator(context.get(publishedInputs.get(i)));
+		return inputs;
+	}
+
+	/**
+	 * Closes published inputs which are streams, or iterators which
+	 * hold resources.
+	 * 
+	 * @param inputs  iterators for each published input
+	 */
+	private static void closeInputs(Iterator<?>[] inputs) {
+		for(Iterator<?> input : inputs) {
+			if(input instanceof AutoCloseable) {
+				try {
+					((AutoCloseable)input).close();
+				} catch (Exception e) {
+					LOGGER.log(Level.WARNING, e.getLocalizedMessage(), e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Maps the next element of each input to the internal graph.
+	 * 
+	 * @param context  the context to map inputs into
+	 * @param inputs  iterators for each published input
+	 * @param iteration  the iteration number
+	 * 
+	 * @return <code>false</code> if all inputs are exhausted, <code>true</code> otherwise
+	 * 
+	 * @throws InvalidTypeException  if an element is not accepted by the internal field
+	 */
+	private boolean mapInputs(OpContext context, Iterator<?>[] inputs, int iteration) {
+		boolean hasNext = false;
+		for(Iterator<?> input : inputs)
+			hasNext |= input.hasNext();
+		if(!hasNext)
+			return false;
+
+		context.put(ForEachNode.CURRENT_ITERATION_KEY, iteration);
+
+		for(int i = 0; i < inputs.length; ++i) {
+			final PublishedInput publishedInput = publishedInputs.get(i);
+			final Object value = (inputs[i].hasNext() ? inputs[i].next() : null);
+
+			final TypeValidator validator = publishedInput.nodeInputField.getValidator();
+			if(value != null && validator != null && !validator.isAcceptable(value))
+				throw new InvalidTypeException(null, publishedInput, value);
+
+			context.getChildContext(publishedInput.destinationNode).put(publishedInput.nodeInputField, value);
+		}
+		return true;
+	}
+
+	/**
+	 * Maps published outputs from a given context mapping to a given context.
+	 * 
+	 * @param context  the context to map outputs to
+	 * @param results  accumulated results of previous iterations
+	 */
+	private void mapOutputs(OpContext context, ResultAccumulator results) {
+		for(PublishedOutput publishedOutput : publishedOutputs) {
+			final OpContext sourceContext = context.findChildContext(publishedOutput.sourceNode);
+			if(sourceContext != null) {
+				final Object result = sourceContext.get(publishedOutput.nodeOutputField);
+				context.put(publishedOutput,
+						results.append(publishedOutput, publishedOutput.nodeOutputField.getOutputType(), result));
+			}
+		}
+	}
+
+	/**
+	 * Gets the expected number of iterations, if any of the inputs
+	 * know their size.
+	 */
+	private int estimateIterations(OpContext context) {
+		int retVal = 0;
+		for(PublishedInput publishedInput : publishedInputs) {
+			final Object source = context.get(publishedInput);
+			long size = -1;
+			if(source instanceof Collection) {
+				size = ((Collection<?>)source).size();
+			} else if(source instanceof Object[]) {
+				size = ((Object[])source).length;
+			} else if(source instanceof Spliterator) {
+				size = ((Spliterator<?>)source).getExactSizeIfKnown();
+			}
+			retVal = (int)Math.max(retVal, Math.min(size, Integer.MAX_VALUE));
+		}
+		return retVal;
+	}
+
+	//
+	// Overrides
+	//
+
+	@Override
+	public InputField publish(String key, OpNode destination, InputField field) {
+		final InputField published = super.publish(key, destination, field);
+		published.setValidator(new SequenceValidator(field.getValidator()));
+		return published;
+	}
+
+	@Override
+	public OutputField publish(String key, OpNode source, OutputField field) {
+		final OutputField published = super.publish(key, source, field);
+		published.setOutputType(getPublishedOutputType());
+		return published;
+	}
+
+	@Override
+	public void operate(OpContext context) throws ProcessingException {
+		if(graph == null)
+			return;
+
+		if(streamOutputs) {
+			final StreamedIterations iterations = new StreamedIterations(context);
+			for(int i = 0; i < publishedOutputs.size(); ++i)
+				context.put(publishedOutputs.get(i), iterations.iterator(i));
+			return;
+		}
+
+		final Iterator<?>[] inputs = openInputs(context);
+		final Processor processor = acquireProcessor(context);
+		final int limit = ForEachNode.getLimit(context);
+		final ResultAccumulator results = new ResultAccumulator(Math.min(limit, estimateIterations(context)));
+		final List<OpNode> breakNodes = BreakNode.findBreakNodes(graph);
+		int iteration = 0;
+		try {
+			while(iteration < limit) {
+				checkCanceled();
+				processor.restart();
+
+				// The restart call above clears out child contexts, so map after
+				if(!mapInputs(context, inputs, iteration))
+					break;
+
+				processor.stepAll();
+				if(processor.getError() != null)
+					throw processor.getError();
+
+				mapOutputs(context, results);
+				++iteration;
+
+				if(BreakNode.isBreakRequested(breakNodes, context))
+					break;
+			}
+		} finally {
+			closeInputs(inputs);
+			releaseProcessor(processor);
+		}
+		context.put(ForEachNode.MAX_ITERATIONS_KEY, iteration);
+	}
+
+	/**
+	 * Closes the inputs of a run once. Does not reference the outputs of
+	 * the run, so it may be used as a {@link Cleaner} action for them.
+	 */
+	static class InputCloser implements Runnable {
+		private final Iterator<?>[] inputs;
+
+		private boolean closed = false;
+
+		InputCloser(Iterator<?>[] inputs) {
+			this.inputs = inputs;
+		}
+
+		@Override
+		public void run() {
+			synchronized(this) {
+				if(closed) return;
+				closed = true;
+			}
+			closeInputs(inputs);
+		}
+	}
+
+	/**
+	 * Runs iterations on demand for streamed outputs. Each output has a
+	 * queue of values from iterations which have run but have not been
+	 * taken from that output yet.
+	 */
+	private class StreamedIterations {
+		private final OpContext iterationContext;
+
+		private final Iterator<?>[] inputs;
+
+		private final InputCloser inputCloser;
+
+		private final List<Deque<Object>> pending;
+
+		private final int limit;
+
+		private final List<OpNode> breakNodes = BreakNode.findBreakNodes(graph);
+
+		private Processor processor;
+
+		private int iteration = 0;
+
+		/** Number of outputs which have not been closed */
+		private int openOutputs;
+
+		public StreamedIterations(OpContext context) {
+			this.limit = ForEachNode.getLimit(context);
+			this.iterationContext = new OpContext(context);
+			this.inputs = openInputs(context);
+			this.inputCloser = new InputCloser(inputs);
+			this.pending = new ArrayList<>(publishedOutputs.size());
+			for(int i = 0; i < publishedOutputs.size(); ++i)
+				pending.add(new ArrayDeque<>());
+			this.openOutputs = publishedOutputs.size();
+
+			// this object is only reachable through the outputs of the run
+			CLEANER.register(this, inputCloser);
+		}
+
+		/**
+		 * Runs the next iteration.
+		 * 
+		 * @return <code>false</code> if there are no more iterations
+		 */
+		private synchronized boolean advance() {
+			if(iteration < 0)
+				return false;
+
+			boolean success = false;
+			try {
+				if(iteration >= limit)
+					return false;
+
+				checkCanceled();
+				if(processor == null)
+					processor = acquireProcessor(iterationContext);
+				processor.restart();
+				if(!mapInputs(iterationContext, inputs, iteration))
+					return false;
+
+				processor.stepAll();
+				if(processor.getError() != null)
+					throw processor.getError();
+
+				for(int i = 0; i < publishedOutputs.size(); ++i) {
+					final PublishedOutput publishedOutput = publishedOutputs.get(i);
+					final OpContext sourceContext = iterationContext.findChildContext(publishedOutput.sourceNode);
+					if(sourceContext != null) {
+						final Object value = sourceContext.get(publishedOutput.nodeOutputField);
+						pending.get(i).add(value == null ? NULL_VALUE : value);
+					}
+				}
+				++iteration;
+				success = true;
+
+				// no further iterations, but values of this one are still given
+				if(BreakNode.isBreakRequested(breakNodes, iterationContext))
+					finish();
+			} finally {
+				if(!success)
+					finish();
+			}
+			return true;
+		}
+
+		private void finish() {
+			iteration = -1;
+			inputCloser.run();
+			iterationContext.clearChildContexts();
+			if(processor != null) {
+				releaseProcessor(processor);
+				processor = null;
+			}
+		}
+
+		private synchronized Object poll(int output) {
+			final Deque<Object> queue = pending.get(output);
+			while(queue.isEmpty()) {
+				if(!advance())
+					throw new NoSuchElementException();
+			}
+			final Object value = queue.poll();
+			return (value == NULL_VALUE ? null : value);
+		}
+
+		private synchronized boolean hasNext(int output) {
+			final Deque<Object> queue = pending.get(output);
+			while(queue.isEmpty()) {
+				if(!advance())
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Closes an output. Once all outputs are closed no further iterations
+		 * are run, inputs are closed and the processor is released.
+		 */
+		private synchronized void close(int output) {
+			pending.get(output).clear();
+			if(--openOutputs == 0 && iteration >= 0)
+				finish();
+		}
+
+		public Iterator<Object> iterator(int output) {
+			return new StreamedOutput(this, output);
+		}
+	}
+
+	/**
+	 * A streamed output of a run.
+	 */
+	private static class StreamedOutput implements Iterator<Object>, AutoCloseable {
+		private final StreamedIterations iterations;
+
+		private final int output;
+
+		private boolean closed = false;
+
+		public StreamedOutput(StreamedIterations iterations, int output) {
+			this.iterations = iterations;
+			this.output = output;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !closed && iterations.hasNext(output);
+		}
+
+		@Override
+		public Object next() {
+			if(closed)
+				throw new NoSuchElementException();
+			return iterations.poll(output);
+		}
+
+		@Override
+		public void close() {
+			if(!closed) {
+				closed = true;
+				iterations.close(output);
+			}
+		}
+	}
+
+	//
+	// CustomProcessing
+	//
+
+	@Override
+	public CustomProcessor getCustomProcessor() {
+		return new CustomProcessor() {
+			private OpContext context;
+			private Iterator<?>[] inputs;
+			private OpNode nextNode;
+			private Iterator<OpNode> nodeIter;
+			private int iteration = 0;
+			private boolean done = false;
+			private int limit;
+			private List<OpNode> breakNodes;
+			private ResultAccumulator results;
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("remove not supported");
+			}
+
+			@Override
+			public OpNode next() {
+				if(!hasNext())
+					throw new NoSuchElementException();
+
+				final OpNode node = nextNode;
+				nextNode = null;
+				return node;
+			}
+
+			@Override
+			public boolean hasNext() {
+				if(nextNode != null)
+					return true;
+
+				if(!nodeIter.hasNext() && !done) {
+					mapOutputs(context, results);
+
+					++iteration;
+					if(iteration < limit && !BreakNode.isBreakRequested(breakNodes, context)
+							&& mapInputs(context, inputs, iteration)) {
+						nodeIter = graph.getVertices().iterator();
+					} else {
+						done = true;
+					}
+				}
+
+				if(nodeIter.hasNext())
+					nextNode = nodeIter.next();
+
+				return (nextNode != null);
+			}
+
+			@Override
+			public void initialize(OpContext context) {
+				this.context = context;
+				this.inputs = openInputs(context);
+				this.iteration = 0;
+				this.limit = ForEachNode.getLimit(context);
+				this.breakNodes = BreakNode.findBreakNodes(graph);
+				this.results = new ResultAccumulator(Math.min(limit, estimateIterations(context)));
+
+				this.done = (limit == 0 || !mapInputs(context, inputs, 0));
+				this.nodeIter = (done ? Collections.emptyIterator() : graph.getVertices().iterator());
+			}
+
+			@Override
+			public void terminate(OpContext context) {
+				closeInputs(inputs);
+				context.put(ForEachNode.MAX_ITERATIONS_KEY, iteration);
+
+				// Stepping always collects outputs
+				if(streamOutputs) {
+					for(PublishedOutput publishedOutput : publishedOutputs) {
+						final List<?> list = (List<?>)context.get(publishedOutput);
+						context.put(publishedOutput, (list == null ? Collections.emptyIterator() : list.iterator()));
+					}
+				}
+			}
+		};
+	}
+
+	//
+	// NodeSettings
+	//
+
+	private final static String STREAM_OUTPUTS_PROP = StreamingForEachNode.class.getName() + ".streamOutputs";
+
+	@Override
+	public Component getComponent(GraphDocument document) {
+		if(settingsPanel == null) {
+			settingsPanel = new JPanel(new BorderLayout());
+
+			final JCheckBox streamOutputsBox = new JCheckBox("Give outputs as iterators");
+			streamOutputsBox.setSelected(isStreamOutputs());
+			streamOutputsBox.addActionListener( (e) -> setStreamOutputs(streamOutputsBox.isSelected()) );
+			settingsPanel.add(streamOutputsBox, BorderLayout.NORTH);
+		}
+		return settingsPanel;
+	}
+
+	@Override
+	public Properties getSettings() {
+		final Properties retVal = new Properties();
+		retVal.setProperty(STREAM_OUTPUTS_PROP, Boolean.toString(isStreamOutputs()));
+		return retVal;
+	}
+
+	@Override
+	public void loadSettings(Properties properties) {
+		setStreamOutputs(Boolean.parseBoolean(properties.getProperty(STREAM_OUTPUTS_PROP, "false")));
+	}
+}
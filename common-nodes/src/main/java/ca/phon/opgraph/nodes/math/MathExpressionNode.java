@@ -38,6 +38,7 @@ import ca.phon.opgraph.app.*;
 import ca.phon.opgraph.app.edits.node.*;
 import ca.phon.opgraph.app.extensions.*;
 import ca.phon.opgraph.exceptions.*;
+import ca.phon.opgraph.extensions.*;
 import ca.phon.opgraph.nodes.math.parser.*;
 
 /**
@@ -50,7 +51,7 @@ import ca.phon.opgraph.nodes.math.parser.*;
 )
 public class MathExpressionNode
 	extends OpNode
-	implements NodeSettings
+	implements NodeSettings, Cacheable
 {
 	/** Logger */
 	private static final Logger LOGGER = Logger.getLogger(MathExpressionNode.class.getName());
@@ -70,6 +71,9 @@ public class MathExpressionNode
 	/** The number of decimal places that are significant in the expression result */
 	private int significantDigits;
 
+	/** The state identifying cached results, updated when settings change */
+	private Object cacheState;
+
 	/** The default number of decimal places that are significant the expression result */
 	private static final int DEFAULT_SIGNIFICANT_DIGITS = -1;
 
@@ -91,6 +95,7 @@ public class MathExpressionNode
 
 		putField(RESULT_OUTPUT_FIELD);
 		putExtension(NodeSettings.class, this);
+		putExtension(Cacheable.class, this);
 	}
 
 	/**
@@ -109,6 +114,7 @@ public class MathExpressionNode
 	 */
 	public void setExpression(String expression) {
 		this.expression = (expression == null ? "" : expression);
+		this.cacheState = Arrays.asList(this.expression, significantDigits);
 
 		final ANTLRStringStream stream = new ANTLRStringStream(this.expression);
 		final MathExpressionLexer lexer = new MathExpressionLexer(stream);
@@ -156,6 +162,7 @@ public class MathExpressionNode
 	 */
 	public void setSignificantDigits(int significantDigits) {
 		this.significantDigits = significantDigits;
+		this.cacheState = Arrays.asList(expression, significantDigits);
 	}
 
 	/**
@@ -376,4 +383,13 @@ public class MathExpressionNode
 		if(properties.containsKey(SIGNIFICANT_DIGITS_KEY))
 			setSignificantDigits(Integer.parseInt(properties.getProperty(SIGNIFICANT_DIGITS_KEY)));
 	}
+
+	//
+	// Cacheable
+	//
+
+	@Override
+	public Object getCacheState() {
+		return cacheState;
+	}
 }
@@ -31,6 +31,8 @@ public class ConstructorNode extends AbstractReflectNode {
 	private final List<InputField> argFields = new ArrayList<InputField>();
 	
 	private OutputField outputField;
+
+	private MemberInvoker invoker;
 	
 	public ConstructorNode() {
 		super();
@@ -51,6 +53,7 @@ public class ConstructorNode extends AbstractReflectNode {
 	public void setConstructor(Constructor<?> constructor) {
 		super.setDeclaredClass(constructor.getDeclaringClass());
 		super.setClassMember(constructor);
+		this.invoker = MemberInvoker.forConstructor(constructor);
 		setName(constructor.getDeclaringClass().getSimpleName() + "#" + ReflectUtil.getSignature(constructor, false));
 		
 		final Class<?> type = constructor.getDeclaringClass();
@@ -78,24 +81,17 @@ public class ConstructorNode extends AbstractReflectNode {
 
 	@Override
 	public void operate(OpContext context) throws ProcessingException {
-		final Constructor<?> constructor = getConstructor();
-
 		final Object[] args = new Object[argFields.size()];
 		for(int i = 0; i < argFields.size(); i++) {
 			final InputField inputField = argFields.get(i);
-			args[0] = context.get(inputField);
+			args[i] = context.get(inputField);
 		}
 		
 		Object val = null;
 		try {
-			if(constructor.getParameterTypes().length > 0)
-				val = constructor.newInstance(args);
-			else
-				val = constructor.newInstance();
+			val = invoker.invoke(null, args);
 		} catch (IllegalArgumentException e) {
 			throw new ProcessingException(null, e);
-		} catch (InstantiationException e) {
-			throw new ProcessingException(null, e);
 		} catch (IllegalAccessException e) {
 			throw new ProcessingException(null, e);
 		} catch (InvocationTargetException e) {
@@ -61,9 +61,8 @@ public class ContextualItemClassNode extends ObjectNode {
 		for(ObjectNodePropertyInputField classInput:classInputs) {
 			final Object val = context.get(classInput);
 			if(val != null) {
-				final Method setMethod = classInput.setMethod;
 				try {
-					setMethod.invoke(obj, val);
+					classInput.setter.invoke(obj, val);
 				} catch (IllegalArgumentException e) {
 					throw new ProcessingException(null, e);
 				} catch (IllegalAccessException e) {
@@ -76,7 +75,7 @@ public class ContextualItemClassNode extends ObjectNode {
 		
 		for(ObjectNodePropertyOutputField classOutput:classOutputs) {
 			try {
-				final Object val = classOutput.getMethod.invoke(obj, new Object[0]);
+				final Object val = classOutput.getter.invoke(obj);
 				context.put(classOutput, val);
 			} catch (IllegalArgumentException e) {
 				throw new ProcessingException(null, e);
@@ -33,6 +33,8 @@ public class FieldNode extends AbstractReflectNode {
 	protected OutputField outputField;
 	
 	private Field field;
+
+	private MemberInvoker getter;
 	
 	public FieldNode() {
 		super();
@@ -54,6 +56,7 @@ public class FieldNode extends AbstractReflectNode {
 	
 	public void setField(Field field) {
 		this.field = field;
+		this.getter = MemberInvoker.forGetter(field);
 		setName(field.getDeclaringClass().getSimpleName() + "." + field.getName());
 		
 		objInputField = new InputField("obj", "", field.getDeclaringClass());
@@ -68,12 +71,14 @@ public class FieldNode extends AbstractReflectNode {
 		final Object instance = context.get(objInputField);
 		
 		try {
-			final Object outputVal = field.get(instance);
+			final Object outputVal = getter.invoke(instance);
 			context.put(outputField, outputVal);
 		} catch (IllegalArgumentException e) {
 			throw new ProcessingException(null, e);
 		} catch (IllegalAccessException e) {
 			throw new ProcessingException(null, e);
+		} catch (InvocationTargetException e) {
+			throw new ProcessingException(null, e);
 		}
 	}
 
@@ -20,8 +20,12 @@ import java.awt.*;
 import java.lang.reflect.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.logging.*;
 
+import javax.swing.*;
+
 import ca.phon.opgraph.*;
 import ca.phon.opgraph.app.*;
 import ca.phon.opgraph.app.components.canvas.*;
@@ -30,11 +34,24 @@ import ca.phon.opgraph.exceptions.*;
 import ca.phon.opgraph.extensions.*;
 import ca.phon.opgraph.extensions.CustomProcessing.*;
 import ca.phon.opgraph.nodes.general.*;
+import ca.phon.opgraph.nodes.iteration.*;
 import ca.phon.opgraph.util.*;
 import ca.phon.opgraph.validators.*;
 
 /**
- * 
+ * A macro node which runs its graph once for each element of an {@link Iterable}.
+ * The current element is available in the context using {@link #CURRENT_VALUE_KEY}.
+ *
+ * When the graph is marked as side-effect-free (see {@link #setSideEffectFree(boolean)})
+ * and none of its nodes report side effects (see {@link ExecutionPlan#hasSideEffects(OpNode)})
+ * elements are processed in parallel. The iterable's {@link Spliterator} is
+ * split across a {@link ForkJoinPool} and each worker reuses its own processor
+ * and context. Published outputs and {@link #CURRENT_VALUE_KEY} are taken
+ * from the last element, as they are when processing serially.
+ *
+ * A {@link BreakNode} in the graph stops iterating once the element in
+ * which it breaks has been processed. Graphs with break nodes are always
+ * processed serially.
  */
 public class IterableClassNode extends MacroNode implements NodeSettings, ReflectNode, CustomProcessing, CustomProcessor {
 	
@@ -63,6 +80,15 @@ public class IterableClassNode extends MacroNode implements NodeSettings, Reflec
 	private List<ObjectNodePropertyOutputField> classOutputs;
 	
 	private Class<?> type;
+
+	/** Invoker for the no-argument constructor of type, <code>null</code> if not available */
+	private MemberInvoker constructorInvoker;
+
+	/** Whether iterations of the graph are independent and may run in parallel */
+	private boolean sideEffectFree = false;
+
+	/** Whether a warning was logged for a side-effect-free graph with side effects */
+	private volatile boolean sideEffectsWarned = false;
 	
 	public IterableClassNode() {
 		super();
@@ -96,6 +122,12 @@ public class IterableClassNode extends MacroNode implements NodeSettings, Reflec
 
 		this.type = clazz;
 		super.setName(clazz.getSimpleName());
+
+		try {
+			constructorInvoker = MemberInvoker.forConstructor(clazz.getConstructor());
+		} catch (NoSuchMethodException e) {
+			constructorInvoker = null;
+		}
 	
 		final List<ParameterizedType> parameterizedTypes = ReflectUtil.getParameterizedTypesForClass(type);
 		final Set<Class<?>> paramTypes = new HashSet<Class<?>>();
@@ -154,26 +186,43 @@ public class IterableClassNode extends MacroNode implements NodeSettings, Reflec
 		for(OutputField outputField:classOutputs) putField(outputField);
 	}
 	
+	/**
+	 * Instantiates a new object of the declared class using the
+	 * no-argument constructor.
+	 * 
+	 * @return the new object
+	 * 
+	 * @throws ProcessingException  if the object could not be instantiated
+	 */
+	private Object newInstance() throws ProcessingException {
+		try {
+			if(constructorInvoker == null)
+				throw new InstantiationException("No public no-argument constructor for " + type.getName());
+			return constructorInvoker.invoke(null);
+		} catch (InstantiationException e) {
+			throw new ProcessingException(null, e);
+		} catch (IllegalArgumentException e) {
+			throw new ProcessingException(null, e);
+		} catch (IllegalAccessException e) {
+			throw new ProcessingException(null, e);
+		} catch (InvocationTargetException e) {
+			throw new ProcessingException(null, e);
+		}
+	}
+	
 	@Override
 	public void operate(OpContext context) throws ProcessingException {
 		Object obj = context.get(inputValueField);
 		if(obj == null) {
 			// attempt to instantiate a new object
-			try {
-				obj = type.newInstance();
-			} catch (InstantiationException e) {
-				throw new ProcessingException(null, e);
-			} catch (IllegalAccessException e) {
-				throw new ProcessingException(null, e);
-			}
+			obj = newInstance();
 		}
 		
 		for(ObjectNodePropertyInputField classInput:classInputs) {
 			final Object val = context.get(classInput);
 			if(val != null) {
-				final Method setMethod = classInput.setMethod;
 				try {
-					setMethod.invoke(obj, val);
+					classInput.setter.invoke(obj, val);
 				} catch (IllegalArgumentException e) {
 					throw new ProcessingException(null, e);
 				} catch (IllegalAccessException e) {
@@ -186,15 +235,61 @@ public class IterableClassNode extends MacroNode implements NodeSettings, Reflec
 		
 		// Process
 		if(graph != null) {
-			final Processor processor = new Processor(graph);
-			for(ProcessorListener listener:getProcessorListeners())
-				processor.addProcessorListener(listener);
-			
 			final Iterable<?> iterable = (Iterable<?>)obj;
+			if(sideEffectFree && BreakNode.findBreakNodes(graph).isEmpty() && !hasSideEffects()) {
+				new ParallelIterations(context).run(iterable);
+			} else {
+				operateSerial(context, iterable);
+			}
+		}
+		
+		for(ObjectNodePropertyOutputField classOutput:classOutputs) {
+			try {
+				final Object val = classOutput.getter.invoke(obj);
+				context.put(classOutput, val);
+			} catch (IllegalArgumentException e) {
+				throw new ProcessingException(null, e);
+			} catch (IllegalAccessException e) {
+				throw new ProcessingException(null, e);
+			} catch (InvocationTargetException e) {
+				throw new ProcessingException(null, e);
+			}
+		}
+		
+		context.put(outputValueField, obj);
+	}
+
+	/**
+	 * Gets whether a node of the graph has side effects, in which case the
+	 * elements are processed serially even if the graph is marked as
+	 * side-effect-free. Such nodes may write to shared state (e.g., the
+	 * parent context) which is not safe to use from multiple threads.
+	 */
+	private boolean hasSideEffects() {
+		for(OpNode node : graph.getVertices()) {
+			if(ExecutionPlan.hasSideEffects(node)) {
+				if(!sideEffectsWarned) {
+					sideEffectsWarned = true;
+					LOGGER.warning("Processing elements serially, node " + node.getName() + " of " + getName() + " has side effects");
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void operateSerial(OpContext context, Iterable<?> iterable) throws ProcessingException {
+		final Processor processor = acquireProcessor(context);
+		final List<ProcessorListener> listeners = new ArrayList<>(getProcessorListeners());
+		for(ProcessorListener listener:listeners)
+			processor.addProcessorListener(listener);
+		
+		final List<OpNode> breakNodes = BreakNode.findBreakNodes(graph);
+		try {
 			final Iterator<?> itr = iterable.iterator();
 			while(itr.hasNext()) {
 				checkCanceled();
-				processor.reset(context);
+				processor.restart();
 				
 				mapInputs(context);
 				
@@ -206,23 +301,198 @@ public class IterableClassNode extends MacroNode implements NodeSettings, Reflec
 					throw processor.getError();
 				
 				mapOutputs(context);
+
+				if(BreakNode.isBreakRequested(breakNodes, context))
+					break;
 			}
+		} finally {
+			for(ProcessorListener listener:listeners)
+				processor.removeProcessorListener(listener);
+			releaseProcessor(processor);
 		}
-		
-		for(ObjectNodePropertyOutputField classOutput:classOutputs) {
+	}
+
+	/**
+	 * Processes the elements of an iterable in parallel for a single call to
+	 * {@link IterableClassNode#operate(OpContext)}. The spliterator of the
+	 * iterable is split into tasks. Each task borrows an idle worker (a
+	 * processor and context) so workers are reused between tasks.
+	 *
+	 * To find the outputs of the last element, each task is given a key
+	 * describing its position in encounter order: the <i>i</i>th prefix split
+	 * from a task with key <i>K</i> has key <i>K</i>+[<i>i</i>] and the part
+	 * the task processes itself has key <i>K</i>+[{@link Integer#MAX_VALUE}].
+	 * Keys compare lexicographically.
+	 *
+	 * Processor listeners are not notified of parallel processing.
+	 */
+	private class ParallelIterations {
+		private final OpContext context;
+
+		private final Deque<Worker> idleWorkers = new ConcurrentLinkedDeque<>();
+
+		private final Queue<Worker> allWorkers = new ConcurrentLinkedQueue<>();
+
+		private final AtomicReference<RuntimeException> error = new AtomicReference<>();
+
+		private long splitThreshold;
+
+		/** Position of the task which processed the last element, so far */
+		private int[] lastKey;
+
+		private Object lastValue;
+
+		private Object[] lastOutputs;
+
+		public ParallelIterations(OpContext context) {
+			this.context = context;
+		}
+
+		public void run(Iterable<?> iterable) throws ProcessingException {
+			final Spliterator<?> spliterator = iterable.spliterator();
+			final long size = spliterator.estimateSize();
+			final int parallelism = Runtime.getRuntime().availableProcessors();
+			splitThreshold = (size == Long.MAX_VALUE ? 1 : Math.max(1, size / (parallelism * 4)));
+
 			try {
-				final Object val = classOutput.getMethod.invoke(obj, new Object[0]);
-				context.put(classOutput, val);
-			} catch (IllegalArgumentException e) {
-				throw new ProcessingException(null, e);
-			} catch (IllegalAccessException e) {
-				throw new ProcessingException(null, e);
-			} catch (InvocationTargetException e) {
-				throw new ProcessingException(null, e);
+				new SplitTask(spliterator, new int[0]).invoke();
+			} finally {
+				for(Worker worker : allWorkers)
+					worker.release();
+			}
+
+			checkCanceled();
+			if(error.get() != null)
+				throw error.get();
+
+			if(lastKey != null) {
+				context.put(CURRENT_VALUE_KEY, lastValue);
+				for(int i = 0; i < lastOutputs.length; ++i) {
+					if(lastOutputs[i] != null)
+						context.put(publishedOutputs.get(i), ((Optional<?>)lastOutputs[i]).orElse(null));
+				}
+			}
+		}
+
+		private boolean isStopped() {
+			return (error.get() != null || isCanceled());
+		}
+
+		private Worker acquireWorker() {
+			Worker worker = idleWorkers.pollFirst();
+			if(worker == null) {
+				worker = new Worker();
+				allWorkers.add(worker);
+			}
+			return worker;
+		}
+
+		private synchronized void recordLast(int[] key, Worker worker) {
+			if(lastKey != null && Arrays.compare(key, lastKey) < 0)
+				return;
+
+			lastKey = key;
+			lastValue = worker.workerContext.get(CURRENT_VALUE_KEY);
+			lastOutputs = new Object[publishedOutputs.size()];
+			for(int i = 0; i < lastOutputs.length; ++i) {
+				final PublishedOutput publishedOutput = publishedOutputs.get(i);
+				final OpContext sourceContext = worker.workerContext.findChildContext(publishedOutput.sourceNode);
+				if(sourceContext != null)
+					lastOutputs[i] = Optional.ofNullable(sourceContext.get(publishedOutput.nodeOutputField));
+			}
+		}
+
+		private class Worker {
+			final OpContext workerContext = new OpContext(context);
+
+			final Processor processor = acquireProcessor(workerContext);
+
+			void iterate(Object value) {
+				processor.restart();
+				mapInputs(workerContext);
+				workerContext.put(CURRENT_VALUE_KEY, value);
+
+				processor.stepAll();
+				if(processor.getError() != null)
+					throw processor.getError();
+			}
+
+			void release() {
+				workerContext.clearChildContexts();
+				releaseProcessor(processor);
+			}
+		}
+
+		private class SplitTask extends RecursiveAction {
+			private static final long serialVersionUID = 1L;
+
+			private final Spliterator<?> spliterator;
+
+			private final int[] key;
+
+			public SplitTask(Spliterator<?> spliterator, int[] key) {
+				this.spliterator = spliterator;
+				this.key = key;
+			}
+
+			private int[] childKey(int index) {
+				final int[] retVal = Arrays.copyOf(key, key.length + 1);
+				retVal[key.length] = index;
+				return retVal;
+			}
+
+			@Override
+			protected void compute() {
+				final List<SplitTask> forked = new ArrayList<>();
+				Spliterator<?> prefix;
+				while(spliterator.estimateSize() > splitThreshold && (prefix = spliterator.trySplit()) != null) {
+					final SplitTask task = new SplitTask(prefix, childKey(forked.size()));
+					task.fork();
+					forked.add(task);
+				}
+
+				if(!isStopped()) {
+					final Worker worker = acquireWorker();
+					try {
+						boolean processed = false;
+						while(!isStopped() && spliterator.tryAdvance(worker::iterate))
+							processed = true;
+						if(processed && !isStopped())
+							recordLast(childKey(Integer.MAX_VALUE), worker);
+					} catch(RuntimeException e) {
+						error.compareAndSet(null, e);
+					} finally {
+						idleWorkers.offerFirst(worker);
+					}
+				}
+
+				for(SplitTask task : forked)
+					task.quietlyJoin();
 			}
 		}
-		
-		context.put(outputValueField, obj);
+	}
+
+	/**
+	 * Gets whether iterations of the graph are independent of each other.
+	 * 
+	 * @return <code>true</code> if elements are processed in parallel
+	 */
+	public boolean isSideEffectFree() {
+		return sideEffectFree;
+	}
+
+	/**
+	 * Sets whether iterations of the graph are independent of each other,
+	 * i.e., the graph only writes to its own context and does not depend on
+	 * the order elements are processed in. Elements of side-effect-free
+	 * graphs are processed in parallel, unless a node of the graph reports
+	 * side effects. Stepping through this node always processes elements
+	 * serially.
+	 * 
+	 * @param sideEffectFree  <code>true</code> to process elements in parallel
+	 */
+	public void setSideEffectFree(boolean sideEffectFree) {
+		this.sideEffectFree = sideEffectFree;
 	}
 
 	@Override
@@ -240,10 +510,23 @@ public class IterableClassNode extends MacroNode implements NodeSettings, Reflec
 	 */
 	private final static String CLASSNAME_SETTINGS_KEY = 
 			IterableClassNode.class.getName() + ".className";
+
+	private final static String SIDE_EFFECT_FREE_SETTINGS_KEY = 
+			IterableClassNode.class.getName() + ".sideEffectFree";
+
+	private JPanel settingsPanel;
 	
 	@Override
 	public Component getComponent(GraphDocument document) {
-		return null;
+		if(settingsPanel == null) {
+			settingsPanel = new JPanel(new BorderLayout());
+
+			final JCheckBox sideEffectFreeBox = new JCheckBox("Side-effect-free (process elements in parallel)");
+			sideEffectFreeBox.setSelected(isSideEffectFree());
+			sideEffectFreeBox.addActionListener( (e) -> setSideEffectFree(sideEffectFreeBox.isSelected()) );
+			settingsPanel.add(sideEffectFreeBox, BorderLayout.NORTH);
+		}
+		return settingsPanel;
 	}
 
 	@Override
@@ -252,6 +535,7 @@ public class IterableClassNode extends MacroNode implements NodeSettings, Reflec
 		if(type != null) {
 			retVal.put(CLASSNAME_SETTINGS_KEY, type.getName());
 		}
+		retVal.put(SIDE_EFFECT_FREE_SETTINGS_KEY, Boolean.toString(isSideEffectFree()));
 		return retVal;
 	}
 
@@ -266,6 +550,7 @@ public class IterableClassNode extends MacroNode implements NodeSettings, Reflec
 				LOGGER.log(Level.SEVERE, e.getLocalizedMessage(), e);
 			}
 		}
+		setSideEffectFree(Boolean.parseBoolean(properties.getProperty(SIDE_EFFECT_FREE_SETTINGS_KEY, "false")));
 	}
 	
 	/*
@@ -302,21 +587,14 @@ public class IterableClassNode extends MacroNode implements NodeSettings, Reflec
 		obj = context.get(inputValueField);
 		if(obj == null) {
 			// attempt to instantiate a new object
-			try {
-				obj = type.newInstance();
-			} catch (InstantiationException e) {
-				throw new ProcessingException(null, e);
-			} catch (IllegalAccessException e) {
-				throw new ProcessingException(null, e);
-			}
+			obj = newInstance();
 		}
 		
 		for(ObjectNodePropertyInputField classInput:classInputs) {
 			final Object val = context.get(classInput);
 			if(val != null) {
-				final Method setMethod = classInput.setMethod;
 				try {
-					setMethod.invoke(obj, val);
+					classInput.setter.invoke(obj, val);
 				} catch (IllegalArgumentException e) {
 					throw new ProcessingException(null, e);
 				} catch (IllegalAccessException e) {
@@ -340,7 +618,7 @@ public class IterableClassNode extends MacroNode implements NodeSettings, Reflec
 	public void terminate(OpContext context) {
 		for(ObjectNodePropertyOutputField classOutput:classOutputs) {
 			try {
-				final Object val = classOutput.getMethod.invoke(obj, new Object[0]);
+				final Object val = classOutput.getter.invoke(obj);
 				context.put(classOutput, val);
 			} catch (IllegalArgumentException e) {
 				throw new ProcessingException(null, e);
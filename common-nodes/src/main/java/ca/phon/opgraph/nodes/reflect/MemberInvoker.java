@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2012-2020 Gregory Hedlund <https://www.phon.ca>
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.opgraph.nodes.reflect;
+
+import java.lang.invoke.*;
+import java.lang.reflect.*;
+import java.util.concurrent.*;
+
+/**
+ * Invokes a method, constructor or field getter through a {@link MethodHandle}
+ * bound once for the member, avoiding the access checks, argument array
+ * copies and wrapping done by core reflection on every call.
+ * 
+ * Handles are obtained from the public lookup, so the same members are
+ * accessible as with {@link Method#invoke(Object, Object...)}. Members which
+ * cannot be bound (e.g., public members of non-exported packages made
+ * accessible through reflection) are invoked reflectively.
+ * 
+ * Invokers are cached by member, so nodes for the same member share an invoker.
+ */
+final class MemberInvoker {
+	
+	/** Empty argument array */
+	private static final Object[] NO_ARGS = new Object[0];
+
+	/** Invokers for members of each declaring class */
+	private static final ClassValue<ConcurrentMap<Member, MemberInvoker>> INVOKERS = new ClassValue<ConcurrentMap<Member, MemberInvoker>>() {
+		@Override
+		protected ConcurrentMap<Member, MemberInvoker> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<>();
+		}
+	};
+
+	/** Member */
+	private final Member member;
+	
+	/** Number of arguments, not including the instance */
+	private final int argCount;
+
+	/** Handle of type <code>(Object, Object...)Object</code> with <code>argCount</code> arguments, or <code>null</code> */
+	private final MethodHandle handle;
+
+	/** Handle of type <code>(Object, Object[])Object</code>, or <code>null</code> */
+	private final MethodHandle spreader;
+
+	private MemberInvoker(Member member, int argCount, MethodHandle target) {
+		this.member = member;
+		this.argCount = argCount;
+		if(target != null) {
+			// instance is ignored for static members and constructors
+			if(member instanceof Constructor || Modifier.isStatic(member.getModifiers()))
+				target = MethodHandles.dropArguments(target, 0, Object.class);
+			this.handle = target.asFixedArity().asType(MethodType.genericMethodType(argCount + 1));
+			this.spreader = this.handle.asSpreader(Object[].class, argCount);
+		} else {
+			this.handle = null;
+			this.spreader = null;
+		}
+	}
+
+	/**
+	 * Creates an invoker for the given method.
+	 * 
+	 * @param method  the method
+	 * 
+	 * @return the invoker
+	 */
+	static MemberInvoker forMethod(Method method) {
+		return INVOKERS.get(method.getDeclaringClass()).computeIfAbsent(method, (m) -> bindMethod(method));
+	}
+
+	private static MemberInvoker bindMethod(Method method) {
+		MethodHandle target = null;
+		try {
+			target = MethodHandles.publicLookup().unreflect(method);
+		} catch (IllegalAccessException e) {
+			// invoke reflectively
+		}
+		return new MemberInvoker(method, method.getParameterCount(), target);
+	}
+
+	/**
+	 * Creates an invoker for the given constructor.
+	 * 
+	 * @param constructor  the constructor
+	 * 
+	 * @return the invoker
+	 */
+	static MemberInvoker forConstructor(Constructor<?> constructor) {
+		return INVOKERS.get(constructor.getDeclaringClass()).computeIfAbsent(constructor, (m) -> bindConstructor(constructor));
+	}
+
+	private static MemberInvoker bindConstructor(Constructor<?> constructor) {
+		MethodHandle target = null;
+		if(!Modifier.isAbstract(constructor.getDeclaringClass().getModifiers())) {
+			try {
+				target = MethodHandles.publicLookup().unreflectConstructor(constructor);
+			} catch (IllegalAccessException e) {
+				// invoke reflectively
+			}
+		}
+		return new MemberInvoker(constructor, constructor.getParameterCount(), target);
+	}
+
+	/**
+	 * Creates an invoker which gets the value of the given field.
+	 * 
+	 * @param field  the field
+	 * 
+	 * @return the invoker
+	 */
+	static MemberInvoker forGetter(Field field) {
+		return INVOKERS.get(field.getDeclaringClass()).computeIfAbsent(field, (m) -> bindGetter(field));
+	}
+
+	private static MemberInvoker bindGetter(Field field) {
+		MethodHandle target = null;
+		try {
+			target = MethodHandles.publicLookup().unreflectGetter(field);
+		} catch (IllegalAccessException e) {
+			// invoke reflectively
+		}
+		return new MemberInvoker(field, 0, target);
+	}
+
+	/**
+	 * Gets the member invoked.
+	 * 
+	 * @return the member
+	 */
+	Member getMember() {
+		return member;
+	}
+
+	/**
+	 * Invokes a member which takes no arguments.
+	 * 
+	 * @param instance  the object instance, ignored for static members and constructors
+	 * 
+	 * @return the result, <code>null</code> for <code>void</code> methods
+	 * 
+	 * @see #invoke(Object, Object[])
+	 */
+	Object invoke(Object instance)
+			throws IllegalArgumentException, IllegalAccessException, InvocationTargetException {
+		if(handle == null || argCount != 0)
+			return invoke(instance, NO_ARGS);
+
+		try {
+			return handle.invokeExact(instance);
+		} catch (Throwable t) {
+			throw new InvocationTargetException(t);
+		}
+	}
+
+	/**
+	 * Invokes a member which takes a single argument.
+	 * 
+	 * @param instance  the object instance, ignored for static members and constructors
+	 * @param arg  the argument
+	 * 
+	 * @return the result, <code>null</code> for <code>void</code> methods
+	 * 
+	 * @see #invoke(Object, Object[])
+	 */
+	Object invoke(Object instance, Object arg)
+			throws IllegalArgumentException, IllegalAccessException, InvocationTargetException {
+		if(handle == null || argCount != 1)
+			return invoke(instance, new Object[] { arg });
+
+		try {
+			return handle.invokeExact(instance, arg);
+		} catch (Throwable t) {
+			throw new InvocationTargetException(t);
+		}
+	}
+
+	/**
+	 * Invokes the member.
+	 * 
+	 * @param instance  the object instance, ignored for static members and constructors
+	 * @param args  the arguments
+	 * 
+	 * @return the result, <code>null</code> for <code>void</code> methods
+	 * 
+	 * @throws IllegalArgumentException  if the number of arguments is incorrect, or
+	 *                                   the constructor belongs to an abstract class
+	 * @throws IllegalAccessException  if the member is not accessible
+	 * @throws InvocationTargetException  if the member, or argument conversion, throws an exception
+	 */
+	Object invoke(Object instance, Object[] args)
+			throws IllegalArgumentException, IllegalAccessException, InvocationTargetException {
+		if(args.length != argCount)
+			throw new IllegalArgumentException("Expected " + argCount + " arguments, found " + args.length);
+
+		if(handle == null) {
+			if(member instanceof Method)
+				return ((Method)member).invoke(instance, args);
+			else if(member instanceof Constructor) {
+				try {
+					return ((Constructor<?>)member).newInstance(args);
+				} catch (InstantiationException e) {
+					throw new IllegalArgumentException(e.getMessage(), e);
+				}
+			} else
+				return ((Field)member).get(instance);
+		}
+
+		try {
+			return spreader.invokeExact(instance, args);
+		} catch (Throwable t) {
+			throw new InvocationTargetException(t);
+		}
+	}
+
+}
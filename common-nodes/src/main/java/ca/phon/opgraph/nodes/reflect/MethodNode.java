@@ -24,6 +24,7 @@ import ca.phon.opgraph.*;
 import ca.phon.opgraph.exceptions.*;
 import ca.phon.opgraph.util.*;
 
+@SideEffects
 public class MethodNode extends AbstractReflectNode {
 
 	private static final Logger LOGGER = Logger
@@ -32,6 +33,9 @@ public class MethodNode extends AbstractReflectNode {
 	// internal method
 	private Method method;
 
+	// invoker bound to method
+	private MemberInvoker invoker;
+
 	private InputField objField;
 
 	private OutputField outputField;
@@ -58,6 +62,7 @@ public class MethodNode extends AbstractReflectNode {
 
 	public void setMethod(Method method) {
 		this.method = method;
+		this.invoker = MemberInvoker.forMethod(method);
 		super.setName(method.getDeclaringClass().getSimpleName() + "#" + ReflectUtil.getSignature(method));
 		// optional object instance
 		final Class<?> inputObjType = method.getDeclaringClass();
@@ -111,7 +116,7 @@ public class MethodNode extends AbstractReflectNode {
 
 	protected Object invokeMethod(Object instance, Object[] args)
 			throws IllegalArgumentException, IllegalAccessException, InvocationTargetException  {
-			final Object retVal = method.invoke(instance, args);
+			final Object retVal = invoker.invoke(instance, args);
 			return retVal;
 	}
 
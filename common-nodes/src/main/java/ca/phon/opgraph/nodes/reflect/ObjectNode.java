@@ -132,9 +132,8 @@ public class ObjectNode extends AbstractReflectNode {
 			for(ObjectNodePropertyInputField classInput:classInputs) {
 				final Object val = context.get(classInput);
 				if(val != null) {
-					final Method setMethod = classInput.setMethod;
 					try {
-						setMethod.invoke(obj, val);
+						classInput.setter.invoke(obj, val);
 					} catch (IllegalArgumentException e) {
 						throw new ProcessingException(null, e);
 					} catch (IllegalAccessException e) {
@@ -148,7 +147,7 @@ public class ObjectNode extends AbstractReflectNode {
 			for(ObjectNodePropertyOutputField classOutput:classOutputs) {
 				if(context.isActive(classOutput)) {
 					try {
-						final Object val = classOutput.getMethod.invoke(obj, new Object[0]);
+						final Object val = classOutput.getter.invoke(obj);
 						context.put(classOutput, val);
 					} catch (IllegalArgumentException e) {
 						throw new ProcessingException(null, e);
@@ -27,6 +27,55 @@ import ca.phon.opgraph.util.*;
  */
 public class ObjectNodeFieldGenerator {
 
+	/**
+	 * Property descriptors for each scanned class. Values are stored with
+	 * the class, so they do not prevent classes from being unloaded.
+	 */
+	private static final ClassValue<ClassProperties> CLASS_PROPERTIES = new ClassValue<ClassProperties>() {
+		@Override
+		protected ClassProperties computeValue(Class<?> type) {
+			return new ClassProperties(scanClassSetters(type), scanClassGetters(type));
+		}
+	};
+
+	/**
+	 * Property of a class, with its accessor method.
+	 */
+	private static class PropertyDescriptor {
+
+		final String key;
+
+		final Class<?> type;
+
+		final Method method;
+
+		final MemberInvoker invoker;
+
+		PropertyDescriptor(String key, Class<?> type, Method method) {
+			this.key = key;
+			this.type = type;
+			this.method = method;
+			this.invoker = MemberInvoker.forMethod(method);
+		}
+
+	}
+
+	/**
+	 * Setter and getter properties of a class.
+	 */
+	private static class ClassProperties {
+
+		final List<PropertyDescriptor> setters;
+
+		final List<PropertyDescriptor> getters;
+
+		ClassProperties(List<PropertyDescriptor> setters, List<PropertyDescriptor> getters) {
+			this.setters = setters;
+			this.getters = getters;
+		}
+
+	}
+
 	private final List<ObjectNodePropertyInputField> inputFields = new ArrayList<ObjectNodePropertyInputField>();
 
 	private final List<ObjectNodePropertyOutputField> outputFields = new ArrayList<ObjectNodePropertyOutputField>();
@@ -49,18 +98,29 @@ public class ObjectNodeFieldGenerator {
 	 * @param clazz
 	 */
 	public void scanClass(Class<?> clazz) {
-		inputFields.addAll(scanClassSetters(clazz));
-		outputFields.addAll(scanClassGetters(clazz));
+		final ClassProperties properties = CLASS_PROPERTIES.get(clazz);
+		for(PropertyDescriptor setter:properties.setters) {
+			final ObjectNodePropertyInputField propField =
+					new ObjectNodePropertyInputField(setter.key, "", setter.type, setter.method, setter.invoker);
+			propField.setOptional(true);
+			inputFields.add(propField);
+		}
+		for(PropertyDescriptor getter:properties.getters) {
+			final ObjectNodePropertyOutputField outputField =
+					new ObjectNodePropertyOutputField(getter.key, "", getter.type, getter.method, getter.invoker);
+			outputField.setFixed(true);
+			outputFields.add(outputField);
+		}
 	}
 
 	/*
 	 * Scan class for get methods and return list of
-	 * created output fields
+	 * output properties
 	 *
 	 * @return outputs
 	 */
-	private List<ObjectNodePropertyOutputField> scanClassGetters(Class<?> clazz) {
-		final List<ObjectNodePropertyOutputField> retVal = new ArrayList<ObjectNodePropertyOutputField>();
+	private static List<PropertyDescriptor> scanClassGetters(Class<?> clazz) {
+		final List<PropertyDescriptor> retVal = new ArrayList<PropertyDescriptor>();
 		final Method[] methods = clazz.getMethods();
 
 		for(Method method:methods) {
@@ -91,16 +151,13 @@ public class ObjectNodeFieldGenerator {
 				outputType = ReflectUtil.wrapperClassForPrimitive(outputType);
 			}
 
-			final ObjectNodePropertyOutputField outputField = new ObjectNodePropertyOutputField(propName, "", outputType, method);
-			outputField.setFixed(true);
-//			putField(outputField);
-			retVal.add(outputField);
+			retVal.add(new PropertyDescriptor(propName, outputType, method));
 		}
 		return retVal;
 	}
 
-	private List<ObjectNodePropertyInputField> scanClassSetters(Class<?> clazz) {
-		final List<ObjectNodePropertyInputField> retVal = new ArrayList<ObjectNodePropertyInputField>();
+	private static List<PropertyDescriptor> scanClassSetters(Class<?> clazz) {
+		final List<PropertyDescriptor> retVal = new ArrayList<PropertyDescriptor>();
 		final Method[] methods = clazz.getMethods();
 		for(Method method:methods) {
 			if(method.getName().startsWith("set")
@@ -115,10 +172,7 @@ public class ObjectNodeFieldGenerator {
 					inputType = ReflectUtil.wrapperClassForPrimitive(inputType);
 				}
 
-				final ObjectNodePropertyInputField propField = new ObjectNodePropertyInputField(propName, "", inputType, method);
-				propField.setOptional(true);
-//				putField(propField);
-				retVal.add(propField);
+				retVal.add(new PropertyDescriptor(propName, inputType, method));
 			}
 		}
 		return retVal;
@@ -23,10 +23,17 @@ import ca.phon.opgraph.*;
 class ObjectNodePropertyInputField extends InputField {
 	
 	final Method setMethod;
+
+	final MemberInvoker setter;
 	
 	public ObjectNodePropertyInputField(String key, String description, Class<?> type, Method method) {
+		this(key, description, type, method, MemberInvoker.forMethod(method));
+	}
+
+	ObjectNodePropertyInputField(String key, String description, Class<?> type, Method method, MemberInvoker setter) {
 		super(key, description, type);
 		this.setMethod = method;
+		this.setter = setter;
 	}
 	
 }
@@ -23,10 +23,17 @@ import ca.phon.opgraph.*;
 class ObjectNodePropertyOutputField extends OutputField {
 	
 	final Method getMethod;
+
+	final MemberInvoker getter;
 	
 	public ObjectNodePropertyOutputField(String key, String description, Class<?> type, Method method) {
+		this(key, description, type, method, MemberInvoker.forMethod(method));
+	}
+
+	ObjectNodePropertyOutputField(String key, String description, Class<?> type, Method method, MemberInvoker getter) {
 		super(key, description, false, type);
 		this.getMethod = method;
+		this.getter = getter;
 	}
 	
 }
\ No newline at end of file
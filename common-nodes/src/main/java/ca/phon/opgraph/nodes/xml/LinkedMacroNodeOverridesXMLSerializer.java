@@ -69,6 +69,8 @@ public class LinkedMacroNodeOverridesXMLSerializer implements XMLSerializer {
 		MacroNode macro = null;
 		if(parent instanceof MacroNode) {
 			macro = (MacroNode)parent;
+			if(macro.isGraphShared())
+				throw new IOException("Cannot override nodes of a shared macro graph");
 			macro.putExtension(LinkedMacroNodeOverrides.class, overrides);
 		}
 		
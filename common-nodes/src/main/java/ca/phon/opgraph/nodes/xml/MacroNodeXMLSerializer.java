@@ -26,7 +26,6 @@ import javax.xml.namespace.*;
 import org.w3c.dom.*;
 
 import ca.phon.opgraph.*;
-import ca.phon.opgraph.app.*;
 import ca.phon.opgraph.extensions.*;
 import ca.phon.opgraph.extensions.Publishable.*;
 import ca.phon.opgraph.io.xml.*;
@@ -35,6 +34,11 @@ import ca.phon.opgraph.nodes.iteration.*;
 
 /**
  * A default serializer for reading/writing {@link OpNode} to/from XML.
+ *
+ * Linked macros are given a private copy of their graph when read, unless
+ * the serializer factory has a {@link MacroNodeCache} extension. In that
+ * case linked macros without node overrides share the graph from the cache,
+ * and the graph must not be modified.
  */
 public class MacroNodeXMLSerializer implements XMLSerializer {
 	static final String NAMESPACE = "https://www.phon.ca/ns/opgraph-common-nodes";
@@ -169,8 +173,15 @@ public class MacroNodeXMLSerializer implements XMLSerializer {
 					if(name.equals(macroURLName)) {					
 						try {
 							var graphURI = new URI(childElem.getTextContent().trim());
-														
-							OpGraph macroGraph = OpgraphIO.read(uriToUrl(graphURI).openStream());
+
+							// linked graphs are shared when a cache is given, unless nodes of the graph are overridden
+							final MacroNodeCache graphCache = serializerFactory.getExtension(MacroNodeCache.class);
+							final boolean shared = graphCache != null && elem.getElementsByTagNameNS(
+									LinkedMacroNodeOverridesXMLSerializer.OVERRIDES_QNAME.getNamespaceURI(),
+									LinkedMacroNodeOverridesXMLSerializer.OVERRIDES_QNAME.getLocalPart()).getLength() == 0;
+							OpGraph macroGraph = (shared
+									? graphCache.getGraph(graphURI)
+									: MacroTemplateRegistry.getSharedInstance().newGraph(uriToUrl(graphURI)));
 							
 							if(macroGraph.getVertices().size() == 1 && macroGraph.getVertices().get(0) instanceof MacroNode) {
 								MacroNode origNode = (MacroNode)macroGraph.getVertices().get(0);
@@ -188,6 +199,7 @@ public class MacroNodeXMLSerializer implements XMLSerializer {
 							}
 							macro.setGraphURI(graphURI);
 							macro.setGraphEmbedded(false);
+							macro.setGraphShared(shared);
 						} catch (MalformedURLException | DOMException | URISyntaxException | InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
 							throw new IOException(e);
 						}
@@ -254,7 +266,7 @@ public class MacroNodeXMLSerializer implements XMLSerializer {
 
 	@Override
 	public boolean handles(Class<?> cls) {
-		return (cls == MacroNode.class || cls == ForEachNode.class);
+		return (cls == MacroNode.class || cls == ForEachNode.class || cls == StreamingForEachNode.class);
 	}
 
 	@Override
@@ -18,10 +18,16 @@ package ca.phon.opgraph.nodes.general;
 
 import static org.junit.Assert.*;
 
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
 import org.junit.*;
 
 import ca.phon.opgraph.*;
 import ca.phon.opgraph.exceptions.*;
+import ca.phon.opgraph.io.xml.*;
+import ca.phon.opgraph.nodes.math.*;
 import ca.phon.opgraph.nodes.reflect.*;
 
 /**
@@ -245,4 +251,146 @@ public class TestMacroNode {
 			fail("Should be no errors when processing");
 		}
 	}
+
+	/**
+	 * Outputs of cacheable macros are reused until the settings of a node
+	 * in the macro change.
+	 */
+	@Test
+	public void testCacheableSettings() throws ProcessingException {
+		final MacroNode macro = new MacroNode();
+		final MathExpressionNode expression = new MathExpressionNode("2*x");
+		macro.getGraph().add(expression);
+		final InputField input = macro.publish("x", expression, expression.getInputFieldWithKey("x"));
+		final OutputField output = macro.publish("result", expression, expression.RESULT_OUTPUT_FIELD);
+		macro.setCacheable(true);
+
+		final OpGraph dag = new OpGraph();
+		dag.add(macro);
+
+		final ResultCache cache = new ResultCache();
+		for(int i = 0; i < 2; ++i) {
+			final OpContext context = new OpContext();
+			context.put(ResultCache.CONTEXT_KEY, cache);
+			context.getChildContext(macro).put(input, 2.0);
+			process(dag, context);
+			assertEquals(4.0, ((Number)context.findChildContext(macro).get(output)).doubleValue(), 1e-10);
+		}
+		assertEquals(1, cache.getHitCount());
+
+		expression.setExpression("3*x");
+		final OpContext context = new OpContext();
+		context.put(ResultCache.CONTEXT_KEY, cache);
+		context.getChildContext(macro).put(input, 2.0);
+		process(dag, context);
+		assertEquals(6.0, ((Number)context.findChildContext(macro).get(output)).doubleValue(), 1e-10);
+	}
+
+	/**
+	 * Macros operate nodes which no published output depends on unless
+	 * pruning is enabled.
+	 */
+	@Test
+	public void testPruneUnusedNodes() throws ProcessingException {
+		final MacroNode macro = new MacroNode();
+		final CountingNode used = new CountingNode();
+		final CountingNode unused = new CountingNode();
+		macro.getGraph().add(used);
+		macro.getGraph().add(unused);
+		final OutputField output = macro.publish("count", used, CountingNode.COUNT_FIELD);
+
+		final OpGraph dag = new OpGraph();
+		dag.add(macro);
+		assertFalse(macro.isPruneUnusedNodes());
+		assertEquals(Collections.singletonList(unused), macro.getPrunedNodes());
+
+		process(dag, null);
+		assertEquals(1, used.count);
+		assertEquals(1, unused.count);
+
+		macro.setPruneUnusedNodes(true);
+		final OpContext context = process(dag, null);
+		assertEquals(2, used.count);
+		assertEquals(1, unused.count);
+		assertEquals(2, context.findChildContext(macro).get(output));
+	}
+
+	static class CountingNode extends OpNode {
+		public final static OutputField COUNT_FIELD = new OutputField("count", "", true, Integer.class);
+
+		int count = 0;
+
+		public CountingNode() {
+			super("Counting", "Counts operations");
+			putField(COUNT_FIELD);
+		}
+
+		@Override
+		public void operate(OpContext context) {
+			context.put(COUNT_FIELD, ++count);
+		}
+	}
+
+	/**
+	 * Linked macros get private copies of their graph by default. When read
+	 * with a graph cache, linked macros from the same document share a single
+	 * graph, and are still operated independently.
+	 */
+	@Test
+	public void testSharedLinkedGraph() throws IOException, ProcessingException {
+		final OpGraph linked = new OpGraph();
+		linked.setId("root");
+		final MathExpressionNode expression = new MathExpressionNode("2*x");
+		linked.add(expression);
+
+		final Path file = Files.createTempFile("macro", ".xml");
+		try {
+			final XMLSerializerFactory serializerFactory = new XMLSerializerFactory();
+			try(OutputStream out = Files.newOutputStream(file)) {
+				serializerFactory.write(linked, out);
+			}
+
+			final OpGraph dag = new OpGraph();
+			dag.setId("root");
+			final MacroNode[] macros = new MacroNode[2];
+			for(int i = 0; i < macros.length; ++i) {
+				macros[i] = new MacroNode(linked);
+				macros[i].setGraphURI(file.toUri());
+				macros[i].setGraphEmbedded(false);
+				dag.add(macros[i]);
+				macros[i].publish("x", expression, expression.getInputFieldWithKey("x"));
+				macros[i].publish("result", expression, expression.RESULT_OUTPUT_FIELD);
+			}
+
+			final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			serializerFactory.write(dag, bout);
+
+			final OpGraph copiedDag = serializerFactory.read(new ByteArrayInputStream(bout.toByteArray()));
+			final MacroNode firstCopy = (MacroNode)copiedDag.getNodeById(macros[0].getId(), false);
+			final MacroNode secondCopy = (MacroNode)copiedDag.getNodeById(macros[1].getId(), false);
+			assertFalse(firstCopy.isGraphShared());
+			assertNotSame(firstCopy.getGraph(), secondCopy.getGraph());
+			firstCopy.getGraph().remove(firstCopy.getGraph().getVertices().get(0));
+			assertTrue(firstCopy.getPublishedOutputs().isEmpty());
+			assertEquals(1, secondCopy.getPublishedOutputs().size());
+
+			serializerFactory.putExtension(MacroNodeCache.class, new MacroNodeCache());
+			final OpGraph readDag = serializerFactory.read(new ByteArrayInputStream(bout.toByteArray()));
+
+			final MacroNode first = (MacroNode)readDag.getNodeById(macros[0].getId(), false);
+			final MacroNode second = (MacroNode)readDag.getNodeById(macros[1].getId(), false);
+			assertTrue(first.isGraphShared());
+			assertTrue(second.isGraphShared());
+			assertSame(first.getGraph(), second.getGraph());
+
+			final OpContext context = new OpContext();
+			context.getChildContext(first).put(first.getInputFieldWithKey("x"), 1.0);
+			context.getChildContext(second).put(second.getInputFieldWithKey("x"), 3.0);
+			process(readDag, context);
+			assertEquals(2.0, ((Number)context.findChildContext(first).get(first.getOutputFieldWithKey("result"))).doubleValue(), 1e-10);
+			assertEquals(6.0, ((Number)context.findChildContext(second).get(second.getOutputFieldWithKey("result"))).doubleValue(), 1e-10);
+		} finally {
+			Files.delete(file);
+		}
+	}
 }
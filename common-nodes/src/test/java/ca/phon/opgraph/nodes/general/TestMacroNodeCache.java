@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2012-2020 Gregory Hedlund <https://www.phon.ca>
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.opgraph.nodes.general;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.junit.*;
+
+import ca.phon.opgraph.*;
+
+/**
+ * Tests {@link MacroNodeCache}.
+ */
+public class TestMacroNodeCache {
+
+	/**
+	 * Cache which creates empty graphs and counts loads.
+	 */
+	static class CountingCache extends MacroNodeCache {
+		final AtomicInteger loadCount = new AtomicInteger();
+
+		volatile CountDownLatch loadLatch;
+
+		CountingCache(int maxEntries) {
+			super(maxEntries);
+		}
+
+		@Override
+		protected OpGraph loadGraph(URI graphURI) throws IOException {
+			loadCount.incrementAndGet();
+			if(loadLatch != null) {
+				try {
+					loadLatch.await();
+				} catch(InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+			}
+			if(graphURI.getPath().endsWith("missing"))
+				throw new FileNotFoundException(graphURI.toString());
+
+			final OpGraph graph = new OpGraph();
+			graph.setId(graphURI.toString());
+			return graph;
+		}
+	}
+
+	@Test
+	public void testLruWithSoftFallback() throws IOException {
+		final CountingCache cache = new CountingCache(1);
+		final URI a = URI.create("file:/a");
+		final URI b = URI.create("file:/b");
+
+		final OpGraph graphA = cache.getGraph(a);
+		assertSame(graphA, cache.getGraph(a));
+		assertNotNull(cache.getGraph(b));
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+
+		// graphA is still strongly reachable, so the soft reference is intact
+		assertSame(graphA, cache.getGraph(a));
+		assertEquals(2, cache.loadCount.get());
+		assertEquals(2, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+
+		cache.invalidate(a);
+		assertNotSame(graphA, cache.getGraph(a));
+		assertEquals(3, cache.loadCount.get());
+	}
+
+	@Test
+	public void testSingleFlight() throws Exception {
+		final CountingCache cache = new CountingCache(4);
+		cache.loadLatch = new CountDownLatch(1);
+		final URI uri = URI.create("file:/shared");
+
+		final int threads = 4;
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final List<Future<OpGraph>> results = new ArrayList<>();
+			for(int i = 0; i < threads; ++i)
+				results.add(executor.submit(() -> cache.getGraph(uri)));
+
+			// let all requests start before the load completes
+			while(cache.getMissCount() < threads)
+				Thread.sleep(1);
+			cache.loadLatch.countDown();
+
+			final OpGraph graph = results.get(0).get(10, TimeUnit.SECONDS);
+			for(Future<OpGraph> result : results)
+				assertSame(graph, result.get(10, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(1, cache.loadCount.get());
+	}
+
+	@Test
+	public void testPreload() throws IOException {
+		final Path manifest = Files.createTempFile("macros", ".txt");
+		try {
+			Files.write(manifest, Arrays.asList("# shared macros", "file:/a", "", "file:/missing", "file:/b"));
+
+			final CountingCache cache = new CountingCache(4);
+			try {
+				cache.preload(manifest.toUri().toURL());
+				fail("Missing graph should be reported");
+			} catch(FileNotFoundException e) {
+				// expected
+			}
+			assertEquals(2, cache.size());
+			assertEquals(1, cache.getLoadFailureCount());
+
+			cache.getGraph(URI.create("file:/b"));
+			assertEquals(1, cache.getHitCount());
+		} finally {
+			Files.delete(manifest);
+		}
+	}
+
+}
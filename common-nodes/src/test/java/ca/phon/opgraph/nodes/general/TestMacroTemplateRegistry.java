@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2012-2020 Gregory Hedlund <https://www.phon.ca>
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.opgraph.nodes.general;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.file.*;
+
+import org.junit.*;
+
+import ca.phon.opgraph.*;
+import ca.phon.opgraph.io.xml.*;
+import ca.phon.opgraph.nodes.math.*;
+
+/**
+ * Tests {@link MacroTemplateRegistry}.
+ */
+public class TestMacroTemplateRegistry {
+
+	@Test
+	public void testNewGraph() throws IOException {
+		final OpGraph graph = new OpGraph();
+		graph.setId("root");
+		final MathExpressionNode expression = new MathExpressionNode("2*x");
+		graph.add(expression);
+
+		final Path file = Files.createTempFile("macro", ".xml");
+		try {
+			try(OutputStream out = Files.newOutputStream(file)) {
+				new XMLSerializerFactory().write(graph, out);
+			}
+
+			final MacroTemplateRegistry registry = new MacroTemplateRegistry();
+			final OpGraph first = registry.newGraph(file.toUri().toURL());
+			final OpGraph second = registry.newGraph(file.toUri().toURL());
+			assertEquals(1, registry.size());
+
+			// independent copies with the same structure
+			assertNotSame(first, second);
+			final MathExpressionNode firstNode = (MathExpressionNode)first.getNodeById(expression.getId(), false);
+			final MathExpressionNode secondNode = (MathExpressionNode)second.getNodeById(expression.getId(), false);
+			assertNotNull(firstNode);
+			assertNotNull(secondNode);
+			assertNotSame(firstNode, secondNode);
+			assertEquals("2*x", secondNode.getExpression());
+
+			firstNode.setExpression("3*x");
+			assertEquals("2*x", secondNode.getExpression());
+			assertEquals("2*x", ((MathExpressionNode)registry.newGraph(file.toUri().toURL())
+					.getNodeById(expression.getId(), false)).getExpression());
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2012-2020 Gregory Hedlund <https://www.phon.ca>
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.opgraph.nodes.iteration;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+import ca.phon.opgraph.*;
+import ca.phon.opgraph.nodes.general.*;
+
+/**
+ * Tests {@link ForEachNode}.
+ */
+public class TestForEachNode {
+	static class SquareNode extends OpNode {
+		public final static InputField X_FIELD = new InputField("x", "", false, true, Double.class);
+		public final static OutputField RESULT_FIELD = new OutputField("result", "", true, Double.class);
+
+		public SquareNode() {
+			super("Square", "Computes x*x");
+			putField(X_FIELD);
+			putField(RESULT_FIELD);
+		}
+
+		@Override
+		public void operate(OpContext context) {
+			final Double x = (Double)context.get(X_FIELD);
+			context.put(RESULT_FIELD, (x == null ? null : x * x));
+		}
+	}
+
+	/**
+	 * Results of each iteration are collected in order.
+	 */
+	@Test
+	public void testResults() {
+		final SquareNode square = new SquareNode();
+		final ForEachNode forEach = new ForEachNode();
+		forEach.getGraph().add(square);
+		final InputField input = forEach.publish("x", square, SquareNode.X_FIELD);
+		final OutputField output = forEach.publish("result", square, SquareNode.RESULT_FIELD);
+
+		final int size = 10000;
+		final List<Double> values = new ArrayList<>();
+		for(int i = 0; i < size; ++i)
+			values.add((double)i);
+
+		final OpContext context = new OpContext();
+		context.put(input, values);
+		forEach.operate(context);
+
+		final List<?> results = (List<?>)context.get(output);
+		assertTrue(results instanceof ResultAccumulator.DoubleList);
+		assertEquals(size, results.size());
+		for(int i = 0; i < size; ++i)
+			assertEquals((double)i * i, (Double)results.get(i), 1e-10);
+		assertEquals(size, context.get(ForEachNode.MAX_ITERATIONS_KEY));
+	}
+
+	/**
+	 * Parallel iterations produce the same outputs, in the same order,
+	 * as serial iterations.
+	 */
+	@Test
+	public void testParallel() {
+		final SquareNode square = new SquareNode();
+		final CurrentIterationNode current = new CurrentIterationNode();
+		final ForEachNode forEach = new ForEachNode();
+		forEach.getGraph().add(square);
+		forEach.getGraph().add(current);
+		final InputField input = forEach.publish("x", square, SquareNode.X_FIELD);
+		final OutputField output = forEach.publish("result", square, SquareNode.RESULT_FIELD);
+		final OutputField iterations = forEach.publish("iteration", current, current.getOutputFieldWithKey("value"));
+
+		final int size = 1000;
+		final List<Double> values = new ArrayList<>();
+		for(int i = 0; i < size; ++i)
+			values.add((double)i);
+
+		final OpContext serialContext = new OpContext();
+		serialContext.put(input, values);
+		forEach.operate(serialContext);
+
+		forEach.setParallel(true);
+		forEach.setChunkSize(7);
+		forEach.setMaxParallelism(4);
+
+		final OpContext context = new OpContext();
+		context.put(input, values);
+		forEach.operate(context);
+
+		assertEquals(serialContext.get(output), context.get(output));
+		assertEquals(serialContext.get(iterations), context.get(iterations));
+		assertEquals(size - 1, context.get(ForEachNode.CURRENT_ITERATION_KEY));
+		assertEquals(size, ((List<?>)context.get(iterations)).size());
+	}
+
+	/**
+	 * Batched iterations produce the same outputs as serial iterations and
+	 * nodes supporting batches are dispatched once per block.
+	 */
+	@Test
+	public void testBatch() {
+		final SquareNode square = new SquareNode();
+		final CountingPassNode pass = new CountingPassNode();
+		final CurrentIterationNode current = new CurrentIterationNode();
+		final ForEachNode forEach = new ForEachNode();
+		forEach.getGraph().add(square);
+		forEach.getGraph().add(pass);
+		forEach.getGraph().add(current);
+		assertNotNull(forEach.getGraph().connect(square, SquareNode.RESULT_FIELD, pass, PassThroughNode.INPUT));
+		final InputField input = forEach.publish("x", square, SquareNode.X_FIELD);
+		final OutputField output = forEach.publish("result", pass, PassThroughNode.OUTPUT);
+		final OutputField iterations = forEach.publish("iteration", current, current.getOutputFieldWithKey("value"));
+
+		final int size = 1000;
+		final List<Double> values = new ArrayList<>();
+		for(int i = 0; i < size; ++i)
+			values.add((double)i);
+
+		final OpContext serialContext = new OpContext();
+		serialContext.put(input, values);
+		forEach.operate(serialContext);
+		assertEquals(size, pass.count);
+
+		pass.count = 0;
+		forEach.setBatchSize(64);
+		final OpContext context = new OpContext();
+		context.put(input, values);
+		forEach.operate(context);
+
+		assertEquals(16, pass.count);
+		assertEquals(serialContext.get(output), context.get(output));
+		assertEquals(serialContext.get(iterations), context.get(iterations));
+	}
+
+	static class CountingPassNode extends PassThroughNode {
+		int count = 0;
+
+		@Override
+		public void operate(OpContext context) {
+			++count;
+			super.operate(context);
+		}
+	}
+
+	/**
+	 * A break node stops iterating after the iteration it breaks in, and
+	 * the limit input caps the number of iterations, in all modes. Serial
+	 * and batched modes operate no node for iterations after the break.
+	 */
+	@Test
+	public void testBreakAndLimit() {
+		final SquareNode square = new SquareNode();
+		final AtLeastNode atLeast = new AtLeastNode(100.0);
+		final BreakNode breakNode = new BreakNode();
+		final CountingPassNode pass = new CountingPassNode();
+		final ForEachNode forEach = new ForEachNode();
+		forEach.getGraph().add(square);
+		forEach.getGraph().add(atLeast);
+		forEach.getGraph().add(breakNode);
+		forEach.getGraph().add(pass);
+		assertNotNull(forEach.getGraph().connect(square, SquareNode.RESULT_FIELD, atLeast, AtLeastNode.X_FIELD));
+		assertNotNull(forEach.getGraph().connect(atLeast, AtLeastNode.RESULT_FIELD, breakNode, BreakNode.CONDITION_INPUT));
+		assertNotNull(forEach.getGraph().connect(square, SquareNode.RESULT_FIELD, pass, PassThroughNode.INPUT));
+		final InputField input = forEach.publish("x", square, SquareNode.X_FIELD);
+		final OutputField output = forEach.publish("result", square, SquareNode.RESULT_FIELD);
+		forEach.publish("passed", pass, PassThroughNode.OUTPUT);
+
+		final List<Double> values = new ArrayList<>();
+		for(int i = 0; i < 1000; ++i)
+			values.add((double)i);
+
+		for(int mode = 0; mode < 3; ++mode) {
+			forEach.setParallel(mode == 1);
+			forEach.setChunkSize(mode == 1 ? 3 : 0);
+			forEach.setBatchSize(mode == 2 ? 8 : 0);
+
+			pass.count = 0;
+			final OpContext context = new OpContext();
+			context.put(input, values);
+			forEach.operate(context);
+			if(mode != 1)
+				assertEquals(11, pass.count);
+			assertEquals(11, ((List<?>)context.get(output)).size());
+			assertEquals(100.0, (Double)((List<?>)context.get(output)).get(10), 1e-10);
+			assertEquals(10, context.get(ForEachNode.CURRENT_ITERATION_KEY));
+
+			final OpContext limitContext = new OpContext();
+			limitContext.put(input, values);
+			limitContext.put(ForEachNode.LIMIT_INPUT, 5);
+			forEach.operate(limitContext);
+			assertEquals(5, ((List<?>)limitContext.get(output)).size());
+		}
+	}
+
+	static class AtLeastNode extends OpNode {
+		public final static InputField X_FIELD = new InputField("x", "", false, true, Double.class);
+		public final static OutputField RESULT_FIELD = new OutputField("result", "", true, Boolean.class);
+
+		private final double threshold;
+
+		public AtLeastNode(double threshold) {
+			this.threshold = threshold;
+			putField(X_FIELD);
+			putField(RESULT_FIELD);
+		}
+
+		@Override
+		public void operate(OpContext context) {
+			context.put(RESULT_FIELD, (Double)context.get(X_FIELD) >= threshold);
+		}
+	}
+
+	/**
+	 * Results which do not match the declared type move results to
+	 * a generic list.
+	 */
+	@Test
+	public void testMixedResults() {
+		final OutputField field = new OutputField("result", "", true, Double.class);
+		final ResultAccumulator accumulator = new ResultAccumulator(2);
+		final List<Object> first = accumulator.append(field, Double.class, 1.0);
+		assertSame(first, accumulator.append(field, Double.class, 2.0));
+
+		final List<Object> results = accumulator.append(field, Double.class, null);
+		assertNotSame(first, results);
+		assertEquals(Arrays.asList(1.0, 2.0, null), results);
+		assertSame(results, accumulator.getResults(field));
+	}
+}
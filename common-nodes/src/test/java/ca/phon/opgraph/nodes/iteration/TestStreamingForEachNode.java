@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2012-2020 Gregory Hedlund <https://www.phon.ca>
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.opgraph.nodes.iteration;
+
+import static org.junit.Assert.*;
+
+import java.lang.ref.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+import org.junit.*;
+
+import ca.phon.opgraph.*;
+import ca.phon.opgraph.nodes.iteration.TestForEachNode.*;
+
+/**
+ * Tests {@link StreamingForEachNode}.
+ */
+public class TestStreamingForEachNode {
+
+	private StreamingForEachNode forEach;
+
+	private SquareNode square;
+
+	private InputField input;
+
+	private OutputField output;
+
+	@Before
+	public void setUp() {
+		square = new SquareNode();
+		forEach = new StreamingForEachNode();
+		forEach.getGraph().add(square);
+		input = forEach.publish("x", square, SquareNode.X_FIELD);
+		output = forEach.publish("result", square, SquareNode.RESULT_FIELD);
+	}
+
+	/**
+	 * Stream inputs are consumed and closed, and results collected.
+	 */
+	@Test
+	public void testCollect() {
+		final AtomicBoolean closed = new AtomicBoolean();
+		final Stream<Double> values = IntStream.range(0, 1000).mapToObj(i -> (double)i).onClose(() -> closed.set(true));
+
+		final OpContext context = new OpContext();
+		context.put(input, values);
+		forEach.operate(context);
+
+		final List<?> results = (List<?>)context.get(output);
+		assertEquals(1000, results.size());
+		for(int i = 0; i < results.size(); ++i)
+			assertEquals((double)i * i, (Double)results.get(i), 1e-10);
+		assertEquals(1000, context.get(ForEachNode.MAX_ITERATIONS_KEY));
+		assertTrue(closed.get());
+	}
+
+	/**
+	 * Streamed outputs only pull input elements as they are advanced.
+	 */
+	@Test
+	public void testStreamOutputs() {
+		forEach.setStreamOutputs(true);
+		assertEquals(Iterator.class, output.getOutputType());
+
+		final AtomicInteger pulled = new AtomicInteger();
+		final Iterator<Double> values = IntStream.range(0, 1000).mapToObj(i -> (double)i).peek(v -> pulled.incrementAndGet()).iterator();
+
+		final OpContext context = new OpContext();
+		context.put(input, values);
+		forEach.operate(context);
+		assertEquals(0, pulled.get());
+
+		final Iterator<?> results = (Iterator<?>)context.get(output);
+		for(int i = 0; i < 1000; ++i) {
+			assertTrue(results.hasNext());
+			assertEquals((double)i * i, (Double)results.next(), 1e-10);
+			assertEquals(i + 1, pulled.get());
+		}
+		assertFalse(results.hasNext());
+	}
+
+	/**
+	 * A break node ends iteration over an unbounded stream.
+	 */
+	@Test
+	public void testBreak() {
+		final AtLeastNode atLeast = new AtLeastNode(100.0);
+		final BreakNode breakNode = new BreakNode();
+		forEach.getGraph().add(atLeast);
+		forEach.getGraph().add(breakNode);
+		assertNotNull(forEach.getGraph().connect(square, SquareNode.RESULT_FIELD, atLeast, AtLeastNode.X_FIELD));
+		assertNotNull(forEach.getGraph().connect(atLeast, AtLeastNode.RESULT_FIELD, breakNode, BreakNode.CONDITION_INPUT));
+
+		final OpContext context = new OpContext();
+		context.put(input, Stream.iterate(0.0, x -> x + 1.0));
+		forEach.operate(context);
+		assertEquals(11, ((List<?>)context.get(output)).size());
+
+		forEach.setStreamOutputs(true);
+		final OpContext streamContext = new OpContext();
+		streamContext.put(input, Stream.iterate(0.0, x -> x + 1.0));
+		streamContext.put(ForEachNode.LIMIT_INPUT, 3);
+		forEach.operate(streamContext);
+		final Iterator<?> results = (Iterator<?>)streamContext.get(output);
+		int count = 0;
+		for(; results.hasNext(); results.next())
+			++count;
+		assertEquals(3, count);
+	}
+
+	/**
+	 * Closing a partially consumed streamed output closes the inputs and
+	 * stops pulling elements.
+	 */
+	@Test
+	public void testCloseStreamOutputs() throws Exception {
+		forEach.setStreamOutputs(true);
+
+		final AtomicBoolean closed = new AtomicBoolean();
+		final AtomicInteger pulled = new AtomicInteger();
+		final Stream<Double> values = Stream.iterate(0.0, x -> x + 1.0).peek(v -> pulled.incrementAndGet()).onClose(() -> closed.set(true));
+
+		final OpContext context = new OpContext();
+		context.put(input, values);
+		forEach.operate(context);
+
+		final Iterator<?> results = (Iterator<?>)context.get(output);
+		assertEquals(0.0, (Double)results.next(), 1e-10);
+		assertEquals(1.0, (Double)results.next(), 1e-10);
+		assertFalse(closed.get());
+
+		((AutoCloseable)results).close();
+		assertTrue(closed.get());
+		assertFalse(results.hasNext());
+		assertEquals(2, pulled.get());
+	}
+
+	/**
+	 * The cleaner action for streamed outputs closes closeable inputs
+	 * exactly once.
+	 */
+	@Test
+	public void testInputCloser() {
+		final CountingCloseIterator closeable = new CountingCloseIterator();
+		final StreamingForEachNode.InputCloser closer = new StreamingForEachNode.InputCloser(
+				new Iterator<?>[] { Collections.emptyIterator(), closeable });
+		closer.run();
+		closer.run();
+		assertEquals(1, closeable.closeCount);
+	}
+
+	/**
+	 * Partially consumed streamed outputs which are dropped without being
+	 * closed are not kept reachable by the node, and their inputs are
+	 * closed by the cleaner. Collection is not guaranteed, so the test is
+	 * skipped rather than failed if the outputs are not collected after a
+	 * few attempts.
+	 */
+	@Test
+	public void testAbandonedStreamOutputs() throws InterruptedException {
+		forEach.setStreamOutputs(true);
+
+		final AtomicBoolean closed = new AtomicBoolean();
+		final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+		final Reference<?> ref = consumeFirst(Stream.iterate(0.0, x -> x + 1.0).onClose(() -> closed.set(true)), queue);
+
+		boolean collected = false;
+		for(int i = 0; i < 20 && !collected; ++i) {
+			System.gc();
+			collected = (queue.remove(100) == ref);
+		}
+		Assume.assumeTrue(collected);
+
+		for(int i = 0; i < 20 && !closed.get(); ++i) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		Assume.assumeTrue(closed.get());
+	}
+
+	private Reference<?> consumeFirst(Stream<Double> values, ReferenceQueue<Object> queue) {
+		final OpContext context = new OpContext();
+		context.put(input, values);
+		forEach.operate(context);
+
+		final Iterator<?> results = (Iterator<?>)context.get(output);
+		assertEquals(0.0, (Double)results.next(), 1e-10);
+		return new PhantomReference<>(results, queue);
+	}
+
+	private static class CountingCloseIterator implements Iterator<Object>, AutoCloseable {
+		int closeCount = 0;
+
+		@Override
+		public boolean hasNext() {
+			return false;
+		}
+
+		@Override
+		public Object next() {
+			throw new NoSuchElementException();
+		}
+
+		@Override
+		public void close() {
+			++closeCount;
+		}
+	}
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2012-2020 Gregory Hedlund <https://www.phon.ca>
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.opgraph.nodes.reflect;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+
+import ca.phon.opgraph.*;
+import ca.phon.opgraph.nodes.iteration.*;
+
+/**
+ * Tests {@link IterableClassNode}.
+ */
+public class TestIterableClassNode {
+
+	/**
+	 * Processing elements in parallel gives the outputs of the last
+	 * element, as serial processing does.
+	 */
+	@Test
+	public void testSideEffectFree() {
+		final IterableClassNode node = new IterableClassNode(ArrayList.class);
+		final OpNode valueNode = node.getGraph().getVertices().get(0);
+		OutputField valueField = null;
+		for(OutputField field : valueNode.getOutputFields()) {
+			if(field != OpNode.COMPLETED_FIELD)
+				valueField = field;
+		}
+		final OutputField output = node.publish("value", valueNode, valueField);
+
+		final List<Integer> values = new ArrayList<>();
+		for(int i = 0; i < 10000; ++i)
+			values.add(i);
+
+		final OpContext serialContext = new OpContext();
+		serialContext.put(node.getInputFieldWithKey("collection"), values);
+		node.operate(serialContext);
+		assertEquals(9999, serialContext.get(output));
+
+		node.setSideEffectFree(true);
+		final OpContext context = new OpContext();
+		context.put(node.getInputFieldWithKey("collection"), values);
+		node.operate(context);
+		assertEquals(9999, context.get(output));
+		assertEquals(9999, context.get(IterableClassNode.CURRENT_VALUE_KEY));
+	}
+
+	/**
+	 * A break node stops iterating in side-effect-free graphs, as it does
+	 * when processing serially.
+	 */
+	@Test
+	public void testSideEffectFreeBreak() {
+		final IterableClassNode node = new IterableClassNode(ArrayList.class);
+		final OpNode valueNode = node.getGraph().getVertices().get(0);
+		OutputField valueField = null;
+		for(OutputField field : valueNode.getOutputFields()) {
+			if(field != OpNode.COMPLETED_FIELD)
+				valueField = field;
+		}
+		final AtLeastNode atLeast = new AtLeastNode(100);
+		final BreakNode breakNode = new BreakNode();
+		node.getGraph().add(atLeast);
+		node.getGraph().add(breakNode);
+		assertNotNull(node.getGraph().connect(valueNode, valueField, atLeast, AtLeastNode.X_FIELD));
+		assertNotNull(node.getGraph().connect(atLeast, AtLeastNode.RESULT_FIELD, breakNode, BreakNode.CONDITION_INPUT));
+		final OutputField output = node.publish("value", valueNode, valueField);
+		node.setSideEffectFree(true);
+
+		final List<Integer> values = new ArrayList<>();
+		for(int i = 0; i < 10000; ++i)
+			values.add(i);
+
+		final OpContext context = new OpContext();
+		context.put(node.getInputFieldWithKey("collection"), values);
+		node.operate(context);
+		assertEquals(100, context.get(output));
+		assertEquals(100, context.get(IterableClassNode.CURRENT_VALUE_KEY));
+	}
+
+	static class AtLeastNode extends OpNode {
+		public final static InputField X_FIELD = new InputField("x", "", false, true, Number.class);
+		public final static OutputField RESULT_FIELD = new OutputField("result", "", true, Boolean.class);
+
+		private final int threshold;
+
+		public AtLeastNode(int threshold) {
+			this.threshold = threshold;
+			putField(X_FIELD);
+			putField(RESULT_FIELD);
+		}
+
+		@Override
+		public void operate(OpContext context) {
+			context.put(RESULT_FIELD, ((Number)context.get(X_FIELD)).intValue() >= threshold);
+		}
+	}
+
+	/**
+	 * Elements are processed serially when a node of a side-effect-free
+	 * graph reports side effects.
+	 */
+	@Test
+	public void testSideEffectsProcessedSerially() {
+		final IterableClassNode node = new IterableClassNode(ArrayList.class);
+		final ThreadRecordingNode recorder = new ThreadRecordingNode();
+		node.getGraph().add(recorder);
+		node.setSideEffectFree(true);
+
+		final List<Integer> values = new ArrayList<>();
+		for(int i = 0; i < 10000; ++i)
+			values.add(i);
+
+		final OpContext context = new OpContext();
+		context.put(node.getInputFieldWithKey("collection"), values);
+		node.operate(context);
+		assertEquals(Collections.singleton(Thread.currentThread()), recorder.threads);
+	}
+
+	@SideEffects
+	static class ThreadRecordingNode extends OpNode {
+		public final static OutputField THREAD_FIELD = new OutputField("thread", "", true, Thread.class);
+
+		final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+		public ThreadRecordingNode() {
+			putField(THREAD_FIELD);
+		}
+
+		@Override
+		public void operate(OpContext context) {
+			threads.add(Thread.currentThread());
+			context.put(THREAD_FIELD, Thread.currentThread());
+		}
+	}
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2012-2020 Gregory Hedlund <https://www.phon.ca>
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.opgraph.nodes.reflect;
+
+import static org.junit.Assert.*;
+
+import java.awt.*;
+import java.util.*;
+
+import org.junit.*;
+
+import ca.phon.opgraph.*;
+import ca.phon.opgraph.exceptions.*;
+
+/**
+ * Tests {@link MemberInvoker} through the reflect nodes.
+ */
+public class TestMemberInvoker {
+
+	/** Class with primitive fields and arguments */
+	public static class Counter {
+		public int count;
+
+		public void add(int amount) {
+			count += amount;
+		}
+	}
+
+	@Test
+	public void testMethodNode() throws Exception {
+		final MethodNode node = new MethodNode(String.class.getMethod("substring", int.class, int.class));
+		final OpContext context = new OpContext();
+		context.put(node.getInputFieldWithKey("obj"), "opgraph");
+		context.put(node.getInputFieldWithKey("arg1"), 2);
+		context.put(node.getInputFieldWithKey("arg2"), 5);
+		node.operate(context);
+		assertEquals("gra", context.get(node.getOutputFieldWithKey("value")));
+
+		final StaticMethodNode staticNode = new StaticMethodNode(Integer.class.getMethod("parseInt", String.class));
+		final OpContext staticContext = new OpContext();
+		staticContext.put(staticNode.getInputFieldWithKey("arg1"), "42");
+		staticNode.operate(staticContext);
+		assertEquals(42, staticContext.get(staticNode.getOutputFieldWithKey("value")));
+	}
+
+	@Test(expected=ProcessingException.class)
+	public void testMethodNodeException() throws Exception {
+		final StaticMethodNode node = new StaticMethodNode(Integer.class.getMethod("parseInt", String.class));
+		final OpContext context = new OpContext();
+		context.put(node.getInputFieldWithKey("arg1"), "opgraph");
+		node.operate(context);
+	}
+
+	@Test
+	public void testPrimitives() throws Exception {
+		final Counter counter = new Counter();
+		final MethodNode node = new MethodNode(Counter.class.getMethod("add", int.class));
+		final OpContext context = new OpContext();
+		context.put(node.getInputFieldWithKey("obj"), counter);
+		context.put(node.getInputFieldWithKey("arg1"), 3);
+		node.operate(context);
+		node.operate(context);
+		assertEquals(6, counter.count);
+
+		final FieldNode fieldNode = new FieldNode(Counter.class.getField("count"));
+		final OpContext fieldContext = new OpContext();
+		fieldContext.put(fieldNode.getInputFieldWithKey("obj"), counter);
+		fieldNode.operate(fieldContext);
+		assertEquals(6, fieldContext.get(fieldNode.getOutputFieldWithKey("value")));
+	}
+
+	@Test
+	public void testConstructorNode() throws Exception {
+		final ConstructorNode node = new ConstructorNode(Point.class.getConstructor(int.class, int.class));
+		final OpContext context = new OpContext();
+		context.put(node.getInputFieldWithKey("arg1"), 1);
+		context.put(node.getInputFieldWithKey("arg2"), 2);
+		node.operate(context);
+		assertEquals(new Point(1, 2), context.get(node.getOutputFieldWithKey("value")));
+	}
+
+	@Test
+	public void testObjectNode() throws Exception {
+		final ObjectNode node = new ObjectNode(Date.class);
+		final Date date = new Date();
+		final OpContext context = new OpContext();
+		context.put(node.getInputFieldWithKey("obj"), date);
+		context.put(node.getInputFieldWithKey("time"), 1000L);
+		node.operate(context);
+		assertEquals(1000L, date.getTime());
+		assertEquals(1000L, context.get(node.getOutputFieldWithKey("time")));
+
+		// nodes for the same class share property invokers
+		final ObjectNode other = new ObjectNode(Date.class);
+		assertSame(((ObjectNodePropertyInputField)node.getInputFieldWithKey("time")).setter,
+				((ObjectNodePropertyInputField)other.getInputFieldWithKey("time")).setter);
+		assertNotSame(node.getInputFieldWithKey("time"), other.getInputFieldWithKey("time"));
+	}
+
+}
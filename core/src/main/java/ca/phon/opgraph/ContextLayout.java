@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2012-2020 Gregory Hedlund <https://www.phon.ca>
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.opgraph;
+
+import java.util.*;
+
+/**
+ * Assigns an integer slot to each of a set of {@link ContextualItem}s.
+ * An {@link OpContext} with a layout stores the values of these items
+ * in an array instead of its map, so that {@link OpContext#get(ContextualItem)}
+ * and {@link OpContext#put(ContextualItem, Object)} avoid a hash lookup.
+ *
+ * Layouts are created for each node when an {@link ExecutionPlan} is
+ * compiled and are installed by the {@link Processor} before the node
+ * is operated.
+ */
+public final class ContextLayout {
+
+	/** Items are located by identity when a layout has at most this many items */
+	private static final int MAX_SCAN_ITEMS = 16;
+
+	/** Items in this layout */
+	private final ContextualItem[] items;
+
+	/** Slot for each item in {@link #items} */
+	private final int[] itemSlots;
+
+	/** Key of each slot */
+	private final String[] keys;
+
+	/** Mapping of key to slot */
+	private final Map<String, Integer> slotIndices;
+
+	/**
+	 * Constructs a layout for the given items. Items with the same
+	 * key will share a slot.
+	 *
+	 * @param items  the items
+	 */
+	public ContextLayout(Collection<? extends ContextualItem> items) {
+		this.items = new ContextualItem[items.size()];
+		this.itemSlots = new int[items.size()];
+		this.slotIndices = new HashMap<>(items.size() * 2);
+
+		final List<String> keyList = new ArrayList<>(items.size());
+		int i = 0;
+		for(ContextualItem item : items) {
+			final String key = item.getKey();
+			Integer slot = slotIndices.get(key);
+			if(slot == null) {
+				slot = keyList.size();
+				keyList.add(key);
+				slotIndices.put(key, slot);
+			}
+			this.items[i] = item;
+			this.itemSlots[i] = slot;
+			++i;
+		}
+		this.keys = keyList.toArray(new String[keyList.size()]);
+	}
+
+	/**
+	 * Gets the number of slots in this layout.
+	 *
+	 * @return the number of slots
+	 */
+	public int size() {
+		return keys.length;
+	}
+
+	/**
+	 * Gets the key stored in a slot.
+	 *
+	 * @param slot  the slot
+	 *
+	 * @return the key
+	 */
+	public String getKey(int slot) {
+		return keys[slot];
+	}
+
+	/**
+	 * Gets the slot for a key.
+	 *
+	 * @param key  the key
+	 *
+	 * @return the slot, or -1 if the key has no slot in this layout
+	 */
+	public int getSlot(String key) {
+		final Integer slot = slotIndices.get(key);
+		return (slot == null ? -1 : slot);
+	}
+
+	/**
+	 * Gets the slot for an item. Items this layout was created with are
+	 * found by identity, other items by their key.
+	 *
+	 * @param item  the item
+	 *
+	 * @return the slot, or -1 if the item has no slot in this layout
+	 */
+	public int getSlot(ContextualItem item) {
+		final String key = item.getKey();
+		if(items.length <= MAX_SCAN_ITEMS) {
+			for(int i = 0; i < items.length; ++i) {
+				if(items[i] == item) {
+					final int slot = itemSlots[i];
+					// key may have been changed since the layout was created
+					if(Objects.equals(keys[slot], key))
+						return slot;
+					break;
+				}
+			}
+		}
+		return getSlot(key);
+	}
+
+}
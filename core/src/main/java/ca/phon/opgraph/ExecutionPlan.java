@@ -0,0 +1,430 @@
+/*
+ * Copyright (C) 2012-2020 Gregory Hedlund <https://www.phon.ca>
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.opgraph;
+
+import java.util.*;
+
+import ca.phon.opgraph.extensions.*;
+
+/**
+ * An immutable snapshot of the structure of an {@link OpGraph} used by
+ * {@link Processor} during execution. The plan holds the topological
+ * ordering of nodes along with, for each node, the incoming links
+ * resolved to the index of their source node and the set of outputs
+ * which are used by other nodes.
+ *
+ * Plans are obtained using {@link OpGraph#getExecutionPlan()} which
+ * will compile a new plan only when the version of the graph has
+ * changed.
+ */
+public final class ExecutionPlan {
+
+	/** The graph */
+	private final OpGraph graph;
+
+	/** Version of the graph when this plan was compiled */
+	private final long version;
+
+	/** Nodes in processing order */
+	private final OpNode[] nodes;
+
+	/** Plans for each node, in processing order */
+	private final NodePlan[] nodePlans;
+
+	/** Mapping of node to plan */
+	private final Map<OpNode, NodePlan> nodePlanMap;
+
+	/**
+	 * Compiles a new execution plan for the given graph.
+	 *
+	 * @param graph  the graph
+	 *
+	 * @return the execution plan
+	 */
+	public static ExecutionPlan compile(OpGraph graph) {
+		return new ExecutionPlan(graph);
+	}
+
+	private ExecutionPlan(OpGraph graph) {
+		this.graph = graph;
+		this.version = graph.getVersion();
+
+		final List<OpNode> vertices = graph.getVertices();
+		this.nodes = vertices.toArray(new OpNode[vertices.size()]);
+		this.nodePlans = new NodePlan[nodes.length];
+		this.nodePlanMap = new IdentityHashMap<>(nodes.length * 2);
+		for(int i = 0; i < nodes.length; ++i) {
+			nodePlans[i] = new NodePlan(nodes[i], i);
+			nodePlanMap.put(nodes[i], nodePlans[i]);
+		}
+
+		final Map<OpNode, List<OpLink>> outgoingLinks = new IdentityHashMap<>();
+		for(NodePlan nodePlan:nodePlans) {
+			final Set<OpLink> incomingEdges = graph.getIncomingEdges(nodePlan.node);
+			final List<InputLink> inputLinks = new ArrayList<>(incomingEdges.size());
+			for(OpLink link:incomingEdges) {
+				final NodePlan sourcePlan = nodePlanMap.get(link.getSource());
+				if(sourcePlan == null) continue;
+				inputLinks.add(new InputLink(link, sourcePlan.index));
+				outgoingLinks.computeIfAbsent(link.getSource(), (k) -> new ArrayList<>()).add(link);
+			}
+			nodePlan.inputLinks = inputLinks.toArray(new InputLink[inputLinks.size()]);
+
+			final List<InputField> inputFields = nodePlan.node.getInputFields();
+			nodePlan.inputFields = inputFields.toArray(new InputField[inputFields.size()]);
+			nodePlan.fieldLinks = new InputLink[nodePlan.inputFields.length];
+			for(int i = 0; i < nodePlan.inputFields.length; ++i) {
+				for(InputLink inputLink:nodePlan.inputLinks) {
+					if(inputLink.destinationField == nodePlan.inputFields[i]) {
+						nodePlan.fieldLinks[i] = inputLink;
+						break;
+					}
+				}
+			}
+
+			final List<ContextualItem> contextItems = new ArrayList<>(inputFields);
+			contextItems.addAll(nodePlan.node.getOutputFields());
+			contextItems.add(Processor.STEP_INTO_FLAG);
+			nodePlan.contextLayout = new ContextLayout(contextItems);
+		}
+
+		for(NodePlan nodePlan:nodePlans) {
+			final Set<OutputField> activeOutputs = new HashSet<>();
+			for(OpLink link:outgoingLinks.getOrDefault(nodePlan.node, Collections.emptyList()))
+				activeOutputs.add(link.getSourceField());
+			nodePlan.activeOutputs = Collections.unmodifiableSet(activeOutputs);
+		}
+	}
+
+	/**
+	 * Finds the nodes which have to be operated for the given sink nodes
+	 * to produce their outputs. A node is live if it is a sink, if it has
+	 * side effects (see {@link #hasSideEffects(OpNode)}), or if an output
+	 * of it is linked to a live node.
+	 *
+	 * @param sinks  the nodes whose outputs are used
+	 *
+	 * @return whether each node is live, indexed by processing order
+	 */
+	public boolean[] findLiveNodes(Collection<OpNode> sinks) {
+		final boolean[] live = new boolean[nodePlans.length];
+
+		// Consumers come after their sources in processing order, so walking
+		// backwards visits every consumer of a node before the node itself
+		for(int i = nodePlans.length - 1; i >= 0; --i) {
+			final NodePlan nodePlan = nodePlans[i];
+			if(!live[i])
+				live[i] = sinks.contains(nodePlan.node) || hasSideEffects(nodePlan.node);
+
+			if(live[i]) {
+				for(InputLink link : nodePlan.inputLinks)
+					live[link.sourceIndex] = true;
+			}
+		}
+		return live;
+	}
+
+	/**
+	 * Gets whether operating a node may have effects beyond setting its
+	 * outputs. This is the case for nodes annotated with {@link SideEffects},
+	 * nodes without any outputs (other than {@link OpNode#COMPLETED_FIELD}),
+	 * and composite nodes containing such nodes.
+	 *
+	 * @param node  the node
+	 *
+	 * @return <code>true</code> if the node has side effects, <code>false</code> otherwise
+	 */
+	public static boolean hasSideEffects(OpNode node) {
+		if(node.getClass().isAnnotationPresent(SideEffects.class))
+			return true;
+
+		boolean hasOutputs = false;
+		for(OutputField field : node.getOutputFields())
+			hasOutputs |= (field != OpNode.COMPLETED_FIELD);
+		if(!hasOutputs)
+			return true;
+
+		final CompositeNode composite = node.getExtension(CompositeNode.class);
+		if(composite != null && composite.getGraph() != null) {
+			for(OpNode child : composite.getGraph().getVertices()) {
+				if(hasSideEffects(child))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the graph this plan was compiled from.
+	 *
+	 * @return the graph
+	 */
+	public OpGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * Gets the version of the graph this plan was compiled from.
+	 *
+	 * @return the graph version
+	 *
+	 * @see OpGraph#getVersion()
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Gets the number of nodes in this plan.
+	 *
+	 * @return number of nodes
+	 */
+	public int size() {
+		return nodes.length;
+	}
+
+	/**
+	 * Gets the nodes of the graph in processing order.
+	 *
+	 * @return an immutable list of nodes
+	 */
+	public List<OpNode> getNodes() {
+		return Collections.unmodifiableList(Arrays.asList(nodes));
+	}
+
+	/**
+	 * Gets the node at the given position in processing order.
+	 *
+	 * @param index  the index
+	 *
+	 * @return the node
+	 */
+	public OpNode getNode(int index) {
+		return nodes[index];
+	}
+
+	/**
+	 * Gets the plan for the node at the given position in processing order.
+	 *
+	 * @param index  the index
+	 *
+	 * @return the node plan
+	 */
+	public NodePlan getNodePlan(int index) {
+		return nodePlans[index];
+	}
+
+	/**
+	 * Gets the plan for the given node.
+	 *
+	 * @param node  the node
+	 *
+	 * @return the node plan, or <code>null</code> if the node was not part
+	 *         of the graph when this plan was compiled
+	 */
+	public NodePlan getNodePlan(OpNode node) {
+		return nodePlanMap.get(node);
+	}
+
+	/**
+	 * Execution information for a single node.
+	 */
+	public static final class NodePlan {
+
+		private final OpNode node;
+
+		private final int index;
+
+		private InputLink[] inputLinks;
+
+		private InputField[] inputFields;
+
+		private InputLink[] fieldLinks;
+
+		private Set<OutputField> activeOutputs;
+
+		private ContextLayout contextLayout;
+
+		private NodePlan(OpNode node, int index) {
+			this.node = node;
+			this.index = index;
+		}
+
+		/**
+		 * Gets the node.
+		 *
+		 * @return the node
+		 */
+		public OpNode getNode() {
+			return node;
+		}
+
+		/**
+		 * Gets the position of this node in processing order.
+		 *
+		 * @return the index
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * Gets the number of incoming links.
+		 *
+		 * @return number of incoming links
+		 */
+		public int getInputLinkCount() {
+			return inputLinks.length;
+		}
+
+		/**
+		 * Gets an incoming link.
+		 *
+		 * @param i  the link index
+		 *
+		 * @return the incoming link
+		 */
+		public InputLink getInputLink(int i) {
+			return inputLinks[i];
+		}
+
+		/**
+		 * Gets the number of input fields the node had when the plan
+		 * was compiled.
+		 *
+		 * @return number of input fields
+		 */
+		public int getInputFieldCount() {
+			return inputFields.length;
+		}
+
+		/**
+		 * Gets an input field.
+		 *
+		 * @param i  the field index
+		 *
+		 * @return the input field
+		 */
+		public InputField getInputField(int i) {
+			return inputFields[i];
+		}
+
+		/**
+		 * Gets the incoming link connected to an input field.
+		 *
+		 * @param i  the field index
+		 *
+		 * @return the link connected to the input field, or <code>null</code>
+		 *         if the field is not connected
+		 */
+		public InputLink getFieldLink(int i) {
+			return fieldLinks[i];
+		}
+
+		/**
+		 * Gets the outputs of the node which are linked to other nodes.
+		 *
+		 * @return an immutable set of active outputs
+		 */
+		public Set<OutputField> getActiveOutputs() {
+			return activeOutputs;
+		}
+
+		/**
+		 * Gets the slot layout for the node's context, which includes
+		 * all input and output fields of the node along with flags set
+		 * by the processor.
+		 *
+		 * @return the context layout
+		 */
+		public ContextLayout getContextLayout() {
+			return contextLayout;
+		}
+
+	}
+
+	/**
+	 * An incoming link resolved to the position of its source node.
+	 */
+	public static final class InputLink {
+
+		private final OpLink link;
+
+		private final int sourceIndex;
+
+		private final OpNode source;
+
+		private final OutputField sourceField;
+
+		private final InputField destinationField;
+
+		private InputLink(OpLink link, int sourceIndex) {
+			this.link = link;
+			this.sourceIndex = sourceIndex;
+			this.source = link.getSource();
+			this.sourceField = link.getSourceField();
+			this.destinationField = link.getDestinationField();
+		}
+
+		/**
+		 * Gets the link.
+		 *
+		 * @return the link
+		 */
+		public OpLink getLink() {
+			return link;
+		}
+
+		/**
+		 * Gets the position of the source node in processing order.
+		 *
+		 * @return source index
+		 */
+		public int getSourceIndex() {
+			return sourceIndex;
+		}
+
+		/**
+		 * Gets the source node.
+		 *
+		 * @return source node
+		 */
+		public OpNode getSource() {
+			return source;
+		}
+
+		/**
+		 * Gets the connected output field of the source node.
+		 *
+		 * @return source field
+		 */
+		public OutputField getSourceField() {
+			return sourceField;
+		}
+
+		/**
+		 * Gets the connected input field of the destination node.
+		 *
+		 * @return destination field
+		 */
+		public InputField getDestinationField() {
+			return destinationField;
+		}
+
+	}
+
+}
@@ -17,10 +17,16 @@
 package ca.phon.opgraph;
 
 import java.util.*;
+import java.util.function.*;
 
 /**
  * A working context for {@link OpGraph}s. A context can have a parent
  * from which it can find values.
+ *
+ * A context may be given a {@link ContextLayout}, in which case values for
+ * keys in the layout are stored in an array indexed by slot rather than
+ * in the map. The {@link Map} methods of this class include slot values
+ * so the storage used is not visible to callers.
  */
 public final class OpContext extends HashMap<String, Object> {
 	/** The parent context */
@@ -32,7 +38,19 @@ public final class OpContext extends HashMap<String, Object> {
 	private boolean debug = false;
 	
 	/** When executing a node, which outputs are actually used */
-	private Set<OutputField> activeOutputs = new HashSet<>();
+	private Set<OutputField> activeOutputs = Collections.emptySet();
+
+	/** Marker for slots without a value */
+	private static final Object NO_VALUE = new Object();
+
+	/** Layout for slot values, <code>null</code> if all values are stored in the map */
+	private ContextLayout layout;
+
+	/** Slot values, {@link #NO_VALUE} if a slot has no value */
+	private Object[] slotValues;
+
+	/** Number of slots which have a value */
+	private int slotValueCount;
 
 	/**
 	 * Constructs a global context (i.e., no parent context).
@@ -71,10 +89,104 @@ public final class OpContext extends HashMap<String, Object> {
 		this.debug = debug;
 	}
 
+	/**
+	 * Gets the slot layout of this context.
+	 *
+	 * @return the layout, or <code>null</code> if all values are stored
+	 *         in the map
+	 */
+	public ContextLayout getLayout() {
+		return layout;
+	}
+
+	/**
+	 * Sets the slot layout of this context. Existing values are moved
+	 * to their new location.
+	 *
+	 * @param layout  the layout, or <code>null</code> to store all values
+	 *                in the map
+	 */
+	public void setLayout(ContextLayout layout) {
+		if(layout == this.layout) return;
+
+		final ContextLayout oldLayout = this.layout;
+		final Object[] oldValues = this.slotValues;
+		this.layout = null;
+		this.slotValues = null;
+		this.slotValueCount = 0;
+
+		if(oldLayout != null) {
+			for(int i = 0; i < oldValues.length; ++i) {
+				if(oldValues[i] != NO_VALUE)
+					super.put(oldLayout.getKey(i), oldValues[i]);
+			}
+		}
+
+		if(layout != null) {
+			final Object[] values = new Object[layout.size()];
+			Arrays.fill(values, NO_VALUE);
+			for(int i = 0; i < values.length; ++i) {
+				final String key = layout.getKey(i);
+				if(super.containsKey(key)) {
+					values[i] = super.remove(key);
+					++slotValueCount;
+				}
+			}
+			this.slotValues = values;
+			this.layout = layout;
+		}
+	}
+
+	private int slotOf(Object key) {
+		return (layout != null && key instanceof String ? layout.getSlot((String)key) : -1);
+	}
+
+	private int slotOf(ContextualItem item) {
+		return (layout != null ? layout.getSlot(item) : -1);
+	}
+
+	private Object setSlotValue(int slot, Object value) {
+		final Object oldValue = slotValues[slot];
+		slotValues[slot] = value;
+		if(oldValue == NO_VALUE) {
+			++slotValueCount;
+			return null;
+		}
+		return oldValue;
+	}
+
+	private Object clearSlotValue(int slot) {
+		final Object oldValue = slotValues[slot];
+		if(oldValue == NO_VALUE)
+			return null;
+		slotValues[slot] = NO_VALUE;
+		--slotValueCount;
+		return oldValue;
+	}
+
+	/**
+	 * Gets the entries stored locally in this context.
+	 */
+	private Map<String, Object> localEntries() {
+		final Map<String, Object> entries = new LinkedHashMap<>();
+		super.forEach(entries::put);
+		if(slotValueCount == 0)
+			return entries;
+
+		for(int i = 0; i < slotValues.length; ++i) {
+			if(slotValues[i] != NO_VALUE)
+				entries.put(layout.getKey(i), slotValues[i]);
+		}
+		return entries;
+	}
+
 	/**
 	 * Finds a context for the specified node. This is a deep operation which
 	 * will recursively search through all child contexts to find one for the
-	 * given node. 
+	 * given node. Direct children are found without a search.
+	 *
+	 * {@link Processor} resolves the contexts of source nodes itself, so this
+	 * method is not used for every link during processing.
 	 * 
 	 * @param node  the node to get a context for
 	 * 
@@ -85,12 +197,7 @@ public final class OpContext extends HashMap<String, Object> {
 		OpContext context = null;
 		if(childContexts != null) {
 			// First do a shallow search
-			for(Map.Entry<OpNode, OpContext> entry : childContexts.entrySet()) {
-				if(entry.getKey() == node) {
-					context = entry.getValue();
-					break;
-				}
-			}
+			context = childContexts.get(node);
 
 			// Didn't find one? Do a deep search
 			if(context == null) {
@@ -127,10 +234,12 @@ public final class OpContext extends HashMap<String, Object> {
 		if(childContexts == null)
 			childContexts = new WeakHashMap<OpNode, OpContext>();
 
-		if(!childContexts.containsKey(node))
-			childContexts.put(node, new OpContext(this));
-
-		return childContexts.get(node);
+		OpContext childContext = childContexts.get(node);
+		if(childContext == null) {
+			childContext = new OpContext(this);
+			childContexts.put(node, childContext);
+		}
+		return childContext;
 	}
 
 	/**
@@ -173,6 +282,21 @@ public final class OpContext extends HashMap<String, Object> {
 			childContexts.clear();
 	}
 
+	/**
+	 * Removes the values of all child contexts, at any depth. Unlike
+	 * {@link #clearChildContexts()} the child contexts themselves (and their
+	 * layouts) are kept, so repeated processing of the same graph does not
+	 * allocate new contexts.
+	 */
+	public void clearChildValues() {
+		if(childContexts != null) {
+			for(OpContext childContext : childContexts.values()) {
+				childContext.clearValues();
+				childContext.clearChildValues();
+			}
+		}
+	}
+
 	//
 	// Sort-of overrides
 	//
@@ -186,7 +310,9 @@ public final class OpContext extends HashMap<String, Object> {
 	 * @return same as {@link HashMap#put(Object, Object)}
 	 */
 	public Object put(ContextualItem item, Object value) {
-		return (item == null ? null : put(item.getKey(), value));
+		if(item == null) return null;
+		final int slot = slotOf(item);
+		return (slot < 0 ? put(item.getKey(), value) : setSlotValue(slot, value));
 	}
 
 	/**
@@ -197,7 +323,9 @@ public final class OpContext extends HashMap<String, Object> {
 	 * @return same as {@link #remove(Object)}
 	 */
 	public Object remove(ContextualItem item) {
-		return (item == null ? null : remove(item.getKey()));
+		if(item == null) return null;
+		final int slot = slotOf(item);
+		return (slot < 0 ? remove(item.getKey()) : clearSlotValue(slot));
 	}
 
 	/**
@@ -209,7 +337,11 @@ public final class OpContext extends HashMap<String, Object> {
 	 * @return same as {@link #containsKey(Object)} 
 	 */
 	public boolean containsKey(ContextualItem item) {
-		return (item == null ? false : containsKey(item.getKey()));
+		if(item == null) return false;
+		final int slot = slotOf(item);
+		if(slot < 0 || slotValues[slot] == NO_VALUE)
+			return containsKey(item.getKey());
+		return true;
 	}
 
 	/**
@@ -220,15 +352,25 @@ public final class OpContext extends HashMap<String, Object> {
 	 * @return same as {@link #get(Object)}
 	 */
 	public Object get(ContextualItem item) {
-		return (item == null ? null : get(item.getKey()));
+		if(item == null) return null;
+		final int slot = slotOf(item);
+		if(slot >= 0) {
+			final Object value = slotValues[slot];
+			if(value != NO_VALUE)
+				return value;
+			return (parent == null ? null : parent.get(item.getKey()));
+		}
+		return get(item.getKey());
 	}
 	
 	public boolean isLocal(ContextualItem item) {
-		return (item == null ? false : isLocal(item.getKey()));
+		if(item == null) return false;
+		final int slot = slotOf(item);
+		return (slot < 0 ? isLocal(item.getKey()) : slotValues[slot] != NO_VALUE);
 	}
 	
 	public boolean isLocal(String key) {
-		return super.containsKey(key);
+		return isLocalKey(key);
 	}
 	
 	public void setActiveOutputs(Set<OutputField> activeOutputs) {
@@ -240,7 +382,7 @@ public final class OpContext extends HashMap<String, Object> {
 	}
 	
 	public void clearActiveOutputs() {
-		this.activeOutputs = new HashSet<>();
+		this.activeOutputs = Collections.emptySet();
 	}
 	
 	public boolean isActive(OutputField field) {
@@ -253,15 +395,20 @@ public final class OpContext extends HashMap<String, Object> {
 
 	@Override
 	public Set<java.util.Map.Entry<String, Object>> entrySet() {
-		final Set<java.util.Map.Entry<String, Object>> entries = super.entrySet(); 
-		if(parent != null)
-			entries.addAll(parent.entrySet());
-		return entries;
+		if(parent == null && slotValueCount == 0)
+			return super.entrySet();
+
+		final Map<String, Object> entries = new LinkedHashMap<>(localEntries());
+		if(parent != null) {
+			for(Map.Entry<String, Object> entry : parent.entrySet())
+				entries.putIfAbsent(entry.getKey(), entry.getValue());
+		}
+		return entries.entrySet();
 	}
 
 	@Override
 	public Collection<Object> values() {
-		final Collection<Object> values = new ArrayList<Object>(super.values()); 
+		final Collection<Object> values = new ArrayList<Object>(localEntries().values()); 
 		if(parent != null)
 			values.addAll(parent.values());
 		return values;
@@ -269,39 +416,195 @@ public final class OpContext extends HashMap<String, Object> {
 
 	@Override
 	public Set<String> keySet() {
-		final Set<String> keys = new LinkedHashSet<String>(super.keySet()); 
+		final Set<String> keys = new LinkedHashSet<String>(localEntries().keySet()); 
 		if(parent != null)
 			keys.addAll(parent.keySet());
 		return keys;
 	}
 
+	@Override
+	public int size() {
+		return super.size() + slotValueCount;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
 	@Override
 	public void clear() {
+		clearValues();
+		clearChildContexts();
+	}
+
+	/**
+	 * Removes all values stored locally in this context.
+	 */
+	void clearValues() {
 		super.clear();
-		if(childContexts != null)
-			childContexts.clear();
+		if(slotValues != null && slotValueCount > 0) {
+			Arrays.fill(slotValues, NO_VALUE);
+			slotValueCount = 0;
+		}
 	}
 
 	@Override
 	public Object put(String key, Object value) {
-	    return super.put(key, value);
+		final int slot = slotOf(key);
+		return (slot < 0 ? super.put(key, value) : setSlotValue(slot, value));
+	}
+
+	@Override
+	public void putAll(Map<? extends String, ? extends Object> m) {
+		for(Map.Entry<? extends String, ? extends Object> entry : m.entrySet())
+			put(entry.getKey(), entry.getValue());
+	}
+
+	@Override
+	public Object putIfAbsent(String key, Object value) {
+		final int slot = slotOf(key);
+		if(slot < 0)
+			return super.putIfAbsent(key, value);
+		final Object oldValue = slotValues[slot];
+		if(oldValue == NO_VALUE || oldValue == null)
+			return setSlotValue(slot, value);
+		return oldValue;
 	}
 
 	@Override
 	public Object remove(Object key) {
-	    return super.remove(key);
+		final int slot = slotOf(key);
+		return (slot < 0 ? super.remove(key) : clearSlotValue(slot));
+	}
+
+	@Override
+	public boolean remove(Object key, Object value) {
+		final int slot = slotOf(key);
+		if(slot < 0)
+			return super.remove(key, value);
+		if(slotValues[slot] != NO_VALUE && Objects.equals(slotValues[slot], value)) {
+			clearSlotValue(slot);
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public Object replace(String key, Object value) {
+		final int slot = slotOf(key);
+		if(slot < 0)
+			return super.replace(key, value);
+		return (slotValues[slot] == NO_VALUE ? null : setSlotValue(slot, value));
+	}
+
+	@Override
+	public boolean replace(String key, Object oldValue, Object newValue) {
+		final int slot = slotOf(key);
+		if(slot < 0)
+			return super.replace(key, oldValue, newValue);
+		if(slotValues[slot] != NO_VALUE && Objects.equals(slotValues[slot], oldValue)) {
+			setSlotValue(slot, newValue);
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public Object computeIfAbsent(String key, Function<? super String, ? extends Object> mappingFunction) {
+		final int slot = slotOf(key);
+		if(slot < 0)
+			return super.computeIfAbsent(key, mappingFunction);
+		final Object oldValue = slotValues[slot];
+		if(oldValue != NO_VALUE && oldValue != null)
+			return oldValue;
+		final Object value = mappingFunction.apply(key);
+		if(value != null)
+			setSlotValue(slot, value);
+		return value;
+	}
+
+	@Override
+	public Object computeIfPresent(String key, BiFunction<? super String, ? super Object, ? extends Object> remappingFunction) {
+		final int slot = slotOf(key);
+		if(slot < 0)
+			return super.computeIfPresent(key, remappingFunction);
+		final Object oldValue = slotValues[slot];
+		if(oldValue == NO_VALUE || oldValue == null)
+			return null;
+		final Object value = remappingFunction.apply(key, oldValue);
+		if(value == null)
+			clearSlotValue(slot);
+		else
+			setSlotValue(slot, value);
+		return value;
+	}
+
+	@Override
+	public Object compute(String key, BiFunction<? super String, ? super Object, ? extends Object> remappingFunction) {
+		final int slot = slotOf(key);
+		if(slot < 0)
+			return super.compute(key, remappingFunction);
+		final Object oldValue = slotValues[slot];
+		final Object value = remappingFunction.apply(key, (oldValue == NO_VALUE ? null : oldValue));
+		if(value == null)
+			clearSlotValue(slot);
+		else
+			setSlotValue(slot, value);
+		return value;
+	}
+
+	@Override
+	public Object merge(String key, Object value, BiFunction<? super Object, ? super Object, ? extends Object> remappingFunction) {
+		final int slot = slotOf(key);
+		if(slot < 0)
+			return super.merge(key, value, remappingFunction);
+		final Object oldValue = slotValues[slot];
+		final Object newValue = (oldValue == NO_VALUE || oldValue == null ? value : remappingFunction.apply(oldValue, value));
+		if(newValue == null)
+			clearSlotValue(slot);
+		else
+			setSlotValue(slot, newValue);
+		return newValue;
+	}
+
+	@Override
+	public void forEach(BiConsumer<? super String, ? super Object> action) {
+		localEntries().forEach(action);
+	}
+
+	@Override
+	public void replaceAll(BiFunction<? super String, ? super Object, ? extends Object> function) {
+		super.replaceAll(function);
+		if(slotValues != null) {
+			for(int i = 0; i < slotValues.length; ++i) {
+				if(slotValues[i] != NO_VALUE)
+					slotValues[i] = function.apply(layout.getKey(i), slotValues[i]);
+			}
+		}
 	}
 
 	@Override
 	public Object get(Object key) {
-		if(super.containsKey(key))
+		final int slot = slotOf(key);
+		if(slot >= 0 && slotValues[slot] != NO_VALUE)
+			return slotValues[slot];
+		if(slot < 0 && super.containsKey(key))
 			return super.get(key);
 		return (parent == null ? null : parent.get(key));
 	}
 
+	@Override
+	public Object getOrDefault(Object key, Object defaultValue) {
+		final int slot = slotOf(key);
+		if(slot < 0)
+			return super.getOrDefault(key, defaultValue);
+		return (slotValues[slot] == NO_VALUE ? defaultValue : slotValues[slot]);
+	}
+
 	@Override
 	public boolean containsKey(Object key) {
-		boolean ret = super.containsKey(key);
+		boolean ret = isLocalKey(key);
 		if(!ret && parent != null)
 			ret = parent.containsKey(key);
 		return ret;
@@ -310,9 +613,30 @@ public final class OpContext extends HashMap<String, Object> {
 	@Override
 	public boolean containsValue(Object value) {
 		boolean ret = super.containsValue(value);
+		if(!ret && slotValues != null) {
+			for(Object slotValue : slotValues) {
+				if(slotValue != NO_VALUE && Objects.equals(slotValue, value)) {
+					ret = true;
+					break;
+				}
+			}
+		}
 		if(!ret && parent != null)
 			ret = parent.containsValue(value);
 		return ret;
 	}
+
+	@Override
+	public OpContext clone() {
+		final OpContext retVal = (OpContext)super.clone();
+		if(slotValues != null)
+			retVal.slotValues = slotValues.clone();
+		return retVal;
+	}
+
+	private boolean isLocalKey(Object key) {
+		final int slot = slotOf(key);
+		return (slot < 0 ? super.containsKey(key) : slotValues[slot] != NO_VALUE);
+	}
 	
 }
@@ -38,6 +38,9 @@ public final class OpGraph
 
 	/** A mapping from node id to node */
 	private Map<String, OpNode> nodeMap;
+
+	/** Cached execution plan */
+	private volatile ExecutionPlan executionPlan;
 	
 	private final Comparator<OpNode> nodeComparator = (n1, n2) -> {
 		final NodeMetadata meta1 = n1.getExtension(NodeMetadata.class);
@@ -79,18 +82,38 @@ public final class OpGraph
 	 * 
 	 */
 	public OpGraph(OpGraph toCopy) {
-		super();
+		super(toCopy);
 		
 		this.nodeMap = new LinkedHashMap<>();
 		this.nodeMap.putAll(toCopy.nodeMap);
-	
-		this.vertices.addAll(toCopy.vertices);
-		this.edges.addAll(toCopy.edges);
 		
 		setVertexComparator(nodeComparator);
 		setId(null);
 	}
 
+	/**
+	 * Gets the execution plan for this graph. A new plan is compiled
+	 * only if the graph has changed since the last call.
+	 *
+	 * @return the execution plan
+	 *
+	 * @see #getVersion()
+	 */
+	public ExecutionPlan getExecutionPlan() {
+		ExecutionPlan plan = executionPlan;
+		if(plan == null || plan.getVersion() != getVersion()) {
+			synchronized(this) {
+				plan = executionPlan;
+				final long version = getVersion();
+				if(plan == null || plan.getVersion() != version) {
+					plan = ExecutionPlan.compile(this);
+					executionPlan = plan;
+				}
+			}
+		}
+		return plan;
+	}
+
 	public void updateNodeMap() {
 		nodeMap.clear();
 
@@ -352,7 +375,7 @@ public final class OpGraph
 				node.addNodeListener(nodeListener);
 				
 				CompositeNode cnode = node.getExtension(CompositeNode.class);
-				if(cnode != null) {
+				if(cnode != null && !cnode.isGraphShared()) {
 					cnode.getGraph().addGraphListener(graphPropogationListener);
 				}
 				
@@ -482,6 +505,7 @@ public final class OpGraph
 	final OpNodeListener nodeListener = new OpNodeListener() {
 		@Override
 		public void fieldRemoved(OpNode node, OutputField field) {
+			modified();
 			for(OpLink link : getOutgoingEdges(node)) {
 				if(link.getSourceField().equals(field)) {
 					remove(link);
@@ -492,6 +516,7 @@ public final class OpGraph
 
 		@Override
 		public void fieldRemoved(OpNode node, InputField field) {
+			modified();
 			for(OpLink link : getIncomingEdges(node)) {
 				if(link.getDestinationField().equals(field)) {
 					remove(link);
@@ -504,10 +529,14 @@ public final class OpGraph
 		public void nodePropertyChanged(OpNode node, String propertyName, Object oldValue, Object newValue) {}
 
 		@Override
-		public void fieldAdded(OpNode node, OutputField field) {}
+		public void fieldAdded(OpNode node, OutputField field) {
+			modified();
+		}
 
 		@Override
-		public void fieldAdded(OpNode node, InputField field) {}
+		public void fieldAdded(OpNode node, InputField field) {
+			modified();
+		}
 	};
 
 	//
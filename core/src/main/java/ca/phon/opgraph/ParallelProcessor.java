@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2012-2020 Gregory Hedlund <https://www.phon.ca>
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.opgraph;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import ca.phon.opgraph.ExecutionPlan.*;
+import ca.phon.opgraph.exceptions.*;
+
+/**
+ * A {@link Processor} which executes independent nodes concurrently. When
+ * {@link #stepAll()} is called each node is submitted to an
+ * {@link ExecutorService} as soon as all nodes linked to its inputs have
+ * finished. Stepping methods ({@link #step()}, {@link #stepInto()}, etc.)
+ * behave exactly as they do in {@link Processor}.
+ *
+ * Nodes executed by this processor must only write to their own local
+ * context. Nodes which modify shared state (e.g., values in the global
+ * context) should not be placed on independent branches of the graph.
+ *
+ * Processing falls back to serial execution when the graph has custom
+ * processing needs, when a macro has been stepped into, or when breakpoints
+ * should be honoured and the graph contains a breakpoint.
+ */
+public class ParallelProcessor extends Processor {
+
+	/** Executor used for nodes */
+	private final ExecutorService executor;
+
+	/** Nodes which are currently executing */
+	private final Set<OpNode> runningNodes = ConcurrentHashMap.newKeySet();
+
+	private volatile boolean stopped = false;
+
+	/**
+	 * Constructs a parallel processor for the given graph using the
+	 * common {@link ForkJoinPool}.
+	 *
+	 * @param graph  the graph
+	 *
+	 * @throws NullPointerException  if the specified graph is <code>null</code>
+	 */
+	public ParallelProcessor(OpGraph graph) {
+		this(graph, null, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Constructs a parallel processor for the given graph.
+	 *
+	 * @param graph  the graph
+	 * @param executor  the executor used to operate nodes
+	 *
+	 * @throws NullPointerException  if the specified graph or executor is <code>null</code>
+	 */
+	public ParallelProcessor(OpGraph graph, ExecutorService executor) {
+		this(graph, null, executor);
+	}
+
+	/**
+	 * Constructs a parallel processor for the given graph and a preset operating context.
+	 *
+	 * @param graph  the graph
+	 * @param context  the initial global context, or <code>null</code> to
+	 *                 use an empty global context
+	 * @param executor  the executor used to operate nodes
+	 *
+	 * @throws NullPointerException  if the specified graph or executor is <code>null</code>
+	 */
+	public ParallelProcessor(OpGraph graph, OpContext context, ExecutorService executor) {
+		super(graph, context);
+		if(executor == null)
+			throw new NullPointerException("Executor cannot be null");
+		this.executor = executor;
+	}
+
+	/**
+	 * Gets the executor used to operate nodes.
+	 *
+	 * @return the executor
+	 */
+	public ExecutorService getExecutor() {
+		return this.executor;
+	}
+
+	@Override
+	public void stop() {
+		stopped = true;
+		super.stop();
+		for(OpNode node:runningNodes) {
+			node.setCanceled(true);
+		}
+	}
+
+	@Override
+	public void stepAll(boolean shouldBreak) throws BreakpointEncountered {
+		if(hasCustomProcessor() || getMacroContext() != null
+				|| (shouldBreak && !getGraphOfContext().getBreakpoints().isEmpty())) {
+			super.stepAll(shouldBreak);
+			return;
+		}
+
+		stopped = false;
+		if(hasNext()) {
+			processRemaining();
+		}
+		fireCompleteEvent();
+	}
+
+	/*
+	 * Schedule all remaining nodes, nodes become ready when
+	 * all source nodes of incoming links have completed.
+	 */
+	private void processRemaining() {
+		final OpGraph graph = getGraphOfContext();
+		final OpContext globalContext = getContext();
+		final List<OpNode> nodes = drainRemainingNodes();
+
+		// setup contexts before processing, the child context map is not thread-safe
+		final ExecutionPlan plan = graph.getExecutionPlan();
+		final OpContext[] contexts = resolveNodeContexts(plan);
+		final Map<OpNode, OpContext> localContexts = new IdentityHashMap<>();
+		final Map<OpNode, AtomicInteger> pendingCounts = new IdentityHashMap<>();
+		for(OpNode node:nodes) {
+			final NodePlan nodePlan = plan.getNodePlan(node);
+			localContexts.put(node, (nodePlan == null ? globalContext.getChildContext(node) : contexts[nodePlan.getIndex()]));
+			pendingCounts.put(node, new AtomicInteger());
+		}
+
+		final Map<OpNode, List<OpNode>> dependents = new IdentityHashMap<>();
+		for(OpNode node:nodes) {
+			final Set<OpNode> sources = Collections.newSetFromMap(new IdentityHashMap<>());
+			final NodePlan nodePlan = plan.getNodePlan(node);
+			final int linkCount = (nodePlan == null ? 0 : nodePlan.getInputLinkCount());
+			for(int i = 0; i < linkCount; ++i) {
+				final OpNode source = nodePlan.getInputLink(i).getSource();
+				if(pendingCounts.containsKey(source) && sources.add(source)) {
+					dependents.computeIfAbsent(source, (k) -> new ArrayList<>()).add(node);
+				}
+			}
+			pendingCounts.get(node).set(sources.size());
+		}
+
+		final Scheduler scheduler = new Scheduler(localContexts, pendingCounts, dependents);
+		for(OpNode node:nodes) {
+			if(pendingCounts.get(node).get() == 0)
+				scheduler.submit(node);
+		}
+		scheduler.await();
+
+		if(scheduler.error != null) {
+			setError(scheduler.error);
+			throw scheduler.error;
+		}
+
+		if(scheduler.completed.size() < nodes.size()) {
+			// processing was stopped, keep unprocessed nodes so processing may continue
+			final List<OpNode> unprocessed = new ArrayList<>();
+			for(OpNode node:nodes) {
+				if(!scheduler.completed.contains(node))
+					unprocessed.add(node);
+			}
+			requeueNodes(unprocessed);
+			throw new BreakpointEncountered(this, unprocessed.get(0));
+		}
+	}
+
+	/**
+	 * Tracks the execution of nodes for a call to {@link ParallelProcessor#stepAll()}.
+	 * Waiting is done through {@link ForkJoinPool#managedBlock(ForkJoinPool.ManagedBlocker)},
+	 * so a fork/join pool compensates for a worker thread waiting on nodes
+	 * which are operated by the same pool.
+	 */
+	private class Scheduler implements ForkJoinPool.ManagedBlocker {
+
+		private final Map<OpNode, OpContext> localContexts;
+
+		private final Map<OpNode, AtomicInteger> pendingCounts;
+
+		private final Map<OpNode, List<OpNode>> dependents;
+
+		private final Set<OpNode> completed = ConcurrentHashMap.newKeySet();
+
+		private final AtomicInteger inFlight = new AtomicInteger();
+
+		private volatile ProcessingException error;
+
+		public Scheduler(Map<OpNode, OpContext> localContexts, Map<OpNode, AtomicInteger> pendingCounts,
+				Map<OpNode, List<OpNode>> dependents) {
+			this.localContexts = localContexts;
+			this.pendingCounts = pendingCounts;
+			this.dependents = dependents;
+		}
+
+		public void submit(OpNode node) {
+			inFlight.incrementAndGet();
+			try {
+				executor.execute( () -> run(node) );
+			} catch(RejectedExecutionException e) {
+				fail(new ProcessingException(ParallelProcessor.this, e));
+				finished();
+			}
+		}
+
+		private void run(OpNode node) {
+			try {
+				if(error == null && !stopped) {
+					runningNodes.add(node);
+					try {
+						operateNode(node, localContexts.get(node), false);
+					} finally {
+						runningNodes.remove(node);
+					}
+					completed.add(node);
+
+					for(OpNode dependent:dependents.getOrDefault(node, Collections.emptyList())) {
+						if(pendingCounts.get(dependent).decrementAndGet() == 0)
+							submit(dependent);
+					}
+				}
+			} catch(ProcessingException e) {
+				fail(e);
+			} catch(Throwable e) {
+				fail(new ProcessingException(ParallelProcessor.this, e));
+			} finally {
+				finished();
+			}
+		}
+
+		private synchronized void fail(ProcessingException e) {
+			if(error == null) {
+				error = e;
+			}
+		}
+
+		private synchronized void finished() {
+			if(inFlight.decrementAndGet() == 0)
+				notifyAll();
+		}
+
+		public void await() {
+			boolean interrupted = false;
+			while(inFlight.get() > 0) {
+				try {
+					ForkJoinPool.managedBlock(this);
+				} catch (InterruptedException e) {
+					// stop scheduling new nodes and wait for running nodes to finish
+					interrupted = true;
+					stop();
+				}
+			}
+			if(interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		@Override
+		public boolean isReleasable() {
+			return inFlight.get() == 0;
+		}
+
+		@Override
+		public synchronized boolean block() throws InterruptedException {
+			while(inFlight.get() > 0)
+				wait();
+			return true;
+		}
+
+	}
+
+}
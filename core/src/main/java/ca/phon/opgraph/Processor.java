@@ -19,6 +19,7 @@ package ca.phon.opgraph;
 import java.util.*;
 import java.util.concurrent.*;
 
+import ca.phon.opgraph.ExecutionPlan.*;
 import ca.phon.opgraph.ProcessorEvent.*;
 import ca.phon.opgraph.exceptions.*;
 import ca.phon.opgraph.extensions.*;
@@ -30,6 +31,12 @@ import ca.phon.opgraph.validators.*;
  * is given, allowing one to step through an operable graph in various ways.
  */
 public class Processor {
+	/**
+	 * Context item for the flag which tells a node if the processor
+	 * is stepping into it.
+	 */
+	static final ContextualItem STEP_INTO_FLAG = new SimpleItem("__stepInto");
+
 	/** The graph this processor is operating on */
 	private OpGraph graph;
 
@@ -40,7 +47,38 @@ public class Processor {
 	 * An iterator that points to the node we are currently processing on,
 	 * or <code>null</code> if processing hasn't begun/should be restarted.
 	 */
-	private Queue<OpNode> nodeQueue;
+	private NodeQueue nodeQueue;
+
+	/** Queue over the nodes of the execution plan, reused between resets */
+	private final NodeQueue planQueue = new NodeQueue();
+
+	/** Node defaults installed by the last reset, re-applied by {@link #restart()} */
+	private final List<NodeDefault> nodeDefaults = new ArrayList<>();
+
+	/** Execution plan of the last run started by {@link #reset(OpContext)} or {@link #restart()} */
+	private ExecutionPlan processedPlan;
+
+	/** Nodes whose outputs are used, or <code>null</code> to operate every node */
+	private Collection<OpNode> sinks;
+
+	/** Execution plan {@link #liveNodes} was computed for */
+	private ExecutionPlan livePlan;
+
+	/** Whether each node in {@link #livePlan} has to be operated, or <code>null</code> */
+	private boolean[] liveNodes;
+
+	/** Execution plan {@link #nodeContexts} was resolved for */
+	private ExecutionPlan nodeContextsPlan;
+
+	/**
+	 * Local context of each node of {@link #nodeContextsPlan}, indexed by
+	 * processing order. Used to find the outputs of source nodes without
+	 * searching the global context.
+	 */
+	private OpContext[] nodeContexts;
+
+	/** Nodes which should be operated again by {@link #reprocess()} */
+	private final Set<OpNode> invalidatedNodes = new HashSet<>();
 
 	/** The node we are operating on*/
 	private OpNode currentNode;
@@ -62,11 +100,16 @@ public class Processor {
 
 	private volatile boolean shutdown = false;
 
+	/** Cache of outputs for {@link Cacheable} nodes, or <code>null</code> */
+	private ResultCache resultCache;
+
+	/** Cache used by the current run, resolved by {@link #reset(OpContext)} and {@link #restart()} */
+	private ResultCache activeResultCache;
+
 	/**
 	 * Processor listener
 	 */
-	private List<ProcessorListener> listeners =
-			Collections.synchronizedList(new ArrayList<>());
+	private List<ProcessorListener> listeners = new CopyOnWriteArrayList<>();
 
 	/**
 	 * Constructs a processing context for a given graph.
@@ -108,8 +151,6 @@ public class Processor {
 			throw new NullPointerException("Graph cannot be null");
 
 		this.graph = graph;
-		this.graph.invalidateSort();
-		this.graph.topologicalSort();
 
 		this.customProcessor = customProcessor;
 
@@ -126,7 +167,9 @@ public class Processor {
 
 	/**
 	 * Resets this context so that further processing will start from the
-	 * beginning.
+	 * beginning. Resetting does not sort the graph and, unless the graph
+	 * has changed, does not allocate a new processing queue, so a processor
+	 * may be reused cheaply for repeated runs of the same graph.
 	 *
 	 * @param context  the global context that should be used for processing,
 	 *                 or <code>null</code> if a default one should be used
@@ -141,11 +184,16 @@ public class Processor {
 		if(customProcessor != null) {
 			List<OpNode> nodeList = new ArrayList<OpNode>();
 			customProcessor.forEachRemaining(nodeList::add);
-			nodeQueue = new LinkedBlockingQueue<OpNode>(nodeList);
+			nodeQueue = new NodeQueue(nodeList);
 		}
 
-		if(nodeQueue == null)
-			nodeQueue = new LinkedBlockingQueue<OpNode>(graph.getVertices());
+		processedPlan = null;
+		if(nodeQueue == null) {
+			processedPlan = graph.getExecutionPlan();
+			planQueue.reset(processedPlan, getLiveNodes(processedPlan));
+			nodeQueue = planQueue;
+		}
+		invalidatedNodes.clear();
 
 		// Set up context
 		if(globalContext != null && globalContext == context)
@@ -154,13 +202,178 @@ public class Processor {
 		globalContext = context;
 		if(globalContext == null)
 			globalContext = new OpContext();
+		nodeContextsPlan = null;
+		nodeContexts = null;
 
 		if(customProcessor != null)
 			customProcessor.initialize(globalContext);
 
-		installNodeDefaults(getGraph(), globalContext);
+		activeResultCache = getResultCache();
+
+		nodeDefaults.clear();
+		collectNodeDefaults(getGraph(), globalContext, null, nodeDefaults);
+		for(int i = 0; i < nodeDefaults.size(); ++i)
+			nodeDefaults.get(i).install();
+	}
+
+	/**
+	 * Drops the global context and the state of the last run, so an idle
+	 * processor (e.g., one kept by a {@link ProcessorPool}) does not keep
+	 * contexts and their values reachable. The processor must be reset
+	 * with {@link #reset(OpContext)} before it is used again.
+	 */
+	void detachContext() {
+		currentMacro = null;
+		currentError = null;
+		currentNode = null;
+		breakpointNode = null;
+		nodeQueue = null;
+		globalContext = null;
+		nodeContextsPlan = null;
+		nodeContexts = null;
+		activeResultCache = null;
+		nodeDefaults.clear();
+		invalidatedNodes.clear();
+	}
+
+	/**
+	 * Restarts processing from the beginning of the graph, keeping the
+	 * current global context. Intended for running the same graph many
+	 * times in a row (e.g., once per element of a collection):
+	 * <ul>
+	 *   <li>the node queue is rewound instead of being set up again,</li>
+	 *   <li>child contexts are kept and only their values are cleared
+	 *       (see {@link OpContext#clearChildValues()}), and</li>
+	 *   <li>node defaults found by the last call to {@link #reset(OpContext)}
+	 *       are put back without walking the graph.</li>
+	 * </ul>
+	 * Changes to node defaults are therefore only picked up by
+	 * {@link #reset(OpContext)}.
+	 *
+	 * If this processor has custom processing needs this is the same as
+	 * calling {@link #reset(OpContext)} with the current global context.
+	 */
+	public void restart() {
+		if(customProcessor != null) {
+			reset(globalContext);
+			return;
+		}
+
+		currentMacro = null;
+		currentError = null;
+		currentNode = null;
+
+		processedPlan = graph.getExecutionPlan();
+		planQueue.reset(processedPlan, getLiveNodes(processedPlan));
+		nodeQueue = planQueue;
+		invalidatedNodes.clear();
+
+		globalContext.clearChildValues();
+		activeResultCache = getResultCache();
+		for(int i = 0; i < nodeDefaults.size(); ++i)
+			nodeDefaults.get(i).install();
 	}
 	
+	/**
+	 * Sets the cache used to skip operating {@link Cacheable} nodes whose
+	 * inputs have been seen before.
+	 *
+	 * @param resultCache  the cache, or <code>null</code> to use the cache
+	 *                     found in the global context under
+	 *                     {@link ResultCache#CONTEXT_KEY}, if any
+	 */
+	public void setResultCache(ResultCache resultCache) {
+		this.resultCache = resultCache;
+		if(globalContext != null)
+			this.activeResultCache = getResultCache();
+	}
+
+	/**
+	 * Gets the cache used for {@link Cacheable} nodes.
+	 *
+	 * @return the cache given to {@link #setResultCache(ResultCache)}, else
+	 *         the cache found in the global context, or <code>null</code>
+	 *         if results are not cached
+	 */
+	public ResultCache getResultCache() {
+		if(resultCache != null)
+			return resultCache;
+		final Object contextCache = globalContext.get(ResultCache.CONTEXT_KEY);
+		return (contextCache instanceof ResultCache ? (ResultCache)contextCache : null);
+	}
+
+	/**
+	 * Sets the nodes whose outputs are used after processing. When set,
+	 * nodes which are neither needed to compute the outputs of these nodes
+	 * nor have side effects are not operated (see
+	 * {@link ExecutionPlan#findLiveNodes(Collection)}). Takes effect
+	 * immediately if processing has not started, otherwise on the next
+	 * reset.
+	 *
+	 * @param sinks  the nodes whose outputs are used, or <code>null</code>
+	 *               to operate every node
+	 */
+	public void setSinks(Collection<OpNode> sinks) {
+		if(!Objects.equals(this.sinks, sinks)) {
+			this.sinks = sinks;
+			this.livePlan = null;
+			this.liveNodes = null;
+
+			if(nodeQueue == planQueue && currentNode == null && processedPlan != null)
+				planQueue.reset(processedPlan, getLiveNodes(processedPlan));
+		}
+	}
+
+	/**
+	 * Gets the nodes whose outputs are used after processing.
+	 *
+	 * @return the sinks, or <code>null</code> if every node is operated
+	 */
+	public Collection<OpNode> getSinks() {
+		return sinks;
+	}
+
+	/**
+	 * Gets the nodes of the graph which are not operated because their
+	 * outputs are never used.
+	 *
+	 * @return the pruned nodes, in processing order
+	 *
+	 * @see #setSinks(Collection)
+	 */
+	public List<OpNode> getPrunedNodes() {
+		final ExecutionPlan plan = graph.getExecutionPlan();
+		final boolean[] live = getLiveNodes(plan);
+		if(live == null)
+			return Collections.emptyList();
+
+		final List<OpNode> retVal = new ArrayList<>();
+		for(int i = 0; i < live.length; ++i) {
+			if(!live[i])
+				retVal.add(plan.getNode(i));
+		}
+		return retVal;
+	}
+
+	/**
+	 * Gets whether each node of the given plan has to be operated.
+	 *
+	 * @param plan  the execution plan of the graph
+	 *
+	 * @return live flags indexed by processing order, or <code>null</code>
+	 *         if every node is operated
+	 */
+	private boolean[] getLiveNodes(ExecutionPlan plan) {
+		if(sinks == null)
+			return null;
+
+		if(livePlan != plan) {
+			liveNodes = plan.findLiveNodes(sinks);
+			livePlan = plan;
+		}
+		return liveNodes;
+	}
+
 	/**
 	 * Gets the graph that is currently being operated on.
 	 *
@@ -320,26 +533,7 @@ public class Processor {
 	 */
 	private void processCurrentNode() {
 		try {
-			final OpContext localContext = globalContext.getChildContext(currentNode);
-			setupInputs(currentNode, localContext);
-
-			Boolean enabled = (Boolean)localContext.get(OpNode.ENABLED_FIELD);
-			if(enabled == null || enabled) {
-				localContext.clearActiveOutputs();
-				final Set<OpLink> outgoingEdges = graph.getOutgoingEdges(currentNode);
-				final Set<OutputField> activeOutputs = new HashSet<>();
-				for(OpLink link:outgoingEdges) {
-					activeOutputs.add(link.getSourceField());
-				}
-				localContext.setActiveOutputs(activeOutputs);
-
-				fireBeginNodeEvent();
-				localContext.put(OpNode.COMPLETED_FIELD, Boolean.FALSE);
-				localContext.put("__stepInto", isStepInto);
-				currentNode.operate(localContext);
-				localContext.put(OpNode.COMPLETED_FIELD, Boolean.TRUE);
-				fireEndNodeEvent();
-			}
+			operateNode(currentNode, globalContext.getChildContext(currentNode), isStepInto);
 
 			if(!hasNext() && customProcessor != null)
 				customProcessor.terminate(globalContext);
@@ -357,6 +551,138 @@ public class Processor {
 		}
 	}
 
+	/**
+	 * Sets up inputs for, and operates, a single node using the given local
+	 * context. This method does not touch the position of this processor so
+	 * it may be called concurrently for nodes which do not depend on each
+	 * other, as long as their local contexts already exist.
+	 *
+	 * @param node  the node to operate
+	 * @param localContext  the working context for the node
+	 * @param stepInto  value of the <code>__stepInto</code> flag given to the node
+	 *
+	 * @throws ProcessingException  if any errors occurred during processing
+	 */
+	void operateNode(OpNode node, OpContext localContext, boolean stepInto) {
+		final ExecutionPlan plan = graph.getExecutionPlan();
+		final NodePlan nodePlan = getNodePlan(plan, node);
+		final OpContext[] contexts = resolveNodeContexts(plan);
+		contexts[nodePlan.getIndex()] = localContext;
+		setupInputs(node, nodePlan, localContext, contexts);
+
+		Boolean enabled = (Boolean)localContext.get(OpNode.ENABLED_FIELD);
+		if(enabled == null || enabled) {
+			localContext.setActiveOutputs(nodePlan.getActiveOutputs());
+
+			// avoid creating events when nobody is listening
+			final boolean hasListeners = !listeners.isEmpty();
+			if(hasListeners)
+				fireProcessorEvent(new ProcessorEvent(Type.BEGIN_NODE, this, node));
+			localContext.put(OpNode.COMPLETED_FIELD, Boolean.FALSE);
+			localContext.put(STEP_INTO_FLAG, Boolean.valueOf(stepInto));
+
+			final ResultCache cache = activeResultCache;
+			final Cacheable cacheable = (cache == null ? null : node.getExtension(Cacheable.class));
+			if(cacheable == null) {
+				node.operate(localContext);
+			} else {
+				final ResultCache.Key key = ResultCache.createKey(node, cacheable, nodePlan, localContext);
+				if(!cache.restoreOutputs(key, node, localContext)) {
+					node.operate(localContext);
+					cache.storeOutputs(key, node, localContext);
+				}
+			}
+			localContext.put(OpNode.COMPLETED_FIELD, Boolean.TRUE);
+			if(hasListeners)
+				fireProcessorEvent(new ProcessorEvent(Type.FINISH_NODE, this, node));
+		}
+	}
+
+	/**
+	 * Gets the execution plan for the given node. The plan of the graph
+	 * is only re-compiled if the graph has changed.
+	 *
+	 * @param plan  the execution plan of the graph
+	 * @param node  the node
+	 *
+	 * @return the node plan
+	 *
+	 * @throws ProcessingException  if the node is not part of the graph
+	 */
+	private NodePlan getNodePlan(ExecutionPlan plan, OpNode node) {
+		final NodePlan nodePlan = plan.getNodePlan(node);
+		if(nodePlan == null)
+			throw new ProcessingException(this, "Node " + node.getName() + " is not part of graph " + graph.getId());
+		return nodePlan;
+	}
+
+	/**
+	 * Gets the local contexts of the nodes of the given plan, creating them
+	 * in the global context if needed. Contexts are only resolved again
+	 * after a reset or when the plan changes, so this must be called before
+	 * nodes are operated concurrently (see {@link ParallelProcessor}).
+	 *
+	 * @param plan  the execution plan of the graph
+	 *
+	 * @return the local contexts, indexed by processing order
+	 */
+	OpContext[] resolveNodeContexts(ExecutionPlan plan) {
+		if(nodeContextsPlan != plan) {
+			final OpContext[] contexts = new OpContext[plan.size()];
+			for(int i = 0; i < contexts.length; ++i)
+				contexts[i] = globalContext.getChildContext(plan.getNode(i));
+			nodeContexts = contexts;
+			nodeContextsPlan = plan;
+		}
+		return nodeContexts;
+	}
+
+	/**
+	 * Removes and returns all nodes which have yet to be processed at
+	 * this level of the processor.
+	 *
+	 * @return the remaining nodes, in processing order
+	 */
+	List<OpNode> drainRemainingNodes() {
+		final List<OpNode> retVal = new ArrayList<>();
+		if(nodeQueue != null)
+			nodeQueue.drainTo(retVal);
+		nodeQueue = new NodeQueue(Collections.emptyList());
+		return retVal;
+	}
+
+	/**
+	 * Puts the given nodes back at the front of the processing queue.
+	 *
+	 * @param nodes  the nodes to requeue, in processing order
+	 */
+	void requeueNodes(List<OpNode> nodes) {
+		final List<OpNode> remaining = new ArrayList<>(nodes);
+		remaining.addAll(drainRemainingNodes());
+		nodeQueue = new NodeQueue(remaining);
+	}
+
+	/**
+	 * Records an error which occurred during processing and prevents
+	 * any further processing.
+	 *
+	 * @param error  the error
+	 */
+	void setError(ProcessingException error) {
+		if(error.getContext() == null) error.setContext(this);
+		currentError = error;
+		nodeQueue = null;
+	}
+
+	/**
+	 * Does this processor have custom processing needs.
+	 *
+	 * @return <code>true</code> if a custom processor was provided
+	 */
+	boolean hasCustomProcessor() {
+		return customProcessor != null;
+	}
+
 	/**
 	 * Processes the graph until we reach the next node level.
 	 */
@@ -427,7 +753,8 @@ public class Processor {
 			if(composite != null) {
 				try {
 					final OpContext context = globalContext.getChildContext(currentNode);
-					setupInputs(currentNode, context);
+					final ExecutionPlan plan = graph.getExecutionPlan();
+					setupInputs(currentNode, getNodePlan(plan, currentNode), context, resolveNodeContexts(plan));
 
 					final CustomProcessing customProcessing = currentNode.getExtension(CustomProcessing.class);
 					final CustomProcessor customProcessor = (customProcessing == null ? null : customProcessing.getCustomProcessor());
@@ -506,24 +833,177 @@ public class Processor {
 		stepAll(getContext().isDebug());
 	}
 
+	/**
+	 * Marks a node as changed so that the next call to {@link #reprocess()}
+	 * operates it, and every node downstream of it, again. Use this after
+	 * changing the settings of a node, or after changing a value in the
+	 * global context for the nodes which read that value.
+	 *
+	 * @param node  the node, which must be part of the graph of this processor
+	 *              (nodes inside a macro are invalidated through the macro node)
+	 */
+	public void invalidate(OpNode node) {
+		invalidatedNodes.add(node);
+	}
+
+	/**
+	 * Brings the results of the last run up to date with changes made since,
+	 * operating only the nodes which are affected. A node is affected if
+	 * <ul>
+	 *   <li>it was given to {@link #invalidate(OpNode)},</li>
+	 *   <li>it was added to the graph, its input fields or incoming links
+	 *       changed,</li>
+	 *   <li>its defaults, or the defaults of a node inside of it, changed
+	 *       (see {@link NodeMetadata#setDefault(InputField, Object)}), or</li>
+	 *   <li>it is downstream of an affected node.</li>
+	 * </ul>
+	 * All other nodes keep the outputs of the last run.
+	 *
+	 * If the last run did not complete, ended in an error, or used custom
+	 * processing, the whole graph is processed again from the beginning.
+	 *
+	 * @throws ProcessingException  if any errors occurred during processing
+	 */
+	public void reprocess() {
+		if(processedPlan == null || currentError != null || currentMacro != null || hasNext()) {
+			reset(globalContext);
+			stepAll();
+			return;
+		}
+
+		final ExecutionPlan plan = graph.getExecutionPlan();
+		final boolean[] live = getLiveNodes(plan);
+		final boolean[] dirty = new boolean[plan.size()];
+
+		// Structural changes and explicitly invalidated nodes
+		for(int i = 0; i < plan.size(); ++i) {
+			final NodePlan nodePlan = plan.getNodePlan(i);
+			dirty[i] = invalidatedNodes.contains(nodePlan.getNode())
+					|| !isSameInputs(processedPlan.getNodePlan(nodePlan.getNode()), nodePlan);
+		}
+
+		// Changed defaults
+		final List<NodeDefault> currentDefaults = new ArrayList<>();
+		collectNodeDefaults(graph, globalContext, null, currentDefaults);
+		for(OpNode owner : findChangedDefaults(nodeDefaults, currentDefaults)) {
+			final NodePlan nodePlan = plan.getNodePlan(owner);
+			if(nodePlan != null)
+				dirty[nodePlan.getIndex()] = true;
+		}
+
+		// Downstream of changes; the plan is in processing order
+		for(int i = 0; i < plan.size(); ++i) {
+			final NodePlan nodePlan = plan.getNodePlan(i);
+			for(int j = 0; !dirty[i] && j < nodePlan.getInputLinkCount(); ++j)
+				dirty[i] = dirty[nodePlan.getInputLink(j).getSourceIndex()];
+		}
+
+		processedPlan = plan;
+		invalidatedNodes.clear();
+		nodeDefaults.clear();
+		nodeDefaults.addAll(currentDefaults);
+
+		shutdown = false;
+		for(int i = 0; i < plan.size(); ++i) {
+			if(!dirty[i] || (live != null && !live[i]))
+				continue;
+
+			currentNode = plan.getNode(i);
+			final OpContext nodeContext = globalContext.getChildContext(currentNode);
+			nodeContext.clearValues();
+			nodeContext.clearChildValues();
+			for(int j = 0; j < nodeDefaults.size(); ++j) {
+				final NodeDefault nodeDefault = nodeDefaults.get(j);
+				if(nodeDefault.owner == currentNode)
+					nodeDefault.install();
+			}
+			processCurrentNode();
+		}
+		fireCompleteEvent();
+	}
+
+	/**
+	 * Checks whether a node has the same input fields and incoming links
+	 * in two execution plans.
+	 *
+	 * @param oldPlan  the plan of the node in the previous execution plan,
+	 *                 or <code>null</code> if the node is new
+	 * @param newPlan  the plan of the node in the current execution plan
+	 *
+	 * @return <code>true</code> if the inputs are the same, <code>false</code> otherwise
+	 */
+	private static boolean isSameInputs(NodePlan oldPlan, NodePlan newPlan) {
+		if(oldPlan == null
+				|| oldPlan.getInputFieldCount() != newPlan.getInputFieldCount()
+				|| oldPlan.getInputLinkCount() != newPlan.getInputLinkCount())
+			return false;
+
+		for(int i = 0; i < newPlan.getInputFieldCount(); ++i) {
+			if(!oldPlan.getInputField(i).equals(newPlan.getInputField(i)))
+				return false;
+		}
+
+		for(int i = 0; i < newPlan.getInputLinkCount(); ++i) {
+			if(!oldPlan.getInputLink(i).getLink().equals(newPlan.getInputLink(i).getLink()))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the nodes whose defaults differ between two lists of defaults.
+	 *
+	 * @param oldDefaults  defaults of the last run
+	 * @param newDefaults  current defaults
+	 *
+	 * @return the nodes of the graph of this processor owning defaults
+	 *         which were added, removed, or changed
+	 */
+	private static Set<OpNode> findChangedDefaults(List<NodeDefault> oldDefaults, List<NodeDefault> newDefaults) {
+		final Map<OpNode, List<NodeDefault>> oldByOwner = new HashMap<>();
+		for(NodeDefault nodeDefault : oldDefaults)
+			oldByOwner.computeIfAbsent(nodeDefault.owner, owner -> new ArrayList<>()).add(nodeDefault);
+
+		final Map<OpNode, List<NodeDefault>> newByOwner = new HashMap<>();
+		for(NodeDefault nodeDefault : newDefaults)
+			newByOwner.computeIfAbsent(nodeDefault.owner, owner -> new ArrayList<>()).add(nodeDefault);
+
+		final Set<OpNode> changed = new HashSet<>();
+		for(Map.Entry<OpNode, List<NodeDefault>> entry : newByOwner.entrySet()) {
+			if(!entry.getValue().equals(oldByOwner.get(entry.getKey())))
+				changed.add(entry.getKey());
+		}
+		for(OpNode owner : oldByOwner.keySet()) {
+			if(!newByOwner.containsKey(owner))
+				changed.add(owner);
+		}
+		return changed;
+	}
+
 	/**
 	 * Adds inputs from incoming links to a given node's context.
 	 *
 	 * @param node  the node to create the inputs for
+	 * @param nodePlan  the execution plan for the node
 	 * @param context  the working context for this node
+	 * @param sourceContexts  the local contexts of nodes, indexed by processing order
 	 *
 	 * @throws ProcessingException  if the node has no working context
 	 * @throws RequiredInputException  if a value flowing into an input has an unacceptable type
 	 */
-	private void setupInputs(OpNode node, OpContext context)
+	private void setupInputs(OpNode node, NodePlan nodePlan, OpContext context, OpContext[] sourceContexts)
 		throws ProcessingException, RequiredInputException
 	{
+		// Store field values in slots
+		context.setLayout(nodePlan.getContextLayout());
+
 		// Check required inputs
-		checkInputs(node, context);
+		checkInputs(node, nodePlan, context, sourceContexts);
 
 		// Now set up the inputs
-		for(OpLink link : graph.getIncomingEdges(node)) {
-			final OpContext srcContext = globalContext.findChildContext(link.getSource());
+		for(int i = 0; i < nodePlan.getInputLinkCount(); ++i) {
+			final InputLink link = nodePlan.getInputLink(i);
+			final OpContext srcContext = sourceContexts[link.getSourceIndex()];
 			if(srcContext != null && srcContext.containsKey(link.getSourceField())) {
 				final Object val = srcContext.get(link.getSourceField());
 				final InputField dest = link.getDestinationField();
@@ -532,19 +1012,32 @@ public class Processor {
 		}
 	}
 
-	private void installNodeDefaults(OpGraph graph, OpContext context) {
+	/**
+	 * Finds the node defaults of a graph, and of any composite nodes in it.
+	 *
+	 * @param graph  the graph
+	 * @param context  the context holding the contexts of the nodes in the graph
+	 * @param owner  the node of the graph of this processor containing
+	 *               <code>graph</code>, or <code>null</code> for that graph itself
+	 * @param defaults  the list to add defaults to
+	 */
+	private void collectNodeDefaults(OpGraph graph, OpContext context, OpNode owner, List<NodeDefault> defaults) {
 		for(OpNode node : graph.getVertices()) {
+			final OpNode nodeOwner = (owner == null ? node : owner);
+
 			// Add defaults, if any exist
 			final NodeMetadata meta = node.getExtension(NodeMetadata.class);
 			if(meta != null) {
-				for(Map.Entry<InputField, Object> entry : meta.getDefaults().entrySet())
-					context.getChildContext(node).put(entry.getKey(), entry.getValue());
+				for(Map.Entry<InputField, Object> entry : meta.getDefaults().entrySet()) {
+					final OpContext nodeContext = context.getChildContext(node);
+					defaults.add(new NodeDefault(nodeOwner, nodeContext, entry.getKey(), entry.getValue()));
+				}
 			}
 
 			// If composite, recursively descend
 			final CompositeNode composite = node.getExtension(CompositeNode.class);
 			if(composite != null)
-				installNodeDefaults(composite.getGraph(), context.getChildContext(node));
+				collectNodeDefaults(composite.getGraph(), context.getChildContext(node), nodeOwner, defaults);
 		}
 	}
 
@@ -554,36 +1047,36 @@ public class Processor {
 	 * by the field's {@link TypeValidator}
 	 *
 	 * @param node  the node to create the inputs for
+	 * @param nodePlan  the execution plan for the node
 	 * @param context  the working context for this node
+	 * @param sourceContexts  the local contexts of nodes, indexed by processing order
 	 *
 	 * @throws ProcessingException  if the node has no working context
 	 * @throws RequiredInputException  if a value flowing into an input has an unacceptable type
 	 */
-	private void checkInputs(OpNode node, OpContext context)
+	private void checkInputs(OpNode node, NodePlan nodePlan, OpContext context, OpContext[] sourceContexts)
 		throws InvalidTypeException, RequiredInputException
 	{
-		for(InputField field : node.getInputFields()) {
+		for(int i = 0; i < nodePlan.getInputFieldCount(); ++i) {
+			final InputField field = nodePlan.getInputField(i);
+			final InputLink link = nodePlan.getFieldLink(i);
 			boolean linkFound = false;
-			for(OpLink link : graph.getIncomingEdges(node)) {
-				if(link.getDestinationField() == field) {
-					// Make sure this link actually has a value flowing through it
-					final OpContext sourceContext = globalContext.findChildContext(link.getSource());
-					if(sourceContext != null && sourceContext.containsKey(link.getSourceField())) {
-						final Object val = sourceContext.get(link.getSourceField());
-						linkFound = true;
-
-						if(field.getKey().equals("enabled") && !Boolean.parseBoolean(val.toString())) {
-							// don't process any more inputs, they will be ignored
-							return;
-						}
-
-						// Make sure value type is accepted at the destination field
-						final TypeValidator validator = field.getValidator();
-						if(validator != null && !validator.isAcceptable(val))
-							throw new InvalidTypeException(this, link.getDestinationField(), val);
-
-						break;
+			if(link != null) {
+				// Make sure this link actually has a value flowing through it
+				final OpContext sourceContext = sourceContexts[link.getSourceIndex()];
+				if(sourceContext != null && sourceContext.containsKey(link.getSourceField())) {
+					final Object val = sourceContext.get(link.getSourceField());
+					linkFound = true;
+
+					if(field.getKey().equals("enabled") && !Boolean.parseBoolean(val.toString())) {
+						// don't process any more inputs, they will be ignored
+						return;
 					}
+
+					// Make sure value type is accepted at the destination field
+					final TypeValidator validator = field.getValidator();
+					if(validator != null && !validator.isAcceptable(val))
+						throw new InvalidTypeException(this, field, val);
 				}
 			}
 
@@ -631,4 +1124,125 @@ public class Processor {
 		fireProcessorEvent(new ProcessorEvent(Type.COMPLETE, this, currentNode));
 	}
 	
+
+	/**
+	 * A default value installed into the context of a node.
+	 */
+	private static final class NodeDefault {
+		/** The node of the processor's graph which is, or contains, the node */
+		final OpNode owner;
+
+		final OpContext context;
+
+		final InputField field;
+
+		final Object value;
+
+		NodeDefault(OpNode owner, OpContext context, InputField field, Object value) {
+			this.owner = owner;
+			this.context = context;
+			this.field = field;
+			this.value = value;
+		}
+
+		void install() {
+			context.put(field, value);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof NodeDefault))
+				return false;
+
+			final NodeDefault other = (NodeDefault)obj;
+			return (owner == other.owner
+					&& context == other.context
+					&& field.equals(other.field)
+					&& Objects.equals(value, other.value));
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(System.identityHashCode(context), field, value);
+		}
+	}
+
+	/**
+	 * The nodes left to process, either the nodes of an {@link ExecutionPlan}
+	 * or a given list of nodes. The plan's node array is shared rather than
+	 * copied, so resetting the queue does not allocate. Nodes of the plan
+	 * which are not live are skipped.
+	 * 
+	 * Queues are only used by the thread stepping the processor and are not
+	 * synchronized.
+	 */
+	private static final class NodeQueue {
+
+		private ExecutionPlan plan;
+
+		private boolean[] live;
+
+		/** Nodes to process if there is no plan */
+		private List<OpNode> nodes;
+
+		private int position;
+
+		NodeQueue() {
+			this.nodes = Collections.emptyList();
+		}
+
+		NodeQueue(List<OpNode> nodes) {
+			this.nodes = nodes;
+		}
+
+		void reset(ExecutionPlan plan, boolean[] live) {
+			this.plan = plan;
+			this.live = live;
+			this.nodes = null;
+			this.position = 0;
+			skipPruned();
+		}
+
+		private int size() {
+			return (plan != null ? plan.size() : nodes.size());
+		}
+
+		private OpNode get(int index) {
+			return (plan != null ? plan.getNode(index) : nodes.get(index));
+		}
+
+		private void skipPruned() {
+			while(live != null && position < size() && !live[position])
+				++position;
+		}
+
+		OpNode poll() {
+			if(position >= size())
+				return null;
+
+			final OpNode node = get(position++);
+			skipPruned();
+			return node;
+		}
+
+		OpNode peek() {
+			return (position < size() ? get(position) : null);
+		}
+
+		boolean isEmpty() {
+			return position >= size();
+		}
+
+		/**
+		 * Removes all remaining nodes, adding them to the given list.
+		 *
+		 * @param list  the list to add nodes to, in processing order
+		 */
+		void drainTo(List<OpNode> list) {
+			while(!isEmpty())
+				list.add(poll());
+		}
+
+	}
+
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2012-2020 Gregory Hedlund <https://www.phon.ca>
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.opgraph;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A pool of {@link Processor}s for a single graph. Processors are reset,
+ * rather than constructed, when acquired so repeated runs of a graph
+ * (e.g., a macro inside of a loop) do not pay the cost of setting up a
+ * new processor. Changes to the structure of the graph are picked up when
+ * a processor is reset.
+ *
+ * A processor acquired from the pool is confined to the caller until it
+ * is released. The pool itself may be used from multiple threads.
+ */
+public class ProcessorPool {
+
+	/** The graph */
+	private final OpGraph graph;
+
+	/** Maximum number of idle processors kept by this pool */
+	private final int maxIdle;
+
+	/** Idle processors */
+	private final Deque<Processor> idleProcessors = new ConcurrentLinkedDeque<>();
+
+	/** Number of idle processors */
+	private final AtomicInteger idleCount = new AtomicInteger();
+
+	/**
+	 * Constructs a pool for the given graph which keeps up to one idle
+	 * processor per available processor.
+	 *
+	 * @param graph  the graph
+	 *
+	 * @throws NullPointerException  if the specified graph is <code>null</code>
+	 */
+	public ProcessorPool(OpGraph graph) {
+		this(graph, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructs a pool for the given graph.
+	 *
+	 * @param graph  the graph
+	 * @param maxIdle  the maximum number of idle processors to keep
+	 *
+	 * @throws NullPointerException  if the specified graph is <code>null</code>
+	 */
+	public ProcessorPool(OpGraph graph, int maxIdle) {
+		if(graph == null)
+			throw new NullPointerException("Graph cannot be null");
+		this.graph = graph;
+		this.maxIdle = maxIdle;
+	}
+
+	/**
+	 * Gets the graph processors in this pool operate on.
+	 *
+	 * @return the graph
+	 */
+	public OpGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * Gets a processor for the graph, reset to use the given context.
+	 *
+	 * @param context  the global context that should be used for processing,
+	 *                 or <code>null</code> if a default one should be used
+	 *
+	 * @return a processor
+	 */
+	public Processor acquire(OpContext context) {
+		final Processor processor = idleProcessors.pollFirst();
+		if(processor == null)
+			return new Processor(graph, context);
+
+		idleCount.decrementAndGet();
+		processor.reset(context);
+		return processor;
+	}
+
+	/**
+	 * Returns a processor to this pool. The processor must not be used
+	 * by the caller after it is released. Released processors no longer
+	 * refer to the context they were last used with.
+	 *
+	 * @param processor  the processor, which must have been acquired
+	 *                   from this pool
+	 *
+	 * @throws IllegalArgumentException  if the processor does not operate on
+	 *                                   the graph of this pool
+	 */
+	public void release(Processor processor) {
+		if(processor.getGraphOfContext() != graph)
+			throw new IllegalArgumentException("Processor does not belong to this pool");
+
+		processor.detachContext();
+		if(idleCount.incrementAndGet() <= maxIdle) {
+			idleProcessors.offerFirst(processor);
+		} else {
+			idleCount.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Removes all idle processors from this pool.
+	 */
+	public void clear() {
+		while(idleProcessors.pollFirst() != null)
+			idleCount.decrementAndGet();
+	}
+
+}
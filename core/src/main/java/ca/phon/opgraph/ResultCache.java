@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2012-2020 Gregory Hedlund <https://www.phon.ca>
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.opgraph;
+
+import java.util.*;
+
+import ca.phon.opgraph.extensions.*;
+
+/**
+ * A bounded, least-recently-used cache of node outputs used by
+ * {@link Processor} to skip operating {@link Cacheable} nodes whose inputs
+ * have been seen before.
+ *
+ * A cache is given to a processor with {@link Processor#setResultCache(ResultCache)},
+ * or put into a context under {@link #CONTEXT_KEY}, in which case it is also
+ * used by processors of macros operating in a child of that context.
+ *
+ * The cache may be shared between threads.
+ */
+public class ResultCache {
+
+	/** Context key under which processors look for a result cache */
+	public static final String CONTEXT_KEY = "__resultCache";
+
+	/** Default maximum number of entries */
+	public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+	/** Marker for outputs which were not set by the node */
+	private static final Object NO_VALUE = new Object();
+
+	/** Maximum number of entries */
+	private final int maxEntries;
+
+	/** Cached outputs, in access order */
+	private final LinkedHashMap<Key, Object[]> entries;
+
+	/** Number of lookups which found outputs */
+	private long hitCount;
+
+	/** Number of lookups which did not find outputs */
+	private long missCount;
+
+	/**
+	 * Constructs a cache which keeps up to {@value #DEFAULT_MAX_ENTRIES} entries.
+	 */
+	public ResultCache() {
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * Constructs a cache.
+	 *
+	 * @param maxEntries  the maximum number of entries kept before the
+	 *                    least recently used entry is evicted
+	 *
+	 * @throws IllegalArgumentException  if <code>maxEntries</code> is less than one
+	 */
+	public ResultCache(int maxEntries) {
+		if(maxEntries < 1)
+			throw new IllegalArgumentException("Cache must allow at least one entry");
+
+		this.maxEntries = maxEntries;
+		this.entries = new LinkedHashMap<Key, Object[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Object[]> eldest) {
+				return size() > ResultCache.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Gets the maximum number of entries in this cache.
+	 *
+	 * @return the maximum number of entries
+	 */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * Gets the number of entries in this cache.
+	 *
+	 * @return the number of entries
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Gets the number of lookups which found cached outputs.
+	 *
+	 * @return the hit count
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * Gets the number of lookups which did not find cached outputs.
+	 *
+	 * @return the miss count
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * Removes all entries and resets hit/miss counts.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		hitCount = 0;
+		missCount = 0;
+	}
+
+	/**
+	 * Creates the key for a node given the current values of its inputs.
+	 *
+	 * @param node  the node
+	 * @param cacheable  the cacheable extension of the node
+	 * @param nodePlan  the execution plan of the node
+	 * @param context  the local context of the node, with inputs set up
+	 *
+	 * @return the key
+	 */
+	static Key createKey(OpNode node, Cacheable cacheable, ExecutionPlan.NodePlan nodePlan, OpContext context) {
+		final Object[] inputs = new Object[nodePlan.getInputFieldCount()];
+		for(int i = 0; i < inputs.length; ++i)
+			inputs[i] = context.get(nodePlan.getInputField(i));
+		return new Key(node.getId(), cacheable.getCacheState(), inputs);
+	}
+
+	/**
+	 * Puts the cached outputs for the given key into a context.
+	 *
+	 * @param key  the key
+	 * @param node  the node the key was created for
+	 * @param context  the local context of the node
+	 *
+	 * @return <code>true</code> if outputs were found, <code>false</code> otherwise
+	 */
+	boolean restoreOutputs(Key key, OpNode node, OpContext context) {
+		final List<OutputField> outputFields = node.getOutputFields();
+		final Object[] outputs;
+		synchronized(this) {
+			outputs = entries.get(key);
+			if(outputs == null || outputs.length != outputFields.size()) {
+				++missCount;
+				return false;
+			}
+			++hitCount;
+		}
+
+		for(int i = 0; i < outputs.length; ++i) {
+			if(outputs[i] != NO_VALUE)
+				context.put(outputFields.get(i), outputs[i]);
+		}
+		return true;
+	}
+
+	/**
+	 * Stores the outputs a node put into a context.
+	 *
+	 * @param key  the key
+	 * @param node  the node the key was created for
+	 * @param context  the local context of the node
+	 */
+	void storeOutputs(Key key, OpNode node, OpContext context) {
+		final List<OutputField> outputFields = node.getOutputFields();
+		final Object[] outputs = new Object[outputFields.size()];
+		for(int i = 0; i < outputs.length; ++i) {
+			final OutputField field = outputFields.get(i);
+			outputs[i] = (context.isLocal(field) ? context.get(field) : NO_VALUE);
+		}
+
+		synchronized(this) {
+			entries.put(key, outputs);
+		}
+	}
+
+	/**
+	 * Key of a cache entry.
+	 */
+	static final class Key {
+		private final String nodeId;
+
+		private final Object state;
+
+		private final Object[] inputs;
+
+		private final int hash;
+
+		Key(String nodeId, Object state, Object[] inputs) {
+			this.nodeId = nodeId;
+			this.state = state;
+			this.inputs = inputs;
+			this.hash = 31 * (31 * nodeId.hashCode() + Objects.hashCode(state)) + Arrays.deepHashCode(inputs);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(obj == this)
+				return true;
+			if(!(obj instanceof Key))
+				return false;
+
+			final Key other = (Key)obj;
+			return (hash == other.hash
+					&& nodeId.equals(other.nodeId)
+					&& Objects.equals(state, other.state)
+					&& Arrays.deepEquals(inputs, other.inputs));
+		}
+	}
+}
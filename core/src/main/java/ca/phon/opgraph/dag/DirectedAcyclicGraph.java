@@ -17,7 +17,6 @@
 package ca.phon.opgraph.dag;
 
 import java.util.*;
-import java.util.stream.*;
 
 /**
  * A generic implementation of a directed acyclic graph (DAG). Topological
@@ -35,6 +34,9 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 
 	/** The edges in this DAG */
 	protected Set<E> edges;
+
+	/** Incoming and outgoing edges of each vertex, also used for vertex lookup */
+	private final Map<V, EdgeIndex<E>> edgeIndex;
 	
 	/** Allow multiple inputs 
 
@@ -45,9 +47,15 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 	 */
 	private Map<V, Integer> vertexLevels;
 
+	/** Cached, unmodifiable view of the sorted vertices */
+	private List<V> sortedVertices;
+
 	/** Whether or not the topological sorting needs to be performed */
 	private boolean shouldSort;
 
+	/** Incremented each time the structure or ordering of this graph changes */
+	private volatile long version;
+
 	/** Comparator for ordering of nodes within a level (default by toString()) */
 	private final Comparator<V> defaultVertexComparator = (v1, v2) -> {
 		final String name1 = v1.toString();
@@ -62,8 +70,46 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 	public DirectedAcyclicGraph() {
 		this.vertices = new ArrayList<V>();
 		this.edges = new LinkedHashSet<E>();
-		this.vertexLevels = new WeakHashMap<V, Integer>();
-		this.shouldSort = false;
+		this.edgeIndex = new HashMap<V, EdgeIndex<E>>();
+		this.vertexLevels = Collections.emptyMap();
+		this.sortedVertices = Collections.emptyList();
+		this.shouldSort = true;
+		this.version = 0L;
+	}
+
+	/**
+	 * Copy constructor. Creates a new graph with the same vertices
+	 * and edges as the given graph.
+	 *
+	 * @param toCopy  the graph to copy
+	 */
+	public DirectedAcyclicGraph(DirectedAcyclicGraph<V, E> toCopy) {
+		this();
+
+		this.vertices.addAll(toCopy.vertices);
+		this.edges.addAll(toCopy.edges);
+		for(Map.Entry<V, EdgeIndex<E>> entry : toCopy.edgeIndex.entrySet())
+			this.edgeIndex.put(entry.getKey(), new EdgeIndex<E>(entry.getValue()));
+		this.vertexComparator = toCopy.vertexComparator;
+	}
+
+	/**
+	 * Gets the version of this graph. The version is incremented each time
+	 * vertices or edges are added/removed, or the ordering is invalidated.
+	 * Callers which cache information derived from this graph can compare
+	 * versions to determine if their information is stale.
+	 *
+	 * @return the version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Marks this graph as modified by incrementing the version.
+	 */
+	protected void modified() {
+		++version;
 	}
 
 	/**
@@ -72,9 +118,11 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 	 * @param vertex  the vertex to add
 	 */
 	public void add(V vertex) {
-		if(!vertices.contains(vertex)) {
+		if(!edgeIndex.containsKey(vertex)) {
 			vertices.add(vertex);
+			edgeIndex.put(vertex, new EdgeIndex<E>());
 			shouldSort = true;
+			modified();
 		}
 	}
 
@@ -88,17 +136,21 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 	 *         <code>false</code> otherwise
 	 */
 	public boolean remove(V vertex) {
+		final EdgeIndex<E> index = edgeIndex.get(vertex);
+		if(index == null)
+			return false;
+
 		// Remove edges which reference this vertex
-		final ArrayList<E> edgesCopy = new ArrayList<E>(edges);
-		for(E edge : edgesCopy) {
-			if(edge.getSource() == vertex || edge.getDestination() == vertex)
-				remove(edge);
-		}
-		final boolean removed = vertices.remove(vertex);
-		if(removed) {
-			shouldSort = true;
-		}
-		return removed;
+		final List<E> vertexEdges = new ArrayList<E>(index.incoming);
+		vertexEdges.addAll(index.outgoing);
+		for(E edge : vertexEdges)
+			remove(edge);
+
+		edgeIndex.remove(vertex);
+		vertices.remove(vertex);
+		shouldSort = true;
+		modified();
+		return true;
 	}
 
 	/**
@@ -110,7 +162,7 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 	 *         <code>false</code> otherwise
 	 */
 	public boolean contains(V vertex) {
-		return vertices.contains(vertex);
+		return edgeIndex.containsKey(vertex);
 	}
 
 	/**
@@ -138,22 +190,25 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 	 * @throws InvalidEdgeException	  if another issue with the link is found
 	 */
 	public void add(E edge) throws VertexNotFoundException, CycleDetectedException, InvalidEdgeException {
-		if(!vertices.contains(edge.getSource()))
+		final EdgeIndex<E> sourceIndex = edgeIndex.get(edge.getSource());
+		if(sourceIndex == null)
 			throw new VertexNotFoundException(edge.getSource());
 
-		if(!vertices.contains(edge.getDestination()))
+		final EdgeIndex<E> destinationIndex = edgeIndex.get(edge.getDestination());
+		if(destinationIndex == null)
 			throw new VertexNotFoundException(edge.getDestination());
 
-		edges.add(edge);
+		if(edges.contains(edge))
+			return;
 
-		// Check if adding this edge created a cycle, and if so, remove it
-		boolean oldShouldSort = shouldSort;
-		shouldSort = true;
-		if(!topologicalSort()) {
-			edges.remove(edge);
-			shouldSort = oldShouldSort;
+		if(isReachable(edge.getDestination(), edge.getSource()))
 			throw new CycleDetectedException("adding edge creates a cycle");
-		}
+
+		edges.add(edge);
+		sourceIndex.addOutgoing(edge);
+		destinationIndex.addIncoming(edge);
+		shouldSort = true;
+		modified();
 	}
 
 	/**
@@ -166,21 +221,45 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 	 *         cycle, <code>false</code> otherwise
 	 */
 	public boolean canAddEdge(E edge) {
-		boolean canAdd = false;
-		if(vertices.contains(edge.getSource()) && vertices.contains(edge.getDestination())) {
-			final Set<E> testEdges = new HashSet<>(this.edges);
-			testEdges.add(edge);
-
-			// Test for cycle
-			final TopologicalSort<V, E> sorter = new TopologicalSort<>(getVertexComparator());
-			try {
-				sorter.sort(this.vertices, testEdges);
-				canAdd = true;
-			} catch (CycleDetectedException e) {
-				canAdd = false;
+		return edgeIndex.containsKey(edge.getSource())
+				&& edgeIndex.containsKey(edge.getDestination())
+				&& (edges.contains(edge) || !isReachable(edge.getDestination(), edge.getSource()));
+	}
+
+	/**
+	 * Determines if there is a path from one vertex to another. Only
+	 * vertices reachable from <code>from</code> are visited, so adding an
+	 * edge <code>{u, v}</code> costs time proportional to the part of the
+	 * graph downstream of <code>v</code>.
+	 *
+	 * @param from  the starting vertex
+	 * @param to  the vertex to find
+	 *
+	 * @return <code>true</code> if <code>to</code> is reachable from
+	 *         <code>from</code> (or both are the same vertex),
+	 *         <code>false</code> otherwise
+	 */
+	private boolean isReachable(V from, V to) {
+		if(from == to)
+			return true;
+
+		final Set<V> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+		final Deque<V> stack = new ArrayDeque<>();
+		visited.add(from);
+		stack.push(from);
+		while(!stack.isEmpty()) {
+			final V vertex = stack.pop();
+			final EdgeIndex<E> index = edgeIndex.get(vertex);
+			if(index == null) continue;
+			for(E edge : index.outgoing) {
+				final V destination = edge.getDestination();
+				if(destination == to)
+					return true;
+				if(visited.add(destination))
+					stack.push(destination);
 			}
 		}
-		return canAdd;
+		return false;
 	}
 
 	/**
@@ -192,11 +271,16 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 	 *         <code>false</code> otherwise
 	 */
 	public boolean remove(E edge) {
-		final int initalSize = edges.size();
-		edges.remove(edge);
-		final boolean removed = initalSize != edges.size();
+		final boolean removed = edges.remove(edge);
 		if(removed) {
+			final EdgeIndex<E> sourceIndex = edgeIndex.get(edge.getSource());
+			if(sourceIndex != null)
+				sourceIndex.removeOutgoing(edge);
+			final EdgeIndex<E> destinationIndex = edgeIndex.get(edge.getDestination());
+			if(destinationIndex != null)
+				destinationIndex.removeIncoming(edge);
 			shouldSort = true;
+			modified();
 		}
 		return removed;
 	}
@@ -209,7 +293,7 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 	 */
 	public List<V> getVertices() {
 		topologicalSort();
-		return Collections.unmodifiableList(vertices);
+		return sortedVertices;
 	}
 
 	/**
@@ -234,51 +318,70 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 	 * @return the level of the vertex, or -1 if the vertex is not in this graph
 	 */
 	public int getLevel(V vertex) {
-		if(!vertices.contains(vertex))
-			return -1;
-
 		topologicalSort();
 
-		int ret = -1;
-		if(vertexLevels.get(vertex) != null)
-			ret = vertexLevels.get(vertex);
-		return ret;
+		final Integer level = vertexLevels.get(vertex);
+		return (level == null ? -1 : level);
+	}
+
+	/**
+	 * Gets the level of every vertex in this graph.
+	 *
+	 * @return an immutable mapping of vertex to level
+	 *
+	 * @see #getLevel(Vertex)
+	 */
+	public Map<V, Integer> getVertexLevels() {
+		topologicalSort();
+		return vertexLevels;
 	}
 
 	/**
-	 * Gets the incoming {@link DirectedEdge}s for a {@link Vertex}.
+	 * Gets the incoming {@link DirectedEdge}s for a {@link Vertex}. Edges
+	 * are ordered by their source vertex using the vertex comparator.
 	 *
 	 * @param vertex  the vertex
 	 *
-	 * @return a {@link Set} of {@link DirectedEdge}s in this graph whose destination
-	 *         is <code>vertex</code>
+	 * @return an immutable {@link Set} of {@link DirectedEdge}s in this graph
+	 *         whose destination is <code>vertex</code>
 	 */
 	public Set<E> getIncomingEdges(V vertex) {
-		if(!vertices.contains(vertex))
-			return new LinkedHashSet<E>();
-
-		return edges.parallelStream()
-			.filter( (l) -> l.getDestination() == vertex )
-			.sorted( (l1, l2) -> getVertexComparator().compare(l1.getSource(), l2.getSource()) )
-			.collect(Collectors.toCollection(LinkedHashSet::new));
+		final EdgeIndex<E> index = edgeIndex.get(vertex);
+		if(index == null)
+			return Collections.emptySet();
+
+		Set<E> view = index.incomingView;
+		if(view == null) {
+			final List<E> sorted = new ArrayList<>(index.incoming);
+			sorted.sort( (l1, l2) -> getVertexComparator().compare(l1.getSource(), l2.getSource()) );
+			view = Collections.unmodifiableSet(new LinkedHashSet<>(sorted));
+			index.incomingView = view;
+		}
+		return view;
 	}
 
 	/**
-	 * Gets the outgoing {@link DirectedEdge}s for a {@link Vertex}.
+	 * Gets the outgoing {@link DirectedEdge}s for a {@link Vertex}. Edges
+	 * are ordered by their destination vertex using the vertex comparator.
 	 *
 	 * @param vertex  the vertex
 	 *
-	 * @return a {@link Set} of {@link DirectedEdge}s in this graph whose source is
-	 *         the <code>vertex</code>
+	 * @return an immutable {@link Set} of {@link DirectedEdge}s in this graph
+	 *         whose source is the <code>vertex</code>
 	 */
 	public Set<E> getOutgoingEdges(V vertex) {
-		if(!vertices.contains(vertex))
-			return new LinkedHashSet<E>();
-
-		return edges.parallelStream()
-			.filter( (l) -> l.getSource() == vertex )
-			.sorted( (l1, l2) -> getVertexComparator().compare(l1.getDestination(), l2.getDestination()) )
-			.collect(Collectors.toCollection(LinkedHashSet::new));
+		final EdgeIndex<E> index = edgeIndex.get(vertex);
+		if(index == null)
+			return Collections.emptySet();
+
+		Set<E> view = index.outgoingView;
+		if(view == null) {
+			final List<E> sorted = new ArrayList<>(index.outgoing);
+			sorted.sort( (l1, l2) -> getVertexComparator().compare(l1.getDestination(), l2.getDestination()) );
+			view = Collections.unmodifiableSet(new LinkedHashSet<>(sorted));
+			index.outgoingView = view;
+		}
+		return view;
 	}
 
 	/**
@@ -289,6 +392,7 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 	 */
 	public void setVertexComparator(Comparator<V> comparator) {
 		this.vertexComparator = comparator;
+		invalidateSort();
 	}
 
 	/**
@@ -325,22 +429,33 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 		};
 	}
 
+	/**
+	 * Forces the vertices to be sorted again on next access. Should be called
+	 * when information used by the vertex comparator has changed.
+	 */
 	public void invalidateSort() {
 		this.shouldSort = true;
+		for(EdgeIndex<E> index : edgeIndex.values())
+			index.invalidateViews();
+		modified();
 	}
 
 	/**
 	 * Topologically orders the vertices in this DAG. A topological ordering
 	 * is an ordering of a DAG's vertices such that for any edge
 	 * <tt>{u, v}</tt>, the vertex <tt>u</tt> comes before the vertex
-	 * <tt>v</tt> in the ordering.
+	 * <tt>v</tt> in the ordering. Sorting is only performed if the graph
+	 * has been modified since the last sort.
 	 *
 	 * @return <code>true</code> if sorting was successful, <code>false</code>
 	 *         otherwise (because a cycle exists).
 	 *
 	 * @see <a href="http://en.wikipedia.org/wiki/Topological_sorting">Wikipedia Article</a>
 	 */
-	public boolean topologicalSort() {
+	public synchronized boolean topologicalSort() {
+		if(!shouldSort)
+			return true;
+
 		boolean ret = true;
 
 		final TopologicalSort<V, E> sorter = new TopologicalSort<V, E>(getVertexComparator());
@@ -348,7 +463,8 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 			sorter.sort(this);
 
 			this.vertices = new ArrayList<>(sorter.getVertexOrder());
-			this.vertexLevels = new WeakHashMap<>(sorter.getVertexLevels());
+			this.sortedVertices = Collections.unmodifiableList(this.vertices);
+			this.vertexLevels = Collections.unmodifiableMap(new HashMap<>(sorter.getVertexLevels()));
 			shouldSort = false;
 		} catch (CycleDetectedException e) {
 			ret = false;
@@ -357,4 +473,55 @@ public class DirectedAcyclicGraph<V extends Vertex, E extends DirectedEdge<V>>
 		return ret;
 	}
 
+	/**
+	 * Incoming and outgoing edges of a vertex along with cached,
+	 * sorted views of each.
+	 */
+	private static class EdgeIndex<E> {
+
+		private final Set<E> incoming;
+
+		private final Set<E> outgoing;
+
+		private Set<E> incomingView;
+
+		private Set<E> outgoingView;
+
+		public EdgeIndex() {
+			this.incoming = new LinkedHashSet<>();
+			this.outgoing = new LinkedHashSet<>();
+		}
+
+		public EdgeIndex(EdgeIndex<E> toCopy) {
+			this.incoming = new LinkedHashSet<>(toCopy.incoming);
+			this.outgoing = new LinkedHashSet<>(toCopy.outgoing);
+		}
+
+		public void addIncoming(E edge) {
+			incoming.add(edge);
+			incomingView = null;
+		}
+
+		public void removeIncoming(E edge) {
+			incoming.remove(edge);
+			incomingView = null;
+		}
+
+		public void addOutgoing(E edge) {
+			outgoing.add(edge);
+			outgoingView = null;
+		}
+
+		public void removeOutgoing(E edge) {
+			outgoing.remove(edge);
+			outgoingView = null;
+		}
+
+		public void invalidateViews() {
+			incomingView = null;
+			outgoingView = null;
+		}
+
+	}
+
 }
@@ -17,7 +17,6 @@
 package ca.phon.opgraph.dag;
 
 import java.util.*;
-import java.util.stream.*;
 
 /**
  * Topologically orders the vertices in a DAG. A topological ordering
@@ -89,68 +88,92 @@ public class TopologicalSort<V extends Vertex, E extends DirectedEdge<V>> {
 		sort(graph.vertices, graph.edges);
 	}
 	
+	/**
+	 * Sorts the given vertices. Vertices are processed one level at a time
+	 * (Kahn's algorithm) where the level of a vertex is one more than the
+	 * maximum level of the sources of its incoming edges. Vertices within
+	 * the same level are ordered using the vertex comparator.
+	 *
+	 * Sorting runs in <code>O(V + E)</code> time, excluding the cost of
+	 * ordering vertices within each level.
+	 *
+	 * @param vertices  the vertices
+	 * @param edges  the edges, edges with a vertex not contained in
+	 *               <code>vertices</code> are ignored
+	 *
+	 * @throws CycleDetectedException  if the edges contain a cycle
+	 */
 	public void sort(List<V> vertices, Set<E> edges) throws CycleDetectedException {
 		reset();
-		
-		final ArrayList<V> orderedVertices = new ArrayList<V>();
-		final WeakHashMap<V, Integer> newLevels = new WeakHashMap<V, Integer>();
-		final HashMap<V, Integer> incomingEdgeCount = new HashMap<V, Integer>();
 
-		for(V vertex : vertices)
-			incomingEdgeCount.put(vertex, 0);
+		final int vertexCount = vertices.size();
+		final List<V> vertexList = new ArrayList<>(vertices);
+		final Map<V, Integer> vertexIndices = new HashMap<>(vertexCount * 2);
+		for(int i = 0; i < vertexCount; ++i)
+			vertexIndices.put(vertexList.get(i), i);
 
-		// Gather initial incoming edge count
+		// Build forward adjacency lists in a compact form: the destinations
+		// of vertex i are targets[offsets[i]] to targets[offsets[i+1] - 1]
+		final int[] edgeSources = new int[edges.size()];
+		final int[] edgeDestinations = new int[edges.size()];
+		final int[] offsets = new int[vertexCount + 1];
+		final int[] incomingEdgeCount = new int[vertexCount];
+		int edgeCount = 0;
 		for(E edge : edges) {
-			int count = incomingEdgeCount.get(edge.getDestination());
-			incomingEdgeCount.put(edge.getDestination(), count + 1);
+			final Integer source = vertexIndices.get(edge.getSource());
+			final Integer destination = vertexIndices.get(edge.getDestination());
+			if(source == null || destination == null) continue;
+
+			edgeSources[edgeCount] = source;
+			edgeDestinations[edgeCount] = destination;
+			++edgeCount;
+
+			++offsets[source + 1];
+			++incomingEdgeCount[destination];
 		}
+		for(int i = 0; i < vertexCount; ++i)
+			offsets[i + 1] += offsets[i];
 
-		// Ordering
-		for(int level = 0; orderedVertices.size() < vertices.size(); ++level) {
-			// Find a vertex with zero incoming edges
-			List<V> verticesToProcess = 
-					incomingEdgeCount.entrySet().parallelStream()
-						.filter( (e) -> e.getValue() == 0 )
-						.map( (e) -> e.getKey() )
-						.collect(Collectors.toList());
-
-			if(verticesToProcess.size() == 0)
-				break;
-
-			final List<V> levelOrdering = new ArrayList<>();
-			for(V vertex : verticesToProcess) {
-				// Prevent reuse of this vertex
-				levelOrdering.add(vertex);
+		final int[] targets = new int[edgeCount];
+		final int[] position = Arrays.copyOf(offsets, vertexCount);
+		for(int i = 0; i < edgeCount; ++i)
+			targets[position[edgeSources[i]]++] = edgeDestinations[i];
+
+		final ArrayList<V> orderedVertices = new ArrayList<V>(vertexCount);
+		final Map<V, Integer> newLevels = new HashMap<V, Integer>(vertexCount * 2);
+
+		// Ready queue for the current level
+		List<V> levelOrdering = new ArrayList<>();
+		for(int i = 0; i < vertexCount; ++i) {
+			if(incomingEdgeCount[i] == 0)
+				levelOrdering.add(vertexList.get(i));
+		}
+
+		for(int level = 0; !levelOrdering.isEmpty(); ++level) {
+			levelOrdering.sort(getVertexComparator());
+
+			final List<V> nextLevel = new ArrayList<>();
+			for(V vertex : levelOrdering) {
+				orderedVertices.add(vertex);
 				newLevels.put(vertex, level);
-				incomingEdgeCount.put(vertex, -1);
 
-				Set<E> outgoingEdges = 
-						edges.parallelStream()
-						.filter( e -> e.getSource() == vertex )
-						.collect(Collectors.toSet());
 				// Reduce incoming edge count after removing vertex
-				for(E edge : outgoingEdges) {
-					V out = edge.getDestination();
-					incomingEdgeCount.put(out, incomingEdgeCount.get(out) - 1);
+				final int index = vertexIndices.get(vertex);
+				for(int i = offsets[index]; i < offsets[index + 1]; ++i) {
+					final int out = targets[i];
+					if(--incomingEdgeCount[out] == 0)
+						nextLevel.add(vertexList.get(out));
 				}
 			}
-			levelOrdering.sort(getVertexComparator());
-			orderedVertices.addAll(levelOrdering);
-		}
-
-		boolean cycleExists = false;
-		for(Integer value : incomingEdgeCount.values()) {
-			if(value > 0) {
-				cycleExists = true;
-				break;
-			}
+			levelOrdering = nextLevel;
 		}
 
-		if(cycleExists)
+		// any vertex which was not reached is part of (or depends on) a cycle
+		if(orderedVertices.size() < vertexCount)
 			throw new CycleDetectedException();
-		
+
 		this.vertexLevels = newLevels;
 		this.orderedVertices = orderedVertices;
 	}
-	
+
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2012-2020 Gregory Hedlund <https://www.phon.ca>
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.opgraph.extensions;
+
+import ca.phon.opgraph.*;
+
+/**
+ * An extension for {@link OpNode}s whose outputs depend only on their
+ * inputs and configuration. When a {@link ResultCache} is available to a
+ * {@link Processor}, nodes with this extension are keyed on their id, their
+ * cache state and the values of their inputs; if outputs were already
+ * computed for that key, {@link OpNode#operate(OpContext)} is skipped and
+ * the cached outputs are used instead.
+ *
+ * Input values are compared with {@link Object#equals(Object)}, so only
+ * nodes whose inputs are values (numbers, strings, immutable collections)
+ * benefit from caching.
+ */
+public interface Cacheable {
+	/**
+	 * Gets a value describing the configuration of the node (e.g., an
+	 * expression) which, together with the inputs, determines its outputs.
+	 * Cached outputs are only reused while this value is equal to the
+	 * value at the time they were computed.
+	 *
+	 * @return the cache state, or <code>null</code> if the outputs only
+	 *         depend on the inputs
+	 */
+	public abstract Object getCacheState();
+}
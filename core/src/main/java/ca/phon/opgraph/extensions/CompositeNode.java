@@ -42,5 +42,15 @@ public interface CompositeNode {
 	 * @return is graph linked or embedded
 	 */
 	public abstract boolean isGraphEmbedded();
+
+	/**
+	 * Is graph shared with other nodes. Shared graphs are not modified,
+	 * so graphs containing this node do not listen for changes to it.
+	 * 
+	 * @return <code>true</code> if the graph is shared, <code>false</code> otherwise
+	 */
+	public default boolean isGraphShared() {
+		return false;
+	}
 	
 }
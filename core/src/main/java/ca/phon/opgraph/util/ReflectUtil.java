@@ -18,9 +18,130 @@ package ca.phon.opgraph.util;
 
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class ReflectUtil {
 
+	/**
+	 * Primitive types by name
+	 */
+	private static final Map<String, Class<?>> PRIMITIVE_TYPES = Map.of(
+			"boolean", boolean.class, "char", char.class, "byte", byte.class, "short", short.class,
+			"int", int.class, "long", long.class, "float", float.class, "double", double.class);
+
+	/**
+	 * Member metadata for each class. Values are stored with the class, so they
+	 * do not prevent classes (or their class loaders) from being unloaded.
+	 */
+	private static final ClassValue<ClassMembers> CLASS_MEMBERS = new ClassValue<ClassMembers>() {
+		@Override
+		protected ClassMembers computeValue(Class<?> type) {
+			return new ClassMembers(type);
+		}
+	};
+
+	/**
+	 * Resolved members of a class, computed once and shared by all threads.
+	 */
+	private static class ClassMembers {
+
+		private final Class<?> clazz;
+
+		/** Methods by signature */
+		private final ConcurrentMap<String, Method> methods = new ConcurrentHashMap<>();
+
+		/** Constructors by signature */
+		private final ConcurrentMap<String, Constructor<?>> constructors = new ConcurrentHashMap<>();
+
+		private volatile List<Method> staticMethods;
+
+		private volatile List<Method> instanceMethods;
+
+		private volatile List<Field> staticFields;
+
+		private volatile List<Field> instanceFields;
+
+		ClassMembers(Class<?> clazz) {
+			this.clazz = clazz;
+		}
+
+		Method getMethod(String methodSig) throws ClassNotFoundException, SecurityException, NoSuchMethodException {
+			Method retVal = methods.get(methodSig);
+			if(retVal == null) {
+				final String methodName = getMethodNameFromSignature(methodSig);
+				final Class<?>[] paramTypes = getParametersFromSignature(methodSig, clazz.getClassLoader());
+				retVal = clazz.getMethod(methodName, paramTypes);
+				final Method existing = methods.putIfAbsent(methodSig, retVal);
+				if(existing != null) retVal = existing;
+			}
+			return retVal;
+		}
+
+		Constructor<?> getConstructor(String cstrSig) throws ClassNotFoundException, SecurityException, NoSuchMethodException {
+			Constructor<?> retVal = constructors.get(cstrSig);
+			if(retVal == null) {
+				final Class<?>[] paramTypes = getParametersFromSignature(cstrSig, clazz.getClassLoader());
+				retVal = clazz.getConstructor(paramTypes);
+				final Constructor<?> existing = constructors.putIfAbsent(cstrSig, retVal);
+				if(existing != null) retVal = existing;
+			}
+			return retVal;
+		}
+
+		List<Method> getStaticMethods() {
+			if(staticMethods == null) {
+				final List<Method> retVal = new ArrayList<Method>();
+				for(Method method:clazz.getMethods()) {
+					if(Modifier.isStatic(method.getModifiers())) {
+						retVal.add(method);
+					}
+				}
+				staticMethods = Collections.unmodifiableList(retVal);
+			}
+			return staticMethods;
+		}
+
+		List<Method> getInstanceMethods() {
+			if(instanceMethods == null) {
+				final List<Method> retVal = new ArrayList<Method>();
+				for(Method method:clazz.getMethods()) {
+					if(!Modifier.isStatic(method.getModifiers())) {
+						retVal.add(method);
+					}
+				}
+				instanceMethods = Collections.unmodifiableList(retVal);
+			}
+			return instanceMethods;
+		}
+
+		List<Field> getStaticFields() {
+			if(staticFields == null) {
+				final List<Field> retVal = new ArrayList<Field>();
+				for(Field field:clazz.getFields()) {
+					if(Modifier.isStatic(field.getModifiers())) {
+						retVal.add(field);
+					}
+				}
+				staticFields = Collections.unmodifiableList(retVal);
+			}
+			return staticFields;
+		}
+
+		List<Field> getInstanceFields() {
+			if(instanceFields == null) {
+				final List<Field> retVal = new ArrayList<Field>();
+				for(Field field:clazz.getFields()) {
+					if(!Modifier.isStatic(field.getModifiers())) {
+						retVal.add(field);
+					}
+				}
+				instanceFields = Collections.unmodifiableList(retVal);
+			}
+			return instanceFields;
+		}
+
+	}
+
 	public static String parametersAsString(Method method) {
 		return parametersAsString(method, false);
 	}
@@ -99,6 +220,19 @@ public class ReflectUtil {
 	 *
 	 */
 	public static Class<?>[] getParametersFromSignature(String sig) throws ClassNotFoundException {
+		return getParametersFromSignature(sig, null);
+	}
+
+	/**
+	 * Get parameters from signature, loading parameter types with the given
+	 * class loader first.
+	 *
+	 * @param sig
+	 * @param classLoader  class loader used to load parameter types, may be <code>null</code>
+	 * @return
+	 * @throws ClassNotFoundException
+	 */
+	private static Class<?>[] getParametersFromSignature(String sig, ClassLoader classLoader) throws ClassNotFoundException {
 		Class<?> retVal[] = new Class<?>[0];
 		final String paramString =
 				sig.substring(sig.indexOf('(')+1, sig.lastIndexOf(')')).trim();
@@ -106,16 +240,19 @@ public class ReflectUtil {
 			final String[] paramClassNames = paramString.split(",");
 			retVal = new Class<?>[paramClassNames.length];
 			for(int i = 0; i < paramClassNames.length; i++) {
-				final String paramClassName = paramClassNames[i];
-
-				if(paramClassName.equals("int")) {
-					retVal[i] = int.class;
-				} else if(paramClassName.equals("double")) {
-					retVal[i] = double.class;
-				} else if(paramClassName.equals("float")) {
-					retVal[i] = float.class;
+				final String paramClassName = paramClassNames[i].trim();
+
+				final Class<?> primitiveType = PRIMITIVE_TYPES.get(paramClassName);
+				if(primitiveType != null) {
+					retVal[i] = primitiveType;
+				} else if(classLoader != null) {
+					try {
+						retVal[i] = Class.forName(paramClassName, false, classLoader);
+					} catch (ClassNotFoundException e) {
+						retVal[i] = Class.forName(paramClassName);
+					}
 				} else {
-					retVal[i] = Class.forName(paramClassName.trim());
+					retVal[i] = Class.forName(paramClassName);
 				}
 			}
 		}
@@ -143,14 +280,7 @@ public class ReflectUtil {
 	 * @throws SecurityException
 	 */
 	public static Method getMethodFromSignature(Class<?> clazz, String methodSig) throws ClassNotFoundException, SecurityException, NoSuchMethodException {
-		Method retVal = null;
-
-		final String methodName = getMethodNameFromSignature(methodSig);
-		final Class<?>[] paramTypes = getParametersFromSignature(methodSig);
-
-		retVal = clazz.getMethod(methodName, paramTypes);
-
-		return retVal;
+		return CLASS_MEMBERS.get(clazz).getMethod(methodSig);
 	}
 
 	/**
@@ -164,18 +294,12 @@ public class ReflectUtil {
 	 * @throws SecurityException
 	 */
 	public static Constructor<?> getConstructorFromSignature(Class<?> clazz, String cstrSig) throws ClassNotFoundException, SecurityException, NoSuchMethodException {
-		Constructor<?> retVal = null;
-
 		final String methodName = getMethodNameFromSignature(cstrSig);
 		if(!methodName.equals("<init>")) {
 			throw new IllegalArgumentException("Not a constructor signature");
 		}
 
-		final Class<?>[] paramTypes = getParametersFromSignature(cstrSig);
-
-		retVal = clazz.getConstructor(paramTypes);
-
-		return retVal;
+		return CLASS_MEMBERS.get(clazz).getConstructor(cstrSig);
 	}
 
 	public static String getSignature(Constructor<?> cstr) {
@@ -193,13 +317,7 @@ public class ReflectUtil {
 	 * @return list of all static method members
 	 */
 	public static List<Method> getStaticMethods(Class<?> clazz) {
-		List<Method> methods = new ArrayList<Method>();
-	    for (Method method : clazz.getMethods()) {
-	        if (Modifier.isStatic(method.getModifiers())) {
-	            methods.add(method);
-	        }
-	    }
-	    return Collections.unmodifiableList(methods);
+		return CLASS_MEMBERS.get(clazz).getStaticMethods();
 	}
 
 	/**
@@ -209,13 +327,7 @@ public class ReflectUtil {
 	 * @return list of all non-static method members
 	 */
 	public static List<Method> getInstanceMethods(Class<?> clazz) {
-		List<Method> methods = new ArrayList<Method>();
-		for(Method method:clazz.getMethods()) {
-			if(!Modifier.isStatic(method.getModifiers())) {
-				methods.add(method);
-			}
-		}
-		return Collections.unmodifiableList(methods);
+		return CLASS_MEMBERS.get(clazz).getInstanceMethods();
 	}
 
 	/**
@@ -225,13 +337,7 @@ public class ReflectUtil {
 	 * @return list of static field members
 	 */
 	public static List<Field> getStaticFields(Class<?> clazz) {
-		List<Field> retVal = new ArrayList<Field>();
-		for(Field field:clazz.getFields()) {
-			if(Modifier.isStatic(field.getModifiers())) {
-				retVal.add(field);
-			}
-		}
-		return Collections.unmodifiableList(retVal);
+		return CLASS_MEMBERS.get(clazz).getStaticFields();
 	}
 
 	/**
@@ -241,13 +347,7 @@ public class ReflectUtil {
 	 * @return list of non-static field members
 	 */
 	public static List<Field> getInstanceFields(Class<?> clazz) {
-		List<Field> retVal = new ArrayList<Field>();
-		for(Field field:clazz.getFields()) {
-			if(!Modifier.isStatic(field.getModifiers())) {
-				retVal.add(field);
-			}
-		}
-		return Collections.unmodifiableList(retVal);
+		return CLASS_MEMBERS.get(clazz).getInstanceFields();
 	}
 
 	/**
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2012-2020 Gregory Hedlund <https://www.phon.ca>
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.opgraph.validators;
+
+import java.util.*;
+import java.util.stream.*;
+
+/**
+ * A validator for sequences which may only be traversed once, such as an
+ * {@link Iterator}, {@link Spliterator} or {@link Stream}. {@link Iterable}s
+ * and arrays are also accepted.
+ *
+ * Unlike {@link IterableValidator}, this validator does not look at the
+ * elements of a sequence, as doing so would consume it. Elements should
+ * instead be checked using {@link #getElementValidator()} as they are taken
+ * from the sequence.
+ */
+public class SequenceValidator implements TypeValidator {
+	/** The validator used for sequence elements */
+	private TypeValidator elementValidator;
+
+	/**
+	 * Constructs this validator with the given validator to use against
+	 * sequence elements.
+	 * 
+	 * @param elementValidator  the {@link TypeValidator} to use on sequence
+	 *                          elements, or <code>null</code> to accept any element
+	 */
+	public SequenceValidator(TypeValidator elementValidator) {
+		this.elementValidator = elementValidator;
+	}
+
+	/**
+	 * Gets the validator used for sequence elements.
+	 * 
+	 * @return the element validator, or <code>null</code> if any element
+	 *         is accepted
+	 */
+	public TypeValidator getElementValidator() {
+		return elementValidator;
+	}
+
+	//
+	// TypeValidator
+	//
+
+	@Override
+	public boolean isAcceptable(Object obj) {
+		if(obj == null) return true;
+		return isAcceptable(obj.getClass());
+	}
+
+	@Override
+	public boolean isAcceptable(Class<?> cls) {
+		if(cls == null)
+			throw new NullPointerException("cls cannot be null");
+		return (Iterable.class.isAssignableFrom(cls)
+				|| Iterator.class.isAssignableFrom(cls)
+				|| Spliterator.class.isAssignableFrom(cls)
+				|| BaseStream.class.isAssignableFrom(cls)
+				|| Object[].class.isAssignableFrom(cls));
+	}
+}
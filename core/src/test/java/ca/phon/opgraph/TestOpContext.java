@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2012-2020 Gregory Hedlund <https://www.phon.ca>
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.opgraph;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+/**
+ * Tests {@link OpContext}.
+ */
+public class TestOpContext {
+
+	/**
+	 * Values stored in slots are visible through the map API and
+	 * slot keys fall back to the parent context.
+	 */
+	@Test
+	public void testSlotLayout() {
+		final InputField input = new InputField("in", "input");
+		final OutputField output = new OutputField("out", "output", true, Object.class);
+
+		final OpContext parent = new OpContext();
+		parent.put("in", "parent");
+		parent.put("global", 1);
+
+		final OpContext context = new OpContext(parent);
+		context.put("out", "before");
+		context.put("other", 2);
+		context.setLayout(new ContextLayout(Arrays.asList(input, output)));
+
+		assertEquals("before", context.get(output));
+		assertEquals("parent", context.get(input));
+		assertFalse(context.isLocal(input));
+
+		context.put(input, "local");
+		assertEquals("local", context.get("in"));
+		assertTrue(context.isLocal("in"));
+		assertEquals(3, context.size());
+
+		final Map<String, Object> expected = new HashMap<>();
+		expected.put("in", "local");
+		expected.put("out", "before");
+		expected.put("other", 2);
+		expected.put("global", 1);
+		assertEquals(expected, new HashMap<>(context));
+
+		context.remove(input);
+		assertEquals("parent", context.get(input));
+
+		// moving back to map storage keeps values
+		context.setLayout(null);
+		assertEquals("before", context.get("out"));
+		assertEquals(2, context.size());
+
+		context.setLayout(new ContextLayout(Arrays.asList(input, output)));
+		context.clear();
+		assertTrue(context.isEmpty());
+		assertNull(context.get(output));
+	}
+
+	/**
+	 * Child contexts are found at any depth and are no longer found
+	 * once cleared.
+	 */
+	@Test
+	public void testFindChildContext() {
+		final OpNode macro = new EmptyNode();
+		final OpNode inner = new EmptyNode();
+		final OpNode other = new EmptyNode();
+
+		final OpContext global = new OpContext();
+		final OpContext macroContext = global.getChildContext(macro);
+		final OpContext innerContext = macroContext.getChildContext(inner);
+
+		assertSame(macroContext, global.findChildContext(macro));
+		assertSame(innerContext, global.findChildContext(inner));
+		assertSame(innerContext, macroContext.findChildContext(inner));
+		assertNull(innerContext.findChildContext(macro));
+		assertNull(global.findChildContext(other));
+
+		macroContext.clearChildContexts();
+		assertNull(global.findChildContext(inner));
+
+		final OpContext newInnerContext = macroContext.getChildContext(inner);
+		assertNotSame(innerContext, newInnerContext);
+		assertSame(newInnerContext, global.findChildContext(inner));
+
+		global.clear();
+		assertNull(global.findChildContext(macro));
+		assertNull(global.findChildContext(inner));
+	}
+
+	private static class EmptyNode extends OpNode {
+		@Override
+		public void operate(OpContext context) {
+		}
+	}
+
+}
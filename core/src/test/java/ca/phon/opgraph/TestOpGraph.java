@@ -18,9 +18,13 @@ package ca.phon.opgraph;
 
 import static org.junit.Assert.*;
 
+import java.util.*;
+import java.util.concurrent.*;
+
 import org.junit.*;
 
 import ca.phon.opgraph.exceptions.*;
+import ca.phon.opgraph.extensions.*;
 
 /**
  * Tests {@link OpGraph}.
@@ -380,4 +384,432 @@ public class TestOpGraph {
 			fail("Should be no errors when processing");
 		}
 	}
+
+	/**
+	 * Tests processing of independent branches with a {@link ParallelProcessor}.
+	 */
+	@Test
+	public void testParallelProcessing() throws InterruptedException {
+		final OpGraph dag = new OpGraph();
+		final List<MultiplyNode> branches = new ArrayList<>();
+		for(int i = 0; i < 32; ++i) {
+			final ConstantNode cv1 = new ConstantNode(i);
+			final ConstantNode cv2 = new ConstantNode(2.0);
+			final AddNode av1 = new AddNode();
+			final MultiplyNode mv1 = new MultiplyNode();
+			dag.add(cv1);
+			dag.add(cv2);
+			dag.add(av1);
+			dag.add(mv1);
+
+			// (i + 2)*2
+			assertNotNull(dag.connect(cv1, ConstantNode.VALUE_FIELD, av1, AddNode.X_FIELD));
+			assertNotNull(dag.connect(cv2, ConstantNode.VALUE_FIELD, av1, AddNode.Y_FIELD));
+			assertNotNull(dag.connect(av1, AddNode.RESULT_FIELD, mv1, MultiplyNode.X_FIELD));
+			assertNotNull(dag.connect(cv2, ConstantNode.VALUE_FIELD, mv1, MultiplyNode.Y_FIELD));
+			branches.add(mv1);
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final ParallelProcessor processor = new ParallelProcessor(dag, executor);
+			processor.stepAll();
+			assertNull(processor.getError());
+			assertFalse(processor.hasNext());
+
+			for(int i = 0; i < branches.size(); ++i) {
+				final OpContext context = processor.getContext().findChildContext(branches.get(i));
+				assertEquals((i + 2.0) * 2.0, (Double)context.get(MultiplyNode.RESULT_FIELD), 1e-10);
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * A {@link ParallelProcessor} run from a worker of the fork/join pool
+	 * operating its nodes does not starve the pool.
+	 */
+	@Test
+	public void testParallelProcessingInPool() throws Exception {
+		final OpGraph dag = new OpGraph();
+		final ConstantNode cv1 = new ConstantNode(1.0);
+		final ConstantNode cv2 = new ConstantNode(2.0);
+		final AddNode av = new AddNode();
+		dag.add(cv1);
+		dag.add(cv2);
+		dag.add(av);
+		assertNotNull(dag.connect(cv1, ConstantNode.VALUE_FIELD, av, AddNode.X_FIELD));
+		assertNotNull(dag.connect(cv2, ConstantNode.VALUE_FIELD, av, AddNode.Y_FIELD));
+
+		final ForkJoinPool pool = new ForkJoinPool(1);
+		try {
+			final Future<Double> result = pool.submit( () -> {
+				final ParallelProcessor processor = new ParallelProcessor(dag, pool);
+				processor.stepAll();
+				return (Double)processor.getContext().findChildContext(av).get(AddNode.RESULT_FIELD);
+			});
+			assertEquals(3.0, result.get(10, TimeUnit.SECONDS), 1e-10);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Tests reuse of processors from a {@link ProcessorPool}.
+	 */
+	@Test
+	public void testProcessorPool() {
+		final OpGraph dag = new OpGraph();
+		final ConstantNode cv1 = new ConstantNode(1.0);
+		final ConstantNode cv2 = new ConstantNode(2.0);
+		final AddNode av = new AddNode();
+		dag.add(cv1);
+		dag.add(cv2);
+		dag.add(av);
+		assertNotNull(dag.connect(cv1, ConstantNode.VALUE_FIELD, av, AddNode.X_FIELD));
+		final OpLink yLink = dag.connect(cv2, ConstantNode.VALUE_FIELD, av, AddNode.Y_FIELD);
+		assertNotNull(yLink);
+
+		final ProcessorPool pool = new ProcessorPool(dag, 1);
+		final Processor processor = pool.acquire(new OpContext());
+		processor.stepAll();
+		assertEquals(3.0, (Double)processor.getContext().findChildContext(av).get(AddNode.RESULT_FIELD), 1e-10);
+		pool.release(processor);
+		assertNull(processor.getContext());
+
+		// structural changes are picked up by reused processors
+		final ConstantNode cv3 = new ConstantNode(5.0);
+		dag.add(cv3);
+		assertTrue(dag.remove(yLink));
+		assertNotNull(dag.connect(cv3, ConstantNode.VALUE_FIELD, av, AddNode.Y_FIELD));
+
+		final OpContext context = new OpContext();
+		final Processor reused = pool.acquire(context);
+		assertSame(processor, reused);
+		assertSame(context, reused.getContext());
+		reused.stepAll();
+		assertNull(reused.getError());
+		assertEquals(6.0, (Double)context.findChildContext(av).get(AddNode.RESULT_FIELD), 1e-10);
+		pool.release(reused);
+	}
+
+	/**
+	 * Constructing, acquiring and releasing processors does not modify the
+	 * graph, so its version and compiled execution plan are kept.
+	 */
+	@Test
+	public void testProcessorSetupKeepsPlan() {
+		final OpGraph dag = new OpGraph();
+		final ConstantNode cv1 = new ConstantNode(1.0);
+		final ConstantNode cv2 = new ConstantNode(2.0);
+		final AddNode av = new AddNode();
+		dag.add(cv1);
+		dag.add(cv2);
+		dag.add(av);
+		assertNotNull(dag.connect(cv1, ConstantNode.VALUE_FIELD, av, AddNode.X_FIELD));
+		assertNotNull(dag.connect(cv2, ConstantNode.VALUE_FIELD, av, AddNode.Y_FIELD));
+
+		final ExecutionPlan plan = dag.getExecutionPlan();
+		final long version = dag.getVersion();
+
+		final ProcessorPool pool = new ProcessorPool(dag, 2);
+		final Processor first = pool.acquire(new OpContext());
+		final Processor second = pool.acquire(new OpContext());
+		first.stepAll();
+		second.stepAll();
+		pool.release(first);
+		pool.release(second);
+		pool.acquire(new OpContext()).stepAll();
+		new Processor(dag).stepAll();
+
+		assertEquals(version, dag.getVersion());
+		assertSame(plan, dag.getExecutionPlan());
+	}
+
+	/**
+	 * Test node which copies its input to its output.
+	 */
+	static class PassNode extends OpNode {
+		public final static InputField IN_FIELD = new InputField("in", "", false, true, Object.class);
+		public final static OutputField OUT_FIELD = new OutputField("out", "", true, Object.class);
+
+		public PassNode() {
+			super("Pass", "Copies in to out");
+			putField(IN_FIELD);
+			putField(OUT_FIELD);
+		}
+
+		@Override
+		public void operate(OpContext context) {
+			context.put(OUT_FIELD, context.get(IN_FIELD));
+		}
+	}
+
+	/**
+	 * Operating a node whose context already exists should not allocate
+	 * when no listeners are registered. JMH is not part of this build so
+	 * allocation is measured using the per-thread allocation counter.
+	 */
+	@Test
+	public void testOperateNodeAllocation() throws ReflectiveOperationException {
+		// management classes are accessed reflectively as the core module does not read them
+		final Object threadBean = Class.forName("java.lang.management.ManagementFactory")
+				.getMethod("getThreadMXBean").invoke(null);
+		final Class<?> allocationBeanClass = Class.forName("com.sun.management.ThreadMXBean");
+		Assume.assumeTrue(allocationBeanClass.isInstance(threadBean));
+		Assume.assumeTrue((Boolean)allocationBeanClass.getMethod("isThreadAllocatedMemorySupported").invoke(threadBean));
+		allocationBeanClass.getMethod("setThreadAllocatedMemoryEnabled", boolean.class).invoke(threadBean, true);
+		final java.lang.reflect.Method getAllocatedBytes =
+				allocationBeanClass.getMethod("getThreadAllocatedBytes", long.class);
+
+		final OpGraph dag = new OpGraph();
+		final ConstantNode source = new ConstantNode(1.0);
+		dag.add(source);
+		OpNode prev = source;
+		OutputField prevField = ConstantNode.VALUE_FIELD;
+		for(int i = 0; i < 8; ++i) {
+			final PassNode pass = new PassNode();
+			dag.add(pass);
+			assertNotNull(dag.connect(prev, prevField, pass, PassNode.IN_FIELD));
+			prev = pass;
+			prevField = PassNode.OUT_FIELD;
+		}
+
+		final Processor processor = new Processor(dag);
+		processor.stepAll();
+		assertNull(processor.getError());
+
+		final List<OpNode> nodes = dag.getExecutionPlan().getNodes().subList(1, 9);
+		final OpContext[] contexts = new OpContext[nodes.size()];
+		for(int i = 0; i < contexts.length; ++i)
+			contexts[i] = processor.getContext().getChildContext(nodes.get(i));
+
+		final int iterations = 50000;
+		long allocated = 0L;
+		for(int round = 0; round < 3; ++round) {
+			final long tid = Thread.currentThread().getId();
+			final long start = (Long)getAllocatedBytes.invoke(threadBean, tid);
+			for(int i = 0; i < iterations; ++i) {
+				for(int j = 0; j < contexts.length; ++j)
+					processor.operateNode(nodes.get(j), contexts[j], false);
+			}
+			allocated = (Long)getAllocatedBytes.invoke(threadBean, tid) - start;
+		}
+		assertEquals(1.0, (Double)contexts[contexts.length - 1].get(PassNode.OUT_FIELD), 1e-10);
+
+		// allow for a few bytes of noise from the measurement itself
+		final double bytesPerNode = (double)allocated / (iterations * contexts.length);
+		assertTrue("Allocated " + bytesPerNode + " bytes per node", bytesPerNode < 1.0);
+	}
+
+	/**
+	 * Restarting a processor keeps child contexts, clears their values and
+	 * puts node defaults back.
+	 */
+	@Test
+	public void testRestart() {
+		final OpGraph dag = new OpGraph();
+		final ConstantNode source = new ConstantNode(1.0);
+		final PassNode linked = new PassNode();
+		final PassNode unlinked = new PassNode();
+		dag.add(source);
+		dag.add(linked);
+		dag.add(unlinked);
+		assertNotNull(dag.connect(source, ConstantNode.VALUE_FIELD, linked, PassNode.IN_FIELD));
+
+		final NodeMetadata meta = new NodeMetadata();
+		meta.setDefault(PassNode.IN_FIELD, 2.0);
+		unlinked.putExtension(NodeMetadata.class, meta);
+
+		final Processor processor = new Processor(dag);
+		processor.stepAll();
+		assertNull(processor.getError());
+
+		final OpContext linkedContext = processor.getContext().getChildContext(linked);
+		final OpContext unlinkedContext = processor.getContext().getChildContext(unlinked);
+		linkedContext.put("stale", true);
+
+		for(int i = 0; i < 3; ++i) {
+			processor.restart();
+			assertSame(linkedContext, processor.getContext().getChildContext(linked));
+			assertSame(unlinkedContext, processor.getContext().findChildContext(unlinked));
+			assertFalse(linkedContext.containsKey("stale"));
+			assertFalse(linkedContext.containsKey(PassNode.OUT_FIELD.getKey()));
+			assertEquals(2.0, unlinkedContext.get(PassNode.IN_FIELD));
+
+			processor.stepAll();
+			assertNull(processor.getError());
+			assertEquals(1.0, linkedContext.get(PassNode.OUT_FIELD));
+			assertEquals(2.0, unlinkedContext.get(PassNode.OUT_FIELD));
+		}
+	}
+
+	/**
+	 * Pass node which counts how many times it has operated.
+	 */
+	static class CountingPassNode extends PassNode implements Cacheable {
+		int operateCount = 0;
+
+		public CountingPassNode() {
+			putExtension(Cacheable.class, this);
+		}
+
+		@Override
+		public void operate(OpContext context) {
+			++operateCount;
+			super.operate(context);
+		}
+
+		@Override
+		public Object getCacheState() {
+			return null;
+		}
+	}
+
+	@Test
+	public void testResultCache() {
+		final OpGraph dag = new OpGraph();
+		final CountingPassNode pass = new CountingPassNode();
+		dag.add(pass);
+
+		final NodeMetadata meta = new NodeMetadata();
+		meta.setDefault(PassNode.IN_FIELD, 2.0);
+		pass.putExtension(NodeMetadata.class, meta);
+
+		final ResultCache cache = new ResultCache(2);
+		final Processor processor = new Processor(dag);
+		processor.setResultCache(cache);
+
+		for(int i = 0; i < 3; ++i) {
+			processor.restart();
+			processor.stepAll();
+			assertNull(processor.getError());
+			assertEquals(2.0, processor.getContext().getChildContext(pass).get(PassNode.OUT_FIELD));
+			assertEquals(Boolean.TRUE, processor.getContext().getChildContext(pass).get(OpNode.COMPLETED_FIELD));
+		}
+		assertEquals(1, pass.operateCount);
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+
+		// different inputs are a miss
+		meta.setDefault(PassNode.IN_FIELD, 3.0);
+		processor.reset();
+		processor.stepAll();
+		assertEquals(3.0, processor.getContext().getChildContext(pass).get(PassNode.OUT_FIELD));
+		assertEquals(2, pass.operateCount);
+		assertEquals(2, cache.size());
+
+		// cache found in the context
+		final OpContext context = new OpContext();
+		context.put(ResultCache.CONTEXT_KEY, cache);
+		final Processor contextProcessor = new Processor(dag, context);
+		contextProcessor.stepAll();
+		assertEquals(3.0, context.getChildContext(pass).get(PassNode.OUT_FIELD));
+		assertEquals(2, pass.operateCount);
+		assertEquals(3, cache.getHitCount());
+	}
+
+	@Test
+	public void testReprocess() {
+		final OpGraph dag = new OpGraph();
+		final ConstantNode source = new ConstantNode(1.0);
+		final CountingPassNode linked = new CountingPassNode();
+		final CountingPassNode downstream = new CountingPassNode();
+		final CountingPassNode unlinked = new CountingPassNode();
+		dag.add(source);
+		dag.add(linked);
+		dag.add(downstream);
+		dag.add(unlinked);
+		assertNotNull(dag.connect(source, ConstantNode.VALUE_FIELD, linked, PassNode.IN_FIELD));
+		assertNotNull(dag.connect(linked, PassNode.OUT_FIELD, downstream, PassNode.IN_FIELD));
+
+		final NodeMetadata meta = new NodeMetadata();
+		meta.setDefault(PassNode.IN_FIELD, 2.0);
+		unlinked.putExtension(NodeMetadata.class, meta);
+
+		final Processor processor = new Processor(dag);
+		processor.stepAll();
+		processor.reprocess();
+		assertEquals(1, linked.operateCount);
+		assertEquals(1, downstream.operateCount);
+		assertEquals(1, unlinked.operateCount);
+
+		// changed default
+		meta.setDefault(PassNode.IN_FIELD, 5.0);
+		processor.reprocess();
+		assertNull(processor.getError());
+		assertEquals(5.0, processor.getContext().getChildContext(unlinked).get(PassNode.OUT_FIELD));
+		assertEquals(1, linked.operateCount);
+		assertEquals(2, unlinked.operateCount);
+
+		// invalidated node and its downstream cone
+		processor.invalidate(linked);
+		processor.reprocess();
+		assertEquals(2, linked.operateCount);
+		assertEquals(2, downstream.operateCount);
+		assertEquals(2, unlinked.operateCount);
+		assertEquals(1.0, processor.getContext().getChildContext(downstream).get(PassNode.OUT_FIELD));
+
+		// new node
+		final CountingPassNode added = new CountingPassNode();
+		dag.add(added);
+		assertNotNull(dag.connect(unlinked, PassNode.OUT_FIELD, added, PassNode.IN_FIELD));
+		processor.reprocess();
+		assertEquals(5.0, processor.getContext().getChildContext(added).get(PassNode.OUT_FIELD));
+		assertEquals(1, added.operateCount);
+		assertEquals(2, linked.operateCount);
+		assertEquals(2, unlinked.operateCount);
+	}
+
+	/**
+	 * Counting pass node which has side effects.
+	 */
+	@SideEffects
+	static class EffectNode extends CountingPassNode {
+	}
+
+	@Test
+	public void testPruning() {
+		final OpGraph dag = new OpGraph();
+		final ConstantNode source = new ConstantNode(1.0);
+		final CountingPassNode sink = new CountingPassNode();
+		final CountingPassNode unused = new CountingPassNode();
+		final CountingPassNode unusedDownstream = new CountingPassNode();
+		final ConstantNode effectSource = new ConstantNode(2.0);
+		final EffectNode effect = new EffectNode();
+		dag.add(source);
+		dag.add(sink);
+		dag.add(unused);
+		dag.add(unusedDownstream);
+		dag.add(effectSource);
+		dag.add(effect);
+		assertNotNull(dag.connect(source, ConstantNode.VALUE_FIELD, sink, PassNode.IN_FIELD));
+		assertNotNull(dag.connect(source, ConstantNode.VALUE_FIELD, unused, PassNode.IN_FIELD));
+		assertNotNull(dag.connect(unused, PassNode.OUT_FIELD, unusedDownstream, PassNode.IN_FIELD));
+		assertNotNull(dag.connect(effectSource, ConstantNode.VALUE_FIELD, effect, PassNode.IN_FIELD));
+
+		final Processor processor = new Processor(dag);
+		processor.setSinks(Collections.singletonList(sink));
+		assertEquals(new HashSet<>(Arrays.asList(unused, unusedDownstream)), new HashSet<>(processor.getPrunedNodes()));
+
+		for(int i = 0; i < 2; ++i) {
+			processor.restart();
+			processor.stepAll();
+			assertNull(processor.getError());
+		}
+		assertEquals(1.0, processor.getContext().getChildContext(sink).get(PassNode.OUT_FIELD));
+		assertEquals(2, sink.operateCount);
+		assertEquals(2, effect.operateCount);
+		assertEquals(0, unused.operateCount);
+		assertEquals(0, unusedDownstream.operateCount);
+
+		processor.setSinks(null);
+		processor.reset();
+		processor.stepAll();
+		assertTrue(processor.getPrunedNodes().isEmpty());
+		assertEquals(1, unusedDownstream.operateCount);
+	}
+
 }
@@ -120,6 +120,40 @@ public class TestDirectedAcyclicGraph {
 		}
 	}
 
+	/**
+	 * Tests cycle checks do not modify the DAG
+	 */
+	@Test
+	public void testCanAddEdge() throws Exception {
+		DirectedAcyclicGraph<SimpleVertex, SimpleDirectedEdge<SimpleVertex>> dag = new DirectedAcyclicGraph<SimpleVertex, SimpleDirectedEdge<SimpleVertex>>();
+		dag.add(vertexMap.get("A"));
+		dag.add(vertexMap.get("B"));
+		dag.add(vertexMap.get("C"));
+		dag.add(vertexMap.get("D"));
+
+		dag.add(edgeMap.get("AB"));
+		dag.add(edgeMap.get("BC"));
+		dag.add(edgeMap.get("CD"));
+
+		Assert.assertTrue(dag.canAddEdge(edgeMap.get("AD")));
+		Assert.assertFalse(dag.canAddEdge(edgeMap.get("DA")));
+		Assert.assertFalse(dag.canAddEdge(new SimpleDirectedEdge<SimpleVertex>(vertexMap.get("B"), vertexMap.get("B"))));
+		Assert.assertFalse(dag.canAddEdge(edgeMap.get("AE")));
+
+		try {
+			dag.add(edgeMap.get("DB"));
+			fail("Adding edge should create a cycle");
+		} catch(CycleDetectedException e) {
+			// expected
+		}
+		assertEquals(3, dag.getEdges().size());
+
+		dag.remove(edgeMap.get("BC"));
+		Assert.assertTrue(dag.canAddEdge(edgeMap.get("DB")));
+		assertCollectionEqualsArray(dag.getVertices(),
+		                            vertexMap.get("A"), vertexMap.get("C"), vertexMap.get("B"), vertexMap.get("D"));
+	}
+
 	/**
 	 * Tests incoming/outgoing edges in a DAG
 	 */
@@ -170,5 +204,13 @@ public class TestDirectedAcyclicGraph {
 
 		assertCollectionEqualsArray(dag.getIncomingEdges(vertexMap.get("G")));
 		assertCollectionEqualsArray(dag.getOutgoingEdges(vertexMap.get("G")));
+
+		// views are cached until edges of the vertex change
+		final Set<SimpleDirectedEdge<SimpleVertex>> incoming = dag.getIncomingEdges(vertexMap.get("A"));
+		Assert.assertTrue(incoming == dag.getIncomingEdges(vertexMap.get("A")));
+		dag.remove(edgeMap.get("CA"));
+		assertCollectionEqualsArray(incoming, edgeMap.get("CA"), edgeMap.get("DA"));
+		assertCollectionEqualsArray(dag.getIncomingEdges(vertexMap.get("A")), edgeMap.get("DA"));
+		assertCollectionEqualsArray(dag.getOutgoingEdges(vertexMap.get("C")));
 	}
 }
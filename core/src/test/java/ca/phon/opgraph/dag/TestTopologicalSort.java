@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2012-2020 Gregory Hedlund <https://www.phon.ca>
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.opgraph.dag;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+/**
+ * Tests {@link TopologicalSort}.
+ */
+public class TestTopologicalSort {
+
+	/**
+	 * Basic vertex class for testing.
+	 */
+	private static class SimpleVertex implements Vertex {
+		private final String name;
+
+		public SimpleVertex(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * Vertices within a level are ordered by the comparator and levels
+	 * are the longest path from a root vertex.
+	 */
+	@Test
+	public void testLevels() throws CycleDetectedException {
+		final SimpleVertex a = new SimpleVertex("A");
+		final SimpleVertex b = new SimpleVertex("B");
+		final SimpleVertex c = new SimpleVertex("C");
+		final SimpleVertex d = new SimpleVertex("D");
+
+		final Set<SimpleDirectedEdge<SimpleVertex>> edges = new LinkedHashSet<>();
+		edges.add(new SimpleDirectedEdge<>(d, a));
+		edges.add(new SimpleDirectedEdge<>(d, c));
+		edges.add(new SimpleDirectedEdge<>(c, a));
+		edges.add(new SimpleDirectedEdge<>(b, a));
+
+		final TopologicalSort<SimpleVertex, SimpleDirectedEdge<SimpleVertex>> sorter = new TopologicalSort<>();
+		sorter.sort(Arrays.asList(a, b, c, d), edges);
+
+		assertEquals(Arrays.asList(b, d, c, a), sorter.getVertexOrder());
+		assertEquals(0, (int)sorter.getVertexLevels().get(b));
+		assertEquals(0, (int)sorter.getVertexLevels().get(d));
+		assertEquals(1, (int)sorter.getVertexLevels().get(c));
+		assertEquals(2, (int)sorter.getVertexLevels().get(a));
+	}
+
+	@Test(expected=CycleDetectedException.class)
+	public void testCycle() throws CycleDetectedException {
+		final SimpleVertex a = new SimpleVertex("A");
+		final SimpleVertex b = new SimpleVertex("B");
+		final SimpleVertex c = new SimpleVertex("C");
+
+		final Set<SimpleDirectedEdge<SimpleVertex>> edges = new LinkedHashSet<>();
+		edges.add(new SimpleDirectedEdge<>(a, b));
+		edges.add(new SimpleDirectedEdge<>(b, c));
+		edges.add(new SimpleDirectedEdge<>(c, b));
+
+		new TopologicalSort<SimpleVertex, SimpleDirectedEdge<SimpleVertex>>().sort(Arrays.asList(a, b, c), edges);
+	}
+
+	/**
+	 * Sorting a large random graph orders every edge source before its
+	 * destination, assigns each vertex the longest path from a root
+	 * vertex as its level, and orders vertices within a level by name.
+	 */
+	@Test
+	public void testLargeGraph() throws CycleDetectedException {
+		final int size = 20000;
+		final Random random = new Random(1234L);
+
+		// edges only go from lower to higher indices, so the graph is acyclic
+		final List<SimpleVertex> vertices = new ArrayList<>(size);
+		final Set<SimpleDirectedEdge<SimpleVertex>> edges = new LinkedHashSet<>();
+		for(int i = 0; i < size; ++i) {
+			final SimpleVertex vertex = new SimpleVertex(String.format("v%06d", random.nextInt(size)));
+			vertices.add(vertex);
+			for(int j = 0; i > 0 && j < 3; ++j)
+				edges.add(new SimpleDirectedEdge<>(vertices.get(Math.max(0, i - 1 - random.nextInt(50))), vertex));
+		}
+
+		// expected levels, computed in index order
+		final Map<SimpleVertex, Integer> expectedLevels = new HashMap<>();
+		for(SimpleVertex vertex : vertices)
+			expectedLevels.put(vertex, 0);
+		for(SimpleDirectedEdge<SimpleVertex> edge : edges) {
+			final int level = expectedLevels.get(edge.getSource()) + 1;
+			if(level > expectedLevels.get(edge.getDestination()))
+				expectedLevels.put(edge.getDestination(), level);
+		}
+
+		final List<SimpleVertex> input = new ArrayList<>(vertices);
+		Collections.shuffle(input, random);
+
+		final TopologicalSort<SimpleVertex, SimpleDirectedEdge<SimpleVertex>> sorter = new TopologicalSort<>();
+		sorter.sort(input, edges);
+
+		final List<SimpleVertex> order = sorter.getVertexOrder();
+		final Map<SimpleVertex, Integer> levels = sorter.getVertexLevels();
+		assertEquals(size, order.size());
+		assertEquals(expectedLevels, levels);
+
+		final Map<SimpleVertex, Integer> positions = new HashMap<>();
+		for(int i = 0; i < order.size(); ++i)
+			positions.put(order.get(i), i);
+		for(SimpleDirectedEdge<SimpleVertex> edge : edges)
+			assertTrue(positions.get(edge.getSource()) < positions.get(edge.getDestination()));
+
+		for(int i = 1; i < order.size(); ++i) {
+			final SimpleVertex prev = order.get(i - 1);
+			final SimpleVertex vertex = order.get(i);
+			final int prevLevel = levels.get(prev);
+			final int level = levels.get(vertex);
+			assertTrue(prevLevel <= level);
+			if(prevLevel == level)
+				assertTrue(prev.toString().compareTo(vertex.toString()) <= 0);
+		}
+	}
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2012-2020 Gregory Hedlund <https://www.phon.ca>
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.phon.opgraph.util;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.*;
+
+import org.junit.*;
+
+/**
+ * Tests {@link ReflectUtil}.
+ */
+public class TestReflectUtil {
+
+	@Test
+	public void testMethodFromSignature() throws Exception {
+		final Method method = ReflectUtil.getMethodFromSignature(String.class, "regionMatches(boolean,int,java.lang.String,int,int)");
+		assertEquals(String.class.getMethod("regionMatches", boolean.class, int.class, String.class, int.class, int.class), method);
+
+		// resolved members are cached
+		assertSame(method, ReflectUtil.getMethodFromSignature(String.class, "regionMatches(boolean,int,java.lang.String,int,int)"));
+		assertSame(ReflectUtil.getInstanceMethods(String.class), ReflectUtil.getInstanceMethods(String.class));
+	}
+
+	@Test
+	public void testConstructorFromSignature() throws Exception {
+		final Constructor<?> constructor = ReflectUtil.getConstructorFromSignature(StringBuilder.class, "<init>(java.lang.String)");
+		assertEquals(StringBuilder.class.getConstructor(String.class), constructor);
+		assertSame(constructor, ReflectUtil.getConstructorFromSignature(StringBuilder.class, "<init>(java.lang.String)"));
+	}
+
+	@Test(expected=NoSuchMethodException.class)
+	public void testMissingMethod() throws Exception {
+		ReflectUtil.getMethodFromSignature(String.class, "missing(long)");
+	}
+
+}
@@ -280,7 +280,37 @@ public final class XMLSerializerFactory implements Extendable, OpGraphSerializer
 		validate(doc);
 	}
 
-	private OpGraph read(Document doc) throws IOException {
+	/**
+	 * Parses and validates a graph document without reading the graph. The
+	 * document may be given to {@link #read(Document)} any number of times
+	 * to construct independent copies of the graph, without parsing and
+	 * validating again.
+	 *
+	 * @param stream  the stream to read from
+	 *
+	 * @return the validated document
+	 *
+	 * @throws IOException  if any I/O errors occur, or the document is invalid
+	 */
+	public Document readDocument(InputStream stream) throws IOException {
+		final Document doc = documentFromStream(stream);
+		validate(doc);
+		return doc;
+	}
+
+	/**
+	 * Reads a graph from a parsed and validated document. The document is
+	 * not modified, and each call constructs new nodes.
+	 *
+	 * @param doc  the document
+	 *
+	 * @return the graph
+	 *
+	 * @throws IOException  if the graph could not be read
+	 *
+	 * @see #readDocument(InputStream)
+	 */
+	public OpGraph read(Document doc) throws IOException {
 		// Read from stream
 		OpGraph ret = null;
 	